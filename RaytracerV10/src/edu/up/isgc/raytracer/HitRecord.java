@@ -0,0 +1,83 @@
+package edu.up.isgc.raytracer;
+
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+/**
+ * The closest hit found so far while a ray walks an acceleration structure: its distance, the
+ * object that was hit and, for triangles, the barycentric coordinates of the hit. Primitives only
+ * fill these in while they are tested, so the point, normal, texture lookup and color of the
+ * {@link Intersection} are computed once, by {@link #resolve(Ray)}, for the hit that is kept.
+ */
+public class HitRecord {
+    public double distance = Double.POSITIVE_INFINITY;  ///< Distance of the hit along the ray.
+    public Object3D object;                             ///< The object hit, or null while nothing was hit.
+    public double u;                                    ///< Barycentric weight of the third corner of a triangle.
+    public double v;                                    ///< Barycentric weight of the second corner of a triangle.
+    public Intersection intersection;                   ///< Complete hit of objects that do not defer their shading, or null.
+
+    /**
+     * Checks whether a hit at the given distance would replace the current one.
+     *
+     * @param distance The distance of the candidate hit
+     * @return true if nothing was hit yet or the candidate is strictly closer
+     */
+    public boolean isCloser(double distance) {
+        return object == null || distance < this.distance;
+    }
+
+    /**
+     * Records a hit whose intersection is built later.
+     *
+     * @param object The object hit
+     * @param distance The distance of the hit
+     * @param u Barycentric weight of the third corner
+     * @param v Barycentric weight of the second corner
+     */
+    public void set(Object3D object, double distance, double u, double v) {
+        this.object = object;
+        this.distance = distance;
+        this.u = u;
+        this.v = v;
+        this.intersection = null;
+    }
+
+    /**
+     * Records a hit whose intersection is already complete.
+     *
+     * @param object The object hit
+     * @param intersection The intersection
+     */
+    public void set(Object3D object, Intersection intersection) {
+        this.object = object;
+        this.distance = intersection.distance;
+        this.intersection = intersection;
+    }
+
+    /**
+     * Checks whether a hit was recorded.
+     *
+     * @return true if an object was hit
+     */
+    public boolean isHit() {
+        return object != null;
+    }
+
+    /**
+     * Builds the intersection of the recorded hit.
+     *
+     * @param ray The ray that produced the hit
+     * @return The intersection, or null if nothing was hit
+     */
+    public Intersection resolve(Ray ray) {
+        return object == null ? null : object.surfaceInteraction(ray, this);
+    }
+
+    /**
+     * Forgets the recorded hit so the record can be reused for another ray.
+     */
+    public void reset() {
+        distance = Double.POSITIVE_INFINITY;
+        object = null;
+        intersection = null;
+    }
+}
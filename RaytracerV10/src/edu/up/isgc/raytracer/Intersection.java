@@ -13,6 +13,7 @@ public class Intersection {
     public double distance;    // Distance from ray origin to intersection point
     public Color color;        // Color of the intersected object at this point
     public Object3D object;
+    public boolean[] shadows;  // Per light, whether the point is in shadow; set by packet tracing, null when unknown
     private Vector3D normal = Vector3D.getZero();
 
     /**
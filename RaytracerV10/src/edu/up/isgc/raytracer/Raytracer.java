@@ -15,6 +15,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Main ray tracing engine that renders 3D scenes to 2D images.
@@ -60,20 +61,21 @@ public class Raytracer {
         scene.addPolygon( hat );
 
         // Render teapots with different materials
+        // The teapot is loaded once and shared by the three instances
         // Glass teapot (red)
-        Obj.RenderObj(scene, hazmatPath,Material.GLASS(Color.RED),
+        Obj.InstanceObj(scene, hazmatPath,Material.GLASS(Color.RED),
                 new Vector3D(0,180,0),
                 new Vector3D(0.5f,0.5f,0.5f),
                 new Vector3D(0,-0.6,-1));
 
         // Mirror teapot (blue)
-        Obj.RenderObj(scene, hazmatPath,Material.MIRROR(Color.BLUE),
+        Obj.InstanceObj(scene, hazmatPath,Material.MIRROR(Color.BLUE),
                 new Vector3D(0,90,0),
                 new Vector3D(0.7f,0.7f,0.7f),
                 new Vector3D(-1.2,-0.6,-0.1));
 
         // Metal teapot (yellow)
-        Obj.RenderObj(scene, hazmatPath,Material.METAL(Color.YELLOW),
+        Obj.InstanceObj(scene, hazmatPath,Material.METAL(Color.YELLOW),
                 new Vector3D(0,0,0),
                 new Vector3D(0.7f,0.7f,0.7f),
                 new Vector3D(-1.2,0.3,1));
@@ -97,6 +99,9 @@ public class Raytracer {
                 0.5f, 1f);
         */
 
+        // Reuse the BVH of the previous run while the scene does not change
+        Scene.setCacheFile(Path.of("./OBJS/Raytracer.bvh"));
+
         // Set up camera and render the scene
         Camera camera = new Camera(new Vector3D(-0.005, -0.005, -5.5), nearPlane, farPlane, 30, width, height);
         Renderer.renderScene(width, height, camera, scene);
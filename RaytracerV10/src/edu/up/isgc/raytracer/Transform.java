@@ -0,0 +1,229 @@
+package edu.up.isgc.raytracer;
+
+/**
+ * Represents an affine transformation as a 4x4 matrix together with its inverse.
+ * Transforms are immutable; composing two of them composes both matrices, so the
+ * inverse never has to be computed numerically.
+ */
+public class Transform {
+    private final double[][] m;     ///< Row-major matrix.
+    private final double[][] mInv;  ///< Row-major inverse of {@link #m}.
+
+    /**
+     * Constructs a transform from a matrix and its inverse.
+     *
+     * @param m    The 4x4 matrix
+     * @param mInv The inverse of the matrix
+     */
+    private Transform(double[][] m, double[][] mInv) {
+        this.m = m;
+        this.mInv = mInv;
+    }
+
+    /**
+     * Creates the identity transform.
+     *
+     * @return A transform that leaves every point unchanged
+     */
+    public static Transform identity() {
+        return new Transform(identityMatrix(), identityMatrix());
+    }
+
+    /**
+     * Creates a translation.
+     *
+     * @param tX Offset on the x axis
+     * @param tY Offset on the y axis
+     * @param tZ Offset on the z axis
+     * @return The translation transform
+     */
+    public static Transform translation(double tX, double tY, double tZ) {
+        double[][] m = identityMatrix();
+        double[][] mInv = identityMatrix();
+        m[0][3] = tX;
+        m[1][3] = tY;
+        m[2][3] = tZ;
+        mInv[0][3] = -tX;
+        mInv[1][3] = -tY;
+        mInv[2][3] = -tZ;
+        return new Transform(m, mInv);
+    }
+
+    /**
+     * Creates a scale around the origin.
+     *
+     * @param sX Factor on the x axis
+     * @param sY Factor on the y axis
+     * @param sZ Factor on the z axis
+     * @return The scale transform
+     */
+    public static Transform scaling(double sX, double sY, double sZ) {
+        double[][] m = identityMatrix();
+        double[][] mInv = identityMatrix();
+        m[0][0] = sX;
+        m[1][1] = sY;
+        m[2][2] = sZ;
+        mInv[0][0] = 1 / sX;
+        mInv[1][1] = 1 / sY;
+        mInv[2][2] = 1 / sZ;
+        return new Transform(m, mInv);
+    }
+
+    /**
+     * Creates a rotation around one of the coordinate axes.
+     *
+     * @param axis    0 for x, 1 for y, 2 for z
+     * @param degrees The rotation angle in degrees
+     * @return The rotation transform
+     */
+    private static Transform axisRotation(int axis, double degrees) {
+        double radians = Math.toRadians(degrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        int a = (axis + 1) % 3;
+        int b = (axis + 2) % 3;
+
+        double[][] m = identityMatrix();
+        m[a][a] = cos;
+        m[a][b] = -sin;
+        m[b][a] = sin;
+        m[b][b] = cos;
+        // Rotations are orthogonal: the inverse is the transpose
+        return new Transform(m, transpose(m));
+    }
+
+    /**
+     * Creates a rotation with the same convention as {@link Vector3D#rotate(float, float, float)}:
+     * first around x, then around y, then around z.
+     *
+     * @param rX Rotation around the x axis in degrees
+     * @param rY Rotation around the y axis in degrees
+     * @param rZ Rotation around the z axis in degrees
+     * @return The rotation transform
+     */
+    public static Transform rotation(double rX, double rY, double rZ) {
+        return axisRotation(2, rZ).multiply(axisRotation(1, rY)).multiply(axisRotation(0, rX));
+    }
+
+    /**
+     * Creates the transform applied by {@link edu.up.isgc.raytracer.files.Obj#RenderObj}:
+     * rotate, then scale, then translate.
+     *
+     * @param rotate    Rotation angles in degrees (x, y, z)
+     * @param scale     Scaling factors (x, y, z)
+     * @param translate Translation offsets (x, y, z)
+     * @return The composite transform
+     */
+    public static Transform fromRotateScaleTranslate(Vector3D rotate, Vector3D scale, Vector3D translate) {
+        return translation(translate.x, translate.y, translate.z)
+                .multiply(scaling(scale.x, scale.y, scale.z))
+                .multiply(rotation(rotate.x, rotate.y, rotate.z));
+    }
+
+    /**
+     * Composes this transform with another one. The result applies {@code other} first and this transform second.
+     *
+     * @param other The transform applied first
+     * @return The composite transform
+     */
+    public Transform multiply(Transform other) {
+        return new Transform(multiply(m, other.m), multiply(other.mInv, mInv));
+    }
+
+    /**
+     * Gets the inverse transform.
+     *
+     * @return The transform that undoes this one
+     */
+    public Transform inverse() {
+        return new Transform(mInv, m);
+    }
+
+    /**
+     * Applies the transform to a point.
+     *
+     * @param p The point
+     * @return The transformed point
+     */
+    public Vector3D transformPoint(Vector3D p) {
+        return new Vector3D(
+                m[0][0] * p.x + m[0][1] * p.y + m[0][2] * p.z + m[0][3],
+                m[1][0] * p.x + m[1][1] * p.y + m[1][2] * p.z + m[1][3],
+                m[2][0] * p.x + m[2][1] * p.y + m[2][2] * p.z + m[2][3]);
+    }
+
+    /**
+     * Applies the transform to a direction, ignoring the translation.
+     *
+     * @param v The direction
+     * @return The transformed direction, not normalized
+     */
+    public Vector3D transformVector(Vector3D v) {
+        return new Vector3D(
+                m[0][0] * v.x + m[0][1] * v.y + m[0][2] * v.z,
+                m[1][0] * v.x + m[1][1] * v.y + m[1][2] * v.z,
+                m[2][0] * v.x + m[2][1] * v.y + m[2][2] * v.z);
+    }
+
+    /**
+     * Applies the transform to a surface normal using the inverse transpose, which keeps
+     * normals perpendicular to surfaces under non-uniform scales.
+     *
+     * @param n The normal
+     * @return The transformed normal, normalized
+     */
+    public Vector3D transformNormal(Vector3D n) {
+        return new Vector3D(
+                mInv[0][0] * n.x + mInv[1][0] * n.y + mInv[2][0] * n.z,
+                mInv[0][1] * n.x + mInv[1][1] * n.y + mInv[2][1] * n.z,
+                mInv[0][2] * n.x + mInv[1][2] * n.y + mInv[2][2] * n.z).normalize();
+    }
+
+    /**
+     * Creates a 4x4 identity matrix.
+     *
+     * @return The identity matrix
+     */
+    private static double[][] identityMatrix() {
+        double[][] identity = new double[4][4];
+        for (int i = 0; i < 4; i++) identity[i][i] = 1;
+        return identity;
+    }
+
+    /**
+     * Transposes a 4x4 matrix.
+     *
+     * @param a The matrix
+     * @return A new transposed matrix
+     */
+    private static double[][] transpose(double[][] a) {
+        double[][] result = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                result[i][j] = a[j][i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies two 4x4 matrices.
+     *
+     * @param a The left matrix
+     * @param b The right matrix
+     * @return A new matrix equal to {@code a * b}
+     */
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] result = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[i][k] * b[k][j];
+                }
+                result[i][j] = sum;
+            }
+        }
+        return result;
+    }
+}
@@ -7,7 +7,6 @@ package edu.up.isgc.raytracer;
 public class Vector3D {
     public double x, y, z;  // Vector components
     public double value;    // Precomputed magnitude of the vector
-    private static Vector3D zero = new Vector3D(0, 0, 0);
     public static final double doubleOne = 1.0000000000000000000000;
     public static final double doubleZero = 0.0000000000000000000000;
     public static final float floatOne = 1.0000000000000000000000f;
@@ -69,7 +68,7 @@ public class Vector3D {
      */
     public Vector3D normalize() {
         double length = Math.sqrt(x * x + y * y + z * z);
-        if(length == 0) return zero;
+        if(length == 0) return getZero();
         return new Vector3D(x / length, y / length, z / length);
     }
 
@@ -105,6 +104,19 @@ public class Vector3D {
         else return -1;
     }
 
+    /**
+     * Moves this vector in place and updates its magnitude.
+     * @param x New X component
+     * @param y New Y component
+     * @param z New Z component
+     */
+    public void set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.value = Math.sqrt(x*x + y*y + z*z);
+    }
+
     public void translate(float tX, float tY, float tZ) {
         float[][] translationMatrix = Vector3D.getIdentityMatrix();
         translationMatrix[0][3] = tX;
@@ -234,7 +246,12 @@ public class Vector3D {
         return new Vector3D(array[0], array[1], array[2]);
     }
 
-    public static Vector3D getZero() { return Vector3D.zero; }
+    /**
+     * Creates a zero vector. A new instance is returned every time because vectors can be
+     * modified in place, which would otherwise move every shared zero at once.
+     * @return A new vector at the origin
+     */
+    public static Vector3D getZero() { return new Vector3D(0, 0, 0); }
 
     public String toString() { return "(" + x + "," + y + "," + z + ")"; }
 
@@ -1,19 +1,26 @@
 package edu.up.isgc.raytracer.files;
 
+import edu.up.isgc.raytracer.Transform;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.shapes.Instance;
 import edu.up.isgc.raytracer.shapes.Triangle;
 import edu.up.isgc.raytracer.shapes.models.Face;
+import edu.up.isgc.raytracer.shapes.models.Mesh;
+import edu.up.isgc.raytracer.shapes.models.MeshPreprocessor;
 import edu.up.isgc.raytracer.shapes.models.Polygon;
+import edu.up.isgc.raytracer.shapes.models.TriangleMesh;
 import edu.up.isgc.raytracer.world.Scene;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -22,6 +29,19 @@ import java.util.regex.Pattern;
  * Handles parsing of OBJ files, material application, and transformation of 3D models.
  */
 public class Obj {
+    /** Meshes already loaded for instancing, by OBJ path and texture map */
+    private static final Map<MeshKey, Mesh> meshCache = new HashMap<>();
+
+    /**
+     * Identifies a shared mesh. Triangles sample the texture of the material they were loaded
+     * with, so instances with different texture maps cannot share them; every other property
+     * of the material is taken from the instance when it is shaded.
+     *
+     * @param objPath Path to the OBJ file
+     * @param textureMap Texture map of the material, compared by identity, or null
+     */
+    private record MeshKey(String objPath, BufferedImage textureMap) {
+    }
 
     /**
      * Renders an OBJ object with specified transformations and adds it to the scene.
@@ -35,13 +55,217 @@ public class Obj {
      */
     public static void RenderObj(Scene scene, String objPath, Material material, Vector3D rotate, Vector3D scale, Vector3D translate) {
         Polygon polygon = new Polygon(objPath, material);
-        polygon.rotate((float)rotate.x, (float)rotate.y, (float)rotate.x);
-        polygon.scale((float)scale.x,(float)scale.y,(float)scale.z);
-        polygon.translate((float)translate.x, (float)translate.y, (float)translate.z);
-        scene.addPolygon(polygon);
+        polygon.transform(Transform.fromRotateScaleTranslate(rotate, scale, translate));
+        addPolygon(scene, polygon, objPath);
         Face.clearMaterialMap();
     }
 
+    /**
+     * Adds a loaded model to the scene, after preprocessing it and generating its levels of
+     * detail when {@link Scene#getLevelsOfDetail()} asks for more than one.
+     *
+     * @param scene The scene to add the model to
+     * @param polygon The model, already transformed
+     * @param objPath Path to the OBJ file, for the report
+     */
+    private static void addPolygon(Scene scene, Polygon polygon, String objPath) {
+        preprocess(polygon, objPath);
+        if (Scene.getLevelsOfDetail() > 1) {
+            long startTime = System.currentTimeMillis();
+            polygon.buildLevelsOfDetail(Scene.getLevelsOfDetail());
+            StringBuilder counts = new StringBuilder();
+            for (int level = 0; level < polygon.getLevelCount(); level++) {
+                if (level > 0) counts.append(", ");
+                counts.append(polygon.getLevelOfDetail(level).size());
+            }
+            System.out.println("Levels of detail of " + new File(objPath).getName() + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms: " + counts + " triangles");
+        }
+        scene.addPolygon(polygon);
+    }
+
+    /**
+     * Welds the vertices of a loaded model, removes its degenerate and duplicate triangles and
+     * sorts the rest in Morton order, unless {@link Scene#isMeshPreprocessing()} is off.
+     *
+     * @param polygon The model
+     * @param objPath Path to the OBJ file, for the report
+     */
+    private static void preprocess(Polygon polygon, String objPath) {
+        if (!Scene.isMeshPreprocessing()) return;
+        long startTime = System.currentTimeMillis();
+        MeshPreprocessor.Result result = MeshPreprocessor.preprocess(polygon, Scene.getWeldEpsilon());
+        System.out.println("Preprocessed " + new File(objPath).getName() + " in "
+                + (System.currentTimeMillis() - startTime) + " ms: welded " + result.weldedVertices()
+                + " vertices, removed " + result.degenerateTriangles() + " degenerate and "
+                + result.duplicateTriangles() + " duplicate triangles, " + result.triangles() + " left");
+    }
+
+    /**
+     * Adds an instance of an OBJ model to the scene. The file is parsed and its bottom-level
+     * hierarchy built only the first time a path is used with a given texture map; later
+     * instances share that geometry and only store their own transform and material.
+     *
+     * @param scene The scene to add the instance to
+     * @param objPath Path to the OBJ file
+     * @param material The material of this instance
+     * @param rotate Rotation angles in degrees (x, y, z)
+     * @param scale Scaling factors (x, y, z)
+     * @param translate Translation offsets (x, y, z)
+     * @return The instance added to the scene
+     */
+    public static Instance InstanceObj(Scene scene, String objPath, Material material, Vector3D rotate, Vector3D scale, Vector3D translate) {
+        Mesh mesh = loadMesh(objPath, material);
+        Instance instance = new Instance(mesh, Transform.fromRotateScaleTranslate(rotate, scale, translate), material);
+        scene.addObject(instance);
+        return instance;
+    }
+
+    /**
+     * Gets the shared mesh of an OBJ file for the texture map of a material, loading it on first use.
+     *
+     * @param objPath Path to the OBJ file
+     * @param material Material given to the triangles if the file has to be loaded
+     * @return The mesh in the object space of the file
+     */
+    public static Mesh loadMesh(String objPath, Material material) {
+        MeshKey key = new MeshKey(objPath, material != null ? material.getTextureMap() : null);
+        synchronized (meshCache) {
+            Mesh mesh = meshCache.get(key);
+            if (mesh == null) {
+                ObjData objData = readObjData(objPath);
+                Polygon polygon = objData != null ? createPolygonFromObjData(objData, material) : new Polygon(new ArrayList<>());
+                preprocess(polygon, objPath);
+                mesh = new Mesh(polygon);
+                Face.clearMaterialMap();
+                meshCache.put(key, mesh);
+            }
+            return mesh;
+        }
+    }
+
+    /**
+     * Releases every mesh loaded for instancing.
+     */
+    public static void clearMeshCache() {
+        synchronized (meshCache) {
+            meshCache.clear();
+        }
+    }
+
+    /**
+     * Loads an OBJ file into an indexed mesh and adds its triangles to the scene. Unlike
+     * {@link #RenderObj(Scene, String, Material, Vector3D, Vector3D, Vector3D)}, corners that share
+     * a position, texture coordinate and normal are stored once, in single precision.
+     *
+     * @param scene The scene to add the mesh to
+     * @param objPath Path to the OBJ file
+     * @param material The material to apply to the object
+     * @param rotate Rotation angles in degrees (x, y, z)
+     * @param scale Scaling factors (x, y, z)
+     * @param translate Translation offsets (x, y, z)
+     * @return The mesh added to the scene, or null if the file could not be read
+     */
+    public static TriangleMesh RenderMesh(Scene scene, String objPath, Material material, Vector3D rotate, Vector3D scale, Vector3D translate) {
+        TriangleMesh mesh = loadTriangleMesh(objPath, material);
+        if (mesh == null) return null;
+        mesh.transform(Transform.fromRotateScaleTranslate(rotate, scale, translate));
+        scene.addMesh(mesh);
+        return mesh;
+    }
+
+    /**
+     * Reads an OBJ file into an indexed mesh. Every distinct combination of position, texture
+     * coordinate and normal indices becomes one vertex, and polygons are split into triangle fans.
+     *
+     * @param objPath Path to the OBJ file
+     * @param material Material of every triangle, or null to use the materials named in the file
+     * @return The mesh in the object space of the file, or null if the file could not be read
+     */
+    public static TriangleMesh loadTriangleMesh(String objPath, Material material) {
+        ObjData objData = readObjData(objPath);
+        if (objData == null) return null;
+
+        // An attribute is kept only if every corner has it, which must be known before corners are welded
+        boolean hasTexCoords = !objData.texCoords.isEmpty();
+        boolean hasNormals = !objData.normals.isEmpty();
+        for (FaceData face : objData.faces) {
+            for (int j = 0; j < face.vertexIndices.length; j++) {
+                hasTexCoords &= indexOrZero(face.texIndices, j) > 0;
+                hasNormals &= indexOrZero(face.normalIndices, j) > 0;
+            }
+        }
+        Map<Corner, Integer> vertexIds = new HashMap<>();
+        Map<Material, Integer> palette = new LinkedHashMap<>();
+        ArrayList<Corner> corners = new ArrayList<>();
+        ArrayList<Integer> indices = new ArrayList<>();
+        ArrayList<Integer> triangleMaterials = new ArrayList<>();
+
+        for (FaceData face : objData.faces) {
+            Material faceMaterial = material != null ? material : Material.findByName(face.materialName);
+            if (faceMaterial == null) {
+                System.err.println("Warning: Material not found - " + face.materialName);
+                faceMaterial = Material.ALBEDO(Color.MAGENTA);
+            }
+            int materialId = palette.computeIfAbsent(faceMaterial, m -> palette.size());
+
+            int[] ids = new int[face.vertexIndices.length];
+            for (int j = 0; j < ids.length; j++) {
+                Corner corner = new Corner(face.vertexIndices[j],
+                        hasTexCoords ? indexOrZero(face.texIndices, j) : 0,
+                        hasNormals ? indexOrZero(face.normalIndices, j) : 0);
+                ids[j] = vertexIds.computeIfAbsent(corner, c -> {
+                    corners.add(c);
+                    return corners.size() - 1;
+                });
+            }
+            for (int j = 1; j + 1 < ids.length; j++) {
+                indices.add(ids[0]);
+                indices.add(ids[j]);
+                indices.add(ids[j + 1]);
+                triangleMaterials.add(materialId);
+            }
+        }
+
+        float[] positions = new float[corners.size() * 3];
+        float[] normals = hasNormals ? new float[corners.size() * 3] : null;
+        float[] uvs = hasTexCoords ? new float[corners.size() * 2] : null;
+        for (int v = 0; v < corners.size(); v++) {
+            Corner corner = corners.get(v);
+            Double[] position = objData.vertices.get(corner.position() - 1);
+            for (int axis = 0; axis < 3; axis++) positions[v * 3 + axis] = position[axis].floatValue();
+            if (normals != null) {
+                Double[] normal = objData.normals.get(corner.normal() - 1);
+                for (int axis = 0; axis < 3; axis++) normals[v * 3 + axis] = normal[axis].floatValue();
+            }
+            if (uvs != null) {
+                Double[] uv = objData.texCoords.get(corner.texture() - 1);
+                uvs[v * 2] = uv[0].floatValue();
+                uvs[v * 2 + 1] = uv[1].floatValue();
+            }
+        }
+
+        TriangleMesh mesh = new TriangleMesh(positions, normals, uvs,
+                indices.stream().mapToInt(Integer::intValue).toArray(),
+                palette.keySet().toArray(new Material[0]),
+                triangleMaterials.stream().mapToInt(Integer::intValue).toArray());
+        System.out.println("Mesh " + objPath + ": " + mesh.getTriangleCount() + " triangles, "
+                + mesh.getVertexCount() + " unique vertices");
+        return mesh;
+    }
+
+    /**
+     * Reads an optional OBJ index of a face corner.
+     *
+     * @param indices The texture or normal indices of the face, possibly null or shorter than the face
+     * @param j The corner
+     * @return The one-based index, or 0 if the corner has none
+     */
+    private static int indexOrZero(Integer[] indices, int j) {
+        if (indices == null || j >= indices.length || indices[j] == null) return 0;
+        return indices[j];
+    }
+
     /**
      * Renders an OBJ object with optional MTL materials and adds it to the scene.
      *
@@ -63,7 +287,7 @@ public class Obj {
         // Create polygon from data
         Polygon polygon = material != null ? createPolygonFromObjData(objData, material) : createPolygonFromObjData(objData, null);
         if (polygon != null) {
-            scene.addPolygon(polygon);
+            addPolygon(scene, polygon, objPath);
         }
 
         // Clean up
@@ -94,10 +318,8 @@ public class Obj {
         // Create polygon from data
         Polygon polygon = material != null ? createPolygonFromObjData(objData, material) : createPolygonFromObjData(objData, null);
         if (polygon != null) {
-            polygon.rotate((float)rotate.x, (float)rotate.y, (float)rotate.x);
-            polygon.scale((float)scale.x, (float)scale.y, (float)scale.z);
-            polygon.translate((float)translate.x, (float)translate.y, (float)translate.z);
-            scene.addPolygon(polygon);
+            polygon.transform(Transform.fromRotateScaleTranslate(rotate, scale, translate));
+            addPolygon(scene, polygon, objPath);
         }
 
         // Clean up
@@ -328,6 +550,16 @@ public class Obj {
         String currentMaterial;
     }
 
+    /**
+     * The OBJ indices of a face corner, one-based, with 0 for a missing texture coordinate or normal.
+     *
+     * @param position Index of the position
+     * @param texture Index of the texture coordinate
+     * @param normal Index of the normal
+     */
+    private record Corner(int position, int texture, int normal) {
+    }
+
     /**
      * Helper class to store face data from OBJ files.
      */
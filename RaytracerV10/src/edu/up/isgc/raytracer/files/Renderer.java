@@ -5,6 +5,8 @@ package edu.up.isgc.raytracer.files;
 
 import edu.up.isgc.raytracer.Intersection;
 import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.optimization.BVHReport;
+import edu.up.isgc.raytracer.optimization.RayPacket;
 import edu.up.isgc.raytracer.world.Camera;
 import edu.up.isgc.raytracer.world.Scene;
 
@@ -13,6 +15,8 @@ import java.awt.image.BufferedImage;
 import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -27,14 +31,17 @@ import java.util.concurrent.atomic.AtomicInteger;
  * It supports multithreaded rendering for improved performance.
  */
 public class Renderer {
+    /** Width and height in pixels of the blocks whose rays are traced as one packet */
+    private static final int PACKET_SIZE = 8;
 
     private static final AtomicInteger renderedPixels = new AtomicInteger(0);
     private static int lastProgress = -1;
     private static final Object progressLock = new Object();
 
     /**
-     * Renders the given scene from the perspective of the provided camera and
-     * saves the result as a PNG image called "output.png".
+     * Selects the levels of detail and builds the acceleration structure of the given scene,
+     * then renders it from the perspective of the provided camera and saves the result as a PNG
+     * image called "output.png".
      *
      * @param width  The width of the output image in pixels.
      * @param height The height of the output image in pixels.
@@ -42,6 +49,12 @@ public class Renderer {
      * @param scene  The scene to be rendered.
      */
     public static void renderScene(int width, int height, Camera camera, Scene scene) {
+        scene.selectLevelsOfDetail(camera);
+        scene.buildAccelerationStructure();
+        if (Scene.getReportRays() > 0) {
+            writeReport(scene.reportAccelerationStructure(sampleCameraRays(width, height, camera, Scene.getReportRays()), camera));
+        }
+
         long startTime = System.currentTimeMillis();
         System.out.println("Rendering started at: " + startTime + " ms");
 
@@ -104,6 +117,50 @@ public class Renderer {
         }
     }
 
+    /**
+     * Prints the BVH report and saves it as "bvh-report.json" next to the rendered image.
+     *
+     * @param report The report to write, or null if there is none.
+     */
+    private static void writeReport(BVHReport report) {
+        if (report == null) return;
+        String json = report.toJson();
+        System.out.println("BVH report: " + json);
+        try {
+            Files.writeString(Path.of("bvh-report.json"), json + System.lineSeparator());
+        } catch (IOException e) {
+            System.out.println("Error saving BVH report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generates camera rays through the centers of a regular grid of pixels spread over the image.
+     *
+     * @param width  The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param camera The camera from which rays are cast.
+     * @param count  The approximate number of rays to generate.
+     * @return The camera rays.
+     */
+    public static List<Ray> sampleCameraRays(int width, int height, Camera camera, int count) {
+        double aspectRatio = (double) width / height;
+        double tanFov = Math.tan(Math.toRadians(camera.getFov()) / 2.0);
+        int columns = Math.max(1, Math.min(width, (int) Math.round(Math.sqrt(count * aspectRatio))));
+        int rows = Math.max(1, Math.min(height, (int) Math.round((double) count / columns)));
+
+        List<Ray> rays = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int pX = (int) ((column + 0.5) * width / columns);
+                int pY = (int) ((row + 0.5) * height / rows);
+                double ndcX = (2.0 * (pX + 0.5) / width - 1.0);
+                double ndcY = (1.0 - 2.0 * (pY + 0.5) / height);
+                rays.add(camera.generateRay(ndcX * aspectRatio * tanFov, ndcY * tanFov));
+            }
+        }
+        return rays;
+    }
+
     /**
      * Renders a rectangular portion (tile) of the image by casting rays for each pixel,
      * computing intersections with objects in the scene, and determining the final pixel color.
@@ -118,6 +175,10 @@ public class Renderer {
      */
     public static void paintSplit(BufferedImage renderImage, Camera camera, Scene scene,
                                   int x, int y, int tileW, int tileH) {
+        if (Scene.isPacketTracing()) {
+            paintPackets(renderImage, camera, scene, x, y, tileW, tileH);
+            return;
+        }
         double aspectRatio = (double) renderImage.getWidth() / renderImage.getHeight();
         double tanFov = Math.tan(Math.toRadians(camera.getFov()) / 2.0);
 
@@ -134,20 +195,99 @@ public class Renderer {
 
                 Ray ray = camera.generateRay(u, v);
                 Intersection intersection = scene.findClosestIntersection(ray, camera);
+                writePixel(renderImage, pX, pY, shade(intersection));
+            }
+        }
+    }
+
+    /**
+     * Renders a tile like {@link #paintSplit}, tracing the camera rays of every block of
+     * {@value #PACKET_SIZE}x{@value #PACKET_SIZE} pixels as one packet, followed by one packet of
+     * shadow rays per light. With ray reordering, the reflection and refraction rays of the whole
+     * tile are then traced as sorted batches. The pixels are shaded last.
+     *
+     * @param renderImage The image to draw onto.
+     * @param camera      The camera from which rays are cast.
+     * @param scene       The scene to be rendered.
+     * @param x           The x-coordinate of the top-left corner of the tile.
+     * @param y           The y-coordinate of the top-left corner of the tile.
+     * @param tileW       The width of the tile.
+     * @param tileH       The height of the tile.
+     */
+    private static void paintPackets(BufferedImage renderImage, Camera camera, Scene scene,
+                                     int x, int y, int tileW, int tileH) {
+        double aspectRatio = (double) renderImage.getWidth() / renderImage.getHeight();
+        double tanFov = Math.tan(Math.toRadians(camera.getFov()) / 2.0);
+        RayPacket packet = new RayPacket();
+        RayPacket shadows = new RayPacket();
+        Intersection[] hits = new Intersection[tileW * tileH];
+
+        for (int bY = 0; bY < tileH; bY += PACKET_SIZE) {
+            for (int bX = 0; bX < tileW; bX += PACKET_SIZE) {
+                int blockW = Math.min(PACKET_SIZE, tileW - bX);
+                int blockH = Math.min(PACKET_SIZE, tileH - bY);
 
-                Color pixelColor;
-                if (intersection != null && intersection.color != null && intersection.object != null) {
-                    intersection.color = intersection.object.addLight(intersection);
-                    pixelColor = intersection.color;
-                } else {
-                    pixelColor = Scene.background;
+                packet.clear();
+                for (int tY = bY; tY < bY + blockH; tY++) {
+                    for (int tX = bX; tX < bX + blockW; tX++) {
+                        double ndcX = (2.0 * (tX + x + 0.5) / renderImage.getWidth() - 1.0);
+                        double ndcY = (1.0 - 2.0 * (tY + y + 0.5) / renderImage.getHeight());
+                        packet.add(camera.generateRay(ndcX * aspectRatio * tanFov, ndcY * tanFov),
+                                camera.clipPlanes[0], camera.clipPlanes[1], null);
+                    }
                 }
+                scene.findClosestIntersections(packet);
+                scene.castShadows(packet, shadows);
 
-                renderImage.setRGB(pX, renderImage.getHeight() - pY - 1, pixelColor.getRGB());
-                int pixelsRendered = renderedPixels.incrementAndGet();
-                updateProgress(pixelsRendered, renderImage.getWidth() * renderImage.getHeight());
+                int lane = 0;
+                for (int tY = bY; tY < bY + blockH; tY++) {
+                    for (int tX = bX; tX < bX + blockW; tX++) {
+                        hits[tY * tileW + tX] = packet.getHit(lane++);
+                    }
+                }
+            }
+        }
+
+        if (Scene.isRayReordering()) {
+            scene.traceSecondaryRays(hits);
+        }
+        try {
+            for (int tY = 0; tY < tileH; tY++) {
+                for (int tX = 0; tX < tileW; tX++) {
+                    writePixel(renderImage, tX + x, tY + y, shade(hits[tY * tileW + tX]));
+                }
             }
+        } finally {
+            scene.clearSecondaryRays();
+        }
+    }
+
+    /**
+     * Computes the color of a pixel from the closest hit of its camera ray.
+     *
+     * @param intersection The closest intersection, or null if the ray hit nothing.
+     * @return The pixel color.
+     */
+    private static Color shade(Intersection intersection) {
+        if (intersection != null && intersection.color != null && intersection.object != null) {
+            intersection.color = intersection.object.addLight(intersection);
+            return intersection.color;
         }
+        return Scene.background;
+    }
+
+    /**
+     * Stores the color of a pixel and reports the rendering progress.
+     *
+     * @param renderImage The image to draw onto.
+     * @param pX          The x-coordinate of the pixel.
+     * @param pY          The y-coordinate of the pixel, from the top.
+     * @param pixelColor  The color of the pixel.
+     */
+    private static void writePixel(BufferedImage renderImage, int pX, int pY, Color pixelColor) {
+        renderImage.setRGB(pX, renderImage.getHeight() - pY - 1, pixelColor.getRGB());
+        int pixelsRendered = renderedPixels.incrementAndGet();
+        updateProgress(pixelsRendered, renderImage.getWidth() * renderImage.getHeight());
     }
 
     /**
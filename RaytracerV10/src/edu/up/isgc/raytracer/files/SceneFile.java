@@ -0,0 +1,207 @@
+package edu.up.isgc.raytracer.files;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.lighting.Point;
+import edu.up.isgc.raytracer.shapes.Box;
+import edu.up.isgc.raytracer.shapes.Cylinder;
+import edu.up.isgc.raytracer.shapes.Disk;
+import edu.up.isgc.raytracer.shapes.Plane;
+import edu.up.isgc.raytracer.shapes.Sphere;
+import edu.up.isgc.raytracer.world.Scene;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads a plain text scene description and adds its objects and lights to a scene, so floors,
+ * walls and other simple shapes can be analytic primitives instead of OBJ meshes. Every line
+ * holds one entry; blank lines and lines starting with {@code #} are ignored:
+ * <pre>
+ * sphere   cx cy cz  radius                              MATERIAL
+ * plane    px py pz  nx ny nz                            MATERIAL
+ * rect     cx cy cz  nx ny nz  tx ty tz  width height    MATERIAL
+ * disk     cx cy cz  nx ny nz  radius                    MATERIAL
+ * box      minx miny minz  maxx maxy maxz                MATERIAL
+ * obox     cx cy cz  sx sy sz  rx ry rz                  MATERIAL
+ * cylinder bx by bz  ax ay az  radius height             MATERIAL
+ * obj      path  rx ry rz  sx sy sz  tx ty tz            MATERIAL
+ * light    intensity  px py pz  r g b
+ * </pre>
+ * {@code MATERIAL} is either a predefined material and a color, like {@code GROUND 120 120 120},
+ * or the name of a material already read from an MTL file. It may be followed by
+ * {@code texture path} to map an image on the primitive. Relative paths are resolved against the
+ * folder of the scene file. Rotations are in degrees.
+ */
+public class SceneFile {
+
+    /**
+     * Reads a scene file and adds its entries to the scene. Lines that cannot be parsed are
+     * reported and skipped.
+     *
+     * @param scene The scene to add the objects to
+     * @param filePath Path to the scene file
+     * @return The number of entries added, or -1 if the file cannot be read
+     */
+    public static int load(Scene scene, String filePath) {
+        File folder = new File(filePath).getAbsoluteFile().getParentFile();
+        int added = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    addEntry(scene, line.split("\\s+"), folder);
+                    added++;
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    System.err.println("Skipping line " + lineNumber + " of " + filePath + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        System.out.println("Scene file " + filePath + ": " + added + " entries");
+        return added;
+    }
+
+    /**
+     * Creates the object or light of one line and adds it to the scene.
+     *
+     * @param scene The scene to add the object to
+     * @param tokens The words of the line
+     * @param folder The folder relative paths are resolved against
+     * @throws IllegalArgumentException If the entry or one of its values is not valid
+     */
+    private static void addEntry(Scene scene, String[] tokens, File folder) {
+        switch (tokens[0].toLowerCase()) {
+            case "sphere" -> scene.addObject(new Sphere(vector(tokens, 1), number(tokens, 4),
+                    material(tokens, 5, folder)));
+            case "plane" -> scene.addObject(new Plane(vector(tokens, 1), vector(tokens, 4),
+                    material(tokens, 7, folder)));
+            case "rect" -> scene.addObject(new Plane(vector(tokens, 1), vector(tokens, 4), vector(tokens, 7),
+                    number(tokens, 10), number(tokens, 11), material(tokens, 12, folder)));
+            case "disk" -> scene.addObject(new Disk(vector(tokens, 1), vector(tokens, 4), number(tokens, 7),
+                    material(tokens, 8, folder)));
+            case "box" -> scene.addObject(new Box(vector(tokens, 1), vector(tokens, 4),
+                    material(tokens, 7, folder)));
+            case "obox" -> scene.addObject(new Box(vector(tokens, 1), vector(tokens, 4), vector(tokens, 7),
+                    material(tokens, 10, folder)));
+            case "cylinder" -> scene.addObject(new Cylinder(vector(tokens, 1), vector(tokens, 4), number(tokens, 7),
+                    number(tokens, 8), material(tokens, 9, folder)));
+            case "obj" -> Obj.RenderObj(scene, resolve(tokens[1], folder).getPath(), material(tokens, 11, folder),
+                    vector(tokens, 2), vector(tokens, 5), vector(tokens, 8));
+            case "light" -> new Point((float) number(tokens, 1), color(tokens, 5), vector(tokens, 2));
+            default -> throw new IllegalArgumentException("unknown entry " + tokens[0]);
+        }
+    }
+
+    /**
+     * Reads the material that starts at the given word, with its optional texture.
+     *
+     * @param tokens The words of the line
+     * @param index Position of the material name
+     * @param folder The folder relative texture paths are resolved against
+     * @return A new material
+     * @throws IllegalArgumentException If the material is unknown or the texture cannot be read
+     */
+    private static Material material(String[] tokens, int index, File folder) {
+        String name = tokens[index];
+        Material material;
+        int next = index + 4;
+        switch (name.toUpperCase()) {
+            case "GLASS" -> material = Material.GLASS(color(tokens, index + 1));
+            case "METAL" -> material = Material.METAL(color(tokens, index + 1));
+            case "MIRROR" -> material = Material.MIRROR(color(tokens, index + 1));
+            case "ALBEDO" -> material = Material.ALBEDO(color(tokens, index + 1));
+            case "PLASTIC" -> material = Material.PLASTIC(color(tokens, index + 1));
+            case "GROUND" -> material = Material.GROUND(color(tokens, index + 1));
+            default -> {
+                material = Material.findByName(name);
+                if (material == null) throw new IllegalArgumentException("unknown material " + name);
+                next = index + 1;
+            }
+        }
+
+        if (tokens.length > next + 1 && tokens[next].equalsIgnoreCase("texture")) {
+            File texture = resolve(tokens[next + 1], folder);
+            BufferedImage image;
+            try {
+                image = ImageIO.read(texture);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read texture " + texture);
+            }
+            if (image == null) throw new IllegalArgumentException("unsupported texture format " + texture);
+            material = textured(material, image);
+        }
+        return material;
+    }
+
+    /**
+     * Copies a material with a texture map. Materials found by name are shared by every user of
+     * the MTL file, so they are never textured in place.
+     *
+     * @param material The material to copy
+     * @param image The texture map of the copy
+     * @return A new material with the properties of the given one and the texture
+     */
+    private static Material textured(Material material, BufferedImage image) {
+        Material copy = new Material(material.getSpecular(), material.getShininess(), material.getAmbient(),
+                material.getReflectivity(), material.getRefraction(), material.getTransparency(), image, material.getName());
+        copy.setColor(material.getColor());
+        return copy;
+    }
+
+    /**
+     * Reads three numbers as a vector.
+     *
+     * @param tokens The words of the line
+     * @param index Position of the first number
+     * @return The vector
+     */
+    private static Vector3D vector(String[] tokens, int index) {
+        return new Vector3D(number(tokens, index), number(tokens, index + 1), number(tokens, index + 2));
+    }
+
+    /**
+     * Reads three integers from 0 to 255 as a color.
+     *
+     * @param tokens The words of the line
+     * @param index Position of the red component
+     * @return The color
+     */
+    private static Color color(String[] tokens, int index) {
+        return new Color(Integer.parseInt(tokens[index]), Integer.parseInt(tokens[index + 1]), Integer.parseInt(tokens[index + 2]));
+    }
+
+    /**
+     * Reads a number.
+     *
+     * @param tokens The words of the line
+     * @param index Position of the number
+     * @return The number
+     */
+    private static double number(String[] tokens, int index) {
+        return Double.parseDouble(tokens[index]);
+    }
+
+    /**
+     * Resolves a path of the scene file against its folder.
+     *
+     * @param path The path as written in the file
+     * @param folder The folder of the scene file
+     * @return The file
+     */
+    private static File resolve(String path, File folder) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(folder, path);
+    }
+}
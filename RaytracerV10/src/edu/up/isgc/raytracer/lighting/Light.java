@@ -173,7 +173,9 @@ public abstract class Light {
 
         float ambientIntensity = ka * Light.getAmbientLight();
 
-        for (Light light : Light.getLights()) {
+        ArrayList<Light> lights = Light.getLights();
+        for (int i = 0; i < lights.size(); i++) {
+            Light light = lights.get(i);
             Vector3D l = Vector3D.getZero();
             double lightDistance = Double.MAX_VALUE;
             boolean inShadow = false;
@@ -183,7 +185,9 @@ public abstract class Light {
             } else if (light.type().equals("point") || light.type().equals("spot")) {
                 l = light.getDirection(point).normalize().scale(-1);
                 lightDistance = Vector3D.subtract(light.getPosition(), point).value;
-                inShadow = Scene.isInShadow(point, N, light, object);
+                inShadow = intersection.shadows != null
+                        ? intersection.shadows[i]
+                        : Scene.isInShadow(point, N, light, object);
             }
 
             float lambertian = 0;
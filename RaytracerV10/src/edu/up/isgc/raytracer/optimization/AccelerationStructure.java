@@ -0,0 +1,79 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+/**
+ * Spatial index that the scene queries while rendering. Implementations are built from the
+ * objects of the scene when they are constructed and answer closest-hit and occlusion queries.
+ * As everywhere in this tracer, objects are intersected along the negated ray direction.
+ */
+public interface AccelerationStructure {
+    /**
+     * The structures a scene can be rendered with.
+     */
+    enum Type {
+        /** Bounding volume hierarchy, see {@link LinearBVH} and {@link WideBVH} */
+        BVH,
+        /** Kd-tree built with the surface area heuristic, see {@link KdTree} */
+        KD_TREE,
+        /** Uniform grid, see {@link UniformGrid} */
+        GRID
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore);
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]}.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore);
+
+    /**
+     * Finds the closest intersection of every lane of a packet inside the interval of the lane.
+     * Structures without packet traversal trace the lanes one by one.
+     *
+     * @param packet The rays; receives the closest hit of every lane.
+     */
+    default void closestHit(RayPacket packet) {
+        for (int lane = 0; lane < packet.size(); lane++) {
+            packet.setResult(lane, closestHit(packet.rays[lane], packet.tMin[lane], packet.tMax[lane],
+                    packet.ignore[lane]), false);
+        }
+    }
+
+    /**
+     * Checks for every lane of a packet whether an object blocks it inside the interval of the lane.
+     * Structures without packet traversal trace the lanes one by one.
+     *
+     * @param packet The shadow rays; receives whether every lane is blocked.
+     */
+    default void occluded(RayPacket packet) {
+        for (int lane = 0; lane < packet.size(); lane++) {
+            packet.setResult(lane, null, occluded(packet.rays[lane], packet.tMin[lane], packet.tMax[lane],
+                    packet.ignore[lane]));
+        }
+    }
+
+    /**
+     * Gets the bounds of every object in the structure.
+     *
+     * @return The bounding box, or {@code null} if the structure is empty.
+     */
+    BoundingBox getBounds();
+}
@@ -1,14 +1,11 @@
 package edu.up.isgc.raytracer.optimization;
 
-import edu.up.isgc.raytracer.Intersection;
-import edu.up.isgc.raytracer.Ray;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.shapes.Object3D;
 
 import java.awt.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Stack;
 
@@ -17,6 +14,20 @@ import java.util.Stack;
  * Organizes 3D objects in a binary tree based on their bounding boxes to accelerate ray tracing.
  */
 public class BBTree {
+    /**
+     * Algorithms available to build a tree in one pass.
+     */
+    public enum BuildMethod {
+        /** Binned surface area heuristic: slower build, faster traversal */
+        BINNED_SAH,
+        /** Linear BVH over 30 bit Morton codes: fastest build */
+        LBVH_30,
+        /** Linear BVH over 63 bit Morton codes: fast build with finer spatial resolution */
+        LBVH_63,
+        /** Spatial split BVH: slowest build, fewest tests for long or overlapping triangles */
+        SBVH
+    }
+
     private BBNode root;
 
     /**
@@ -80,85 +91,132 @@ public class BBTree {
     }
 
     /**
-     * Performs a traversal of the BBTree using a ray to find intersections.
+     * Replaces the contents of the tree with a tree built in one pass over all the given objects
+     * using the binned surface area heuristic.
      *
-     * @param ray The ray used to check for intersections.
-     * @return An array of intersections found by the ray.
+     * @param objects The complete list of objects to organize.
      */
-    public Intersection[] traverse(Ray ray) {
-        return traverse(root, ray);
+    public void build(List<Object3D> objects) {
+        build(objects, Runtime.getRuntime().availableProcessors());
     }
 
     /**
-     * Recursively traverses the BBTree from the given node using the specified ray.
+     * Replaces the contents of the tree with a tree built in one pass over all the given objects
+     * using the binned surface area heuristic on the given number of threads.
      *
-     * @param node The starting node.
-     * @param ray  The ray used to check for intersections.
-     * @return An array of intersections or null if no intersections were found.
+     * @param objects     The complete list of objects to organize.
+     * @param parallelism The number of threads used to build the tree.
      */
-    private Intersection[] traverse(BBNode node, Ray ray) {
-        if (node == null || !node.bbox.bbIntersects(ray)) {
-            return null;
-        }
+    public void build(List<Object3D> objects, int parallelism) {
+        build(objects, BuildMethod.BINNED_SAH, parallelism);
+    }
 
-        Stack<BBNode> stack = new Stack<>();
-        stack.push(node);
+    /**
+     * Replaces the contents of the tree with a tree built in one pass over all the given objects
+     * using the given algorithm on the given number of threads.
+     *
+     * @param objects     The complete list of objects to organize.
+     * @param method      The algorithm used to build the tree.
+     * @param parallelism The number of threads used to build the tree.
+     */
+    public void build(List<Object3D> objects, BuildMethod method, int parallelism) {
+        this.root = switch (method) {
+            case BINNED_SAH -> new BinnedSAHBuilder(BinnedSAHBuilder.DEFAULT_BIN_COUNT, parallelism).build(objects);
+            case LBVH_30 -> new LBVHBuilder(LBVHBuilder.BITS_PER_AXIS_30, parallelism).build(objects);
+            case LBVH_63 -> new LBVHBuilder(LBVHBuilder.BITS_PER_AXIS_63, parallelism).build(objects);
+            case SBVH -> new SpatialSplitBuilder().build(objects);
+        };
+    }
 
-        Intersection[] finalResult = null;
+    /**
+     * Replaces the contents of the tree with a spatial split BVH, in which objects may be
+     * referenced from more than one leaf.
+     *
+     * @param objects         The complete list of objects to organize.
+     * @param duplicateBudget The number of extra references allowed, as a fraction of the object count.
+     * @return The number of leaf references in the new tree.
+     */
+    public int buildSpatialSplits(List<Object3D> objects, double duplicateBudget) {
+        SpatialSplitBuilder builder = new SpatialSplitBuilder(SpatialSplitBuilder.DEFAULT_BIN_COUNT, duplicateBudget);
+        this.root = builder.build(objects);
+        return builder.getReferenceCount();
+    }
 
+    /**
+     * Improves the tree in place with tree rotations until they stop paying off or the time
+     * budget runs out. Useful for trees built by {@link #insert}, which are far from optimal.
+     *
+     * @param budgetMillis The time the optimization may take, in milliseconds.
+     * @param parallelism  The number of threads used to optimize the subtrees.
+     * @return The number of passes made over the tree.
+     */
+    public int optimize(long budgetMillis, int parallelism) {
+        return new TreeRotationOptimizer(budgetMillis, parallelism).optimize(root);
+    }
+
+    /**
+     * Recomputes the bounding boxes of every node bottom-up after objects moved, without changing
+     * the topology of the tree. Children are updated before their parents.
+     */
+    public void refit() {
+        if (root == null) return;
+        ArrayDeque<BBNode> stack = new ArrayDeque<>();
+        ArrayDeque<BBNode> postOrder = new ArrayDeque<>();
+        stack.push(root);
         while (!stack.isEmpty()) {
             BBNode current = stack.pop();
-
-            if (current.isLeaf()) {
-                Intersection[] intersections = current.object.intersect(ray);
-                if (intersections != null) {
-                    for (Intersection intersection : intersections) {
-                        if (intersection != null) {
-                            intersection.object = current.object;
-                        }
-                    }
-                    finalResult = combineIntersections(finalResult, intersections);
-                }
-            } else {
-                if (current.left != null && current.left.bbox.bbIntersects(ray)) {
-                    stack.push(current.left);
-                }
-                if (current.right != null && current.right.bbox.bbIntersects(ray)) {
-                    stack.push(current.right);
-                }
+            postOrder.push(current);
+            if (!current.isLeaf()) {
+                stack.push(current.left);
+                stack.push(current.right);
             }
         }
-
-        return finalResult;
+        while (!postOrder.isEmpty()) {
+            postOrder.pop().updateBoundingBox();
+        }
     }
 
     /**
-     * Combines two arrays of intersections into one and sorts them by distance.
+     * Gets the root node of the tree.
      *
-     * @param hits1 The first array of intersections.
-     * @param hits2 The second array of intersections.
-     * @return A combined and sorted array of intersections.
+     * @return The root node, or {@code null} if the tree is empty.
      */
-    private Intersection[] combineIntersections(Intersection[] hits1, Intersection[] hits2) {
-        if (hits1 == null) return hits2;
-        if (hits2 == null) return hits1;
-
-        Intersection[] combined = new Intersection[hits1.length + hits2.length];
-        System.arraycopy(hits1, 0, combined, 0, hits1.length);
-        System.arraycopy(hits2, 0, combined, hits1.length, hits2.length);
+    BBNode getRoot() {
+        return root;
+    }
 
-        Arrays.sort(combined, Comparator.nullsLast(
-                Comparator.comparingDouble(hit -> hit != null ? hit.distance : Double.MAX_VALUE)
-        ));
+    /**
+     * Computes the surface area heuristic cost of the tree, relative to the area of the root.
+     * Lower values mean fewer expected node visits and intersection tests per ray.
+     *
+     * @return The SAH cost of the tree, or 0 if the tree is empty.
+     */
+    public double getSAHCost() {
+        if (root == null) return 0;
+        double rootArea = root.bbox.getSurfaceArea();
+        if (rootArea <= 0) return 0;
 
-        return combined;
+        double cost = 0;
+        ArrayDeque<BBNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            BBNode current = stack.pop();
+            if (current.isLeaf()) {
+                cost += BinnedSAHBuilder.INTERSECTION_COST * current.bbox.getSurfaceArea();
+            } else {
+                cost += BinnedSAHBuilder.TRAVERSAL_COST * current.bbox.getSurfaceArea();
+                stack.push(current.left);
+                stack.push(current.right);
+            }
+        }
+        return cost / rootArea;
     }
 
     /**
      * Represents a node in the Bounding Box Tree.
      * Leaf nodes contain objects, and internal nodes contain bounding boxes and children.
      */
-    private static class BBNode {
+    static class BBNode {
         public BoundingBox bbox;
         public Object3D object;  ///< Present only in leaf nodes.
         public BBNode left;
@@ -176,6 +234,33 @@ public class BBTree {
             this.right = null;
         }
 
+        /**
+         * Constructs a leaf BBNode that only covers the given part of an object,
+         * used when an object is referenced from several leaves.
+         *
+         * @param object The object to be stored in this node.
+         * @param bbox   The part of the object's bounding box covered by this leaf.
+         */
+        BBNode(Object3D object, BoundingBox bbox) {
+            this.object = object;
+            this.bbox = bbox;
+            this.left = null;
+            this.right = null;
+        }
+
+        /**
+         * Constructs an internal BBNode enclosing the two given children.
+         *
+         * @param left  The left child node.
+         * @param right The right child node.
+         */
+        public BBNode(BBNode left, BBNode right) {
+            this.object = null;
+            this.left = left;
+            this.right = right;
+            this.bbox = BoundingBox.surroundingBox(left.bbox, right.bbox);
+        }
+
         /**
          * Checks whether the node is a leaf node.
          *
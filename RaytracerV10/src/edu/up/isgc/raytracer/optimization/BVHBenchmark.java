@@ -0,0 +1,189 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.files.Obj;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.shapes.Object3D;
+import edu.up.isgc.raytracer.world.Scene;
+
+import java.awt.Color;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Measures how long it takes to build the Bounding Box Tree of a set of OBJ models with
+ * every build method, for every thread count from one up to the number of available processors,
+ * and how fast random rays traverse the binary, four-wide and quantized BVHs, the kd-tree and the grid.
+ */
+public class BVHBenchmark {
+    /** Number of timed builds per thread count, the fastest one is reported */
+    private static final int RUNS = 5;
+    /** Number of random rays traced per traversal run */
+    private static final int RAYS = 200000;
+    /** Accumulates query results so the JIT cannot drop the timed traversals */
+    private static int sink;
+
+    /**
+     * Loads the given models and prints the build time for each build method and thread count.
+     * Usage: {@code BVHBenchmark [-copies N] model.obj [model.obj ...]}. Every model is loaded
+     * {@code N} times side by side to reach larger triangle counts.
+     *
+     * @param args The options and paths of the OBJ files to load.
+     */
+    public static void main(String[] args) {
+        int copies = 1;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-copies") && i + 1 < args.length) {
+                copies = Integer.parseInt(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(new File("./OBJS/SmallTeapot.obj").getAbsolutePath());
+        }
+
+        Scene scene = new Scene(Color.WHITE);
+        long loadStart = System.currentTimeMillis();
+        for (String path : paths) {
+            for (int c = 0; c < copies; c++) {
+                Obj.RenderObj(scene, path, Material.METAL(Color.GRAY),
+                        new Vector3D(0, 0, 0),
+                        new Vector3D(1, 1, 1),
+                        new Vector3D(2 * (c % 32), 2 * (c / 32), 0));
+            }
+        }
+        List<Object3D> objects = Scene.getObjects();
+        System.out.println("Loaded " + objects.size() + " objects in "
+                + (System.currentTimeMillis() - loadStart) + " ms");
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+
+        for (BBTree.BuildMethod method : BBTree.BuildMethod.values()) {
+            System.out.println(method + ":");
+
+            // Warm up the JIT before timing anything
+            new BBTree().build(objects, method, processors);
+
+            double baseline = 0;
+            for (int threads : threadCounts) {
+                double best = Double.POSITIVE_INFINITY;
+                BBTree tree = null;
+                for (int run = 0; run < RUNS; run++) {
+                    tree = new BBTree();
+                    long start = System.nanoTime();
+                    tree.build(objects, method, threads);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                }
+                if (baseline == 0) baseline = best;
+
+                System.out.println(String.format("%3d threads: %9.2f ms  speedup %5.2fx  SAH cost %.2f",
+                        threads, best, baseline / best, tree.getSAHCost()));
+            }
+        }
+
+        BBTree tree = new BBTree();
+        tree.build(objects, BBTree.BuildMethod.BINNED_SAH, processors);
+        benchmarkTraversal(new LinearBVH(tree), objects);
+    }
+
+    /**
+     * Traces the same random rays through every acceleration structure, once looking for the
+     * closest hit and once as shadow rays, and prints the ray rates against the binary hierarchy.
+     * Rays start outside the scene and aim at random points inside its bounds.
+     *
+     * @param binary  The binary hierarchy the other structures are compared against.
+     * @param objects The objects the kd-tree and the grid are built from.
+     */
+    private static void benchmarkTraversal(LinearBVH binary, List<Object3D> objects) {
+        Map<String, AccelerationStructure> structures = new LinkedHashMap<>();
+        structures.put("binary", binary);
+        structures.put("wide", new WideBVH(binary));
+        QuantizedBVH quantized16 = new QuantizedBVH(binary, 16);
+        QuantizedBVH quantized8 = new QuantizedBVH(binary, 8);
+        structures.put("quant16", quantized16);
+        structures.put("quant8", quantized8);
+        long start = System.nanoTime();
+        structures.put("kd-tree", new KdTree(objects));
+        double kdBuild = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        structures.put("grid", new UniformGrid(objects));
+        double gridBuild = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("Kd-tree built in %.2f ms, grid built in %.2f ms", kdBuild, gridBuild));
+        System.out.println(String.format("Node memory: binary %.2f MB, quant16 %.2f MB, quant8 %.2f MB",
+                binary.getNodeBytes() / 1e6, quantized16.getNodeBytes() / 1e6, quantized8.getNodeBytes() / 1e6));
+
+        BoundingBox box = binary.getBounds();
+        if (box == null) return;
+        Vector3D center = box.getMin().add(box.getMax()).scale(0.5);
+        double radius = Vector3D.subtract(box.getMax(), box.getMin()).value;
+        Random random = new Random(42);
+        Ray[] rays = new Ray[RAYS];
+        for (int i = 0; i < RAYS; i++) {
+            Vector3D origin = center.add(new Vector3D(random.nextGaussian(), random.nextGaussian(),
+                    random.nextGaussian()).normalize().scale(radius));
+            Vector3D target = new Vector3D(
+                    box.getMin().x + random.nextDouble() * (box.getMax().x - box.getMin().x),
+                    box.getMin().y + random.nextDouble() * (box.getMax().y - box.getMin().y),
+                    box.getMin().z + random.nextDouble() * (box.getMax().z - box.getMin().z));
+            // Objects are intersected along the negated direction
+            rays[i] = new Ray(origin, Vector3D.subtract(origin, target));
+        }
+
+        System.out.println("Traversal (" + RAYS + " rays, " + binary.getNodeCount() + " binary nodes):");
+        double binaryClosest = 0, binaryShadow = 0;
+        for (Map.Entry<String, AccelerationStructure> entry : structures.entrySet()) {
+            AccelerationStructure structure = entry.getValue();
+            int mismatches = 0;
+            for (Ray ray : rays) {
+                Intersection a = binary.closestHit(ray, 0, Double.POSITIVE_INFINITY, null);
+                Intersection b = structure.closestHit(ray, 0, Double.POSITIVE_INFINITY, null);
+                if ((a == null) != (b == null) || a != null && a.distance != b.distance) mismatches++;
+            }
+
+            double closest = timeRays(rays, ray -> structure.closestHit(ray, 0, Double.POSITIVE_INFINITY, null) != null);
+            double shadow = timeRays(rays, ray -> structure.occluded(ray, 0, Double.POSITIVE_INFINITY, null));
+            if (structure == binary) {
+                binaryClosest = closest;
+                binaryShadow = shadow;
+            }
+            System.out.println(String.format("  %-8s closest hit %8.2f ms (%5.2fx)  shadow %8.2f ms (%5.2fx)  %d rays hit differently",
+                    entry.getKey(), closest, binaryClosest / closest, shadow, binaryShadow / shadow, mismatches));
+        }
+    }
+
+    /**
+     * Traces every ray with the given query and returns the fastest of several runs.
+     *
+     * @param rays  The rays to trace.
+     * @param query The traversal to time.
+     * @return The best time in milliseconds.
+     */
+    private static double timeRays(Ray[] rays, Predicate<Ray> query) {
+        double best = Double.POSITIVE_INFINITY;
+        int hits = 0;
+        for (int run = 0; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            for (Ray ray : rays) {
+                if (query.test(ray)) hits++;
+            }
+            // The first run only warms up the JIT
+            if (run > 0) best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        sink += hits;
+        return best;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores built hierarchies in a compact binary file so that later runs over the same scene can
+ * read the file back instead of building the tree again. Every file starts with a key: a
+ * SHA-256 hash of the transformed geometry of the scene and of the build settings. A file whose
+ * key does not match the current scene is ignored and overwritten after the next build.
+ * <p>
+ * Layout, big-endian: magic, version, 32-byte key, node count, leaf object count, scene object
+ * count, then the node bounds, the node offsets and the scene index of every leaf object.
+ */
+public class BVHCache {
+    /** Identifies cache files: "BVHC" */
+    private static final int MAGIC = 0x42564843;
+    /** Version of the file layout, increased whenever it changes */
+    private static final int VERSION = 1;
+    /** Length of the key in bytes */
+    private static final int KEY_LENGTH = 32;
+    /** Size of the header in bytes */
+    private static final int HEADER_SIZE = 4 + 4 + KEY_LENGTH + 4 + 4 + 4;
+
+    /**
+     * Computes the key of a scene: a hash of the world-space geometry of every object, in order,
+     * and of the settings the tree is built with. Triangles contribute their vertices, other
+     * objects their type and bounding box, which is all the builders look at.
+     *
+     * @param objects  The objects of the scene.
+     * @param settings Description of every build setting that changes the tree.
+     * @return The 32-byte key.
+     */
+    public static byte[] computeKey(List<Object3D> objects, String settings) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer values = ByteBuffer.allocate(Integer.BYTES + 9 * Double.BYTES);
+        double[] corners = new double[9];
+        for (Object3D object : objects) {
+            values.clear();
+            if (object.getTriangleVertices(corners, 0)) {
+                values.putInt(0);
+                for (double corner : corners) {
+                    values.putDouble(corner);
+                }
+            } else {
+                digest.update(object.type().getBytes(StandardCharsets.UTF_8));
+                BoundingBox bb = object.getBB();
+                values.putInt(bb == null ? 1 : 2);
+                if (bb != null) {
+                    putVector(values, bb.getMin());
+                    putVector(values, bb.getMax());
+                }
+            }
+            values.flip();
+            digest.update(values);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Reads a hierarchy back from a cache file if the file was written for the given key.
+     *
+     * @param file    The cache file.
+     * @param objects The objects of the scene, in the order used to compute the key.
+     * @param key     The key of the current scene.
+     * @return The cached hierarchy, or {@code null} if the file is missing, stale or unreadable.
+     */
+    public static LinearBVH load(Path file, List<Object3D> objects, byte[] key) {
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) return null;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+            byte[] storedKey = new byte[KEY_LENGTH];
+            header.get(storedKey);
+            if (!Arrays.equals(storedKey, key)) return null;
+
+            int nodeCount = header.getInt();
+            int objectCount = header.getInt();
+            int sceneObjects = header.getInt();
+            long expected = HEADER_SIZE + (long) nodeCount * 6 * Double.BYTES
+                    + (long) nodeCount * 2 * Integer.BYTES + (long) objectCount * Integer.BYTES;
+            if (sceneObjects != objects.size() || nodeCount < 0 || objectCount < 0 || expected != channel.size()
+                    || expected - HEADER_SIZE > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            // The body is only read once the key matched, into the heap, so the file is never
+            // mapped and can be replaced by the next save right away
+            ByteBuffer buffer = ByteBuffer.allocate((int) (expected - HEADER_SIZE));
+            readFully(channel, buffer);
+
+            double[] bounds = new double[nodeCount * 6];
+            buffer.asDoubleBuffer().get(bounds);
+            buffer.position(buffer.position() + bounds.length * Double.BYTES);
+            int[] nodes = new int[nodeCount * 2];
+            buffer.asIntBuffer().get(nodes);
+            buffer.position(buffer.position() + nodes.length * Integer.BYTES);
+            if (!validNodes(nodes, nodeCount, objectCount)) return null;
+
+            Object3D[] leafObjects = new Object3D[objectCount];
+            for (int i = 0; i < objectCount; i++) {
+                int index = buffer.getInt();
+                if (index < 0 || index >= sceneObjects) return null;
+                leafObjects[i] = objects.get(index);
+            }
+            return new LinearBVH(bounds, nodes, leafObjects);
+        } catch (IOException | BufferUnderflowException e) {
+            System.out.println("Could not read BVH cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the node offsets of a cache file describe a tree: every internal node points
+     * to a right child after its left child, and every leaf to a range of the leaf objects. The
+     * key only covers the scene, so a corrupted body would otherwise loop or index out of bounds.
+     *
+     * @param nodes       Two values per node, as stored in {@link LinearBVH}.
+     * @param nodeCount   The number of nodes.
+     * @param objectCount The number of leaf objects.
+     * @return {@code true} if every node is valid.
+     */
+    private static boolean validNodes(int[] nodes, int nodeCount, int objectCount) {
+        for (int node = 0; node < nodeCount; node++) {
+            int offset = nodes[node * 2];
+            int count = nodes[node * 2 + 1];
+            if (count < 0) return false;
+            if (count == 0) {
+                if (offset <= node + 1 || offset >= nodeCount) return false;
+            } else if (offset < 0 || (long) offset + count > objectCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads from the current position of a channel until the buffer is full, then flips it.
+     *
+     * @param channel The channel to read from.
+     * @param buffer  The buffer to fill.
+     * @throws IOException If the channel ends before the buffer is full or cannot be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Unexpected end of file");
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Writes a hierarchy to a cache file, replacing any previous content.
+     * The file is written next to its final location first so readers never see half of it.
+     *
+     * @param file    The cache file.
+     * @param bvh     The hierarchy to store.
+     * @param objects The objects of the scene, in the order used to compute the key.
+     * @param key     The key of the current scene.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(Path file, LinearBVH bvh, List<Object3D> objects, byte[] key) throws IOException {
+        Map<Object3D, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < objects.size(); i++) {
+            indices.putIfAbsent(objects.get(i), i);
+        }
+
+        int nodeCount = bvh.getNodeCount();
+        Object3D[] leafObjects = bvh.getObjects();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + nodeCount * 6 * Double.BYTES
+                + nodeCount * 2 * Integer.BYTES + leafObjects.length * Integer.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).put(key);
+        buffer.putInt(nodeCount).putInt(leafObjects.length).putInt(objects.size());
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = 0; i < 6; i++) {
+                buffer.putDouble(bvh.getBound(node, i));
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            buffer.putInt(bvh.getFirstObject(node)).putInt(bvh.getObjectCount(node));
+        }
+        for (Object3D object : leafObjects) {
+            Integer index = indices.get(object);
+            if (index == null) throw new IOException("Leaf object is not part of the scene");
+            buffer.putInt(index);
+        }
+        buffer.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Appends the coordinates of a vector to a buffer.
+     *
+     * @param buffer The buffer.
+     * @param v      The vector.
+     */
+    private static void putVector(ByteBuffer buffer, Vector3D v) {
+        buffer.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+    }
+}
@@ -0,0 +1,138 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Ray;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes the quality of a built hierarchy: its shape, its SAH cost and, optionally, the work
+ * that a sample of rays does to traverse it. The report is written as a single JSON object so
+ * that tree quality can be compared across scene changes by scripts.
+ */
+public class BVHReport {
+    private final int nodeCount;
+    private final int leafCount;
+    private final int referenceCount;
+    private final int maxDepth;
+    private final double averageLeafDepth;
+    private final Map<Integer, Integer> leafSizes = new TreeMap<>();  ///< Number of leaves for every leaf size.
+    private final double sahCost;
+    private final double leafAreaRatio;  ///< Sum of the leaf surface areas divided by the root area.
+
+    private int sampledRays = 0;
+    private int sampledHits = 0;
+    private long nodesVisited = 0;
+    private long primitiveTests = 0;
+
+    /**
+     * Work done by the rays traced with a report attached.
+     * Leaves that contain other hierarchies, like instances, count as a single primitive test.
+     */
+    static final class Counters {
+        long nodesVisited;
+        long primitiveTests;
+    }
+
+    /**
+     * Analyzes the shape of a hierarchy.
+     *
+     * @param bvh The flattened hierarchy to analyze.
+     */
+    public BVHReport(LinearBVH bvh) {
+        this.nodeCount = bvh.getNodeCount();
+        this.sahCost = bvh.getSAHCost();
+
+        // Children are stored after their parent, so a forward sweep knows every depth in time
+        int[] depths = new int[nodeCount];
+        int leaves = 0, references = 0, deepest = 0;
+        long depthSum = 0;
+        double leafArea = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int depth = depths[node];
+            deepest = Math.max(deepest, depth);
+            if (bvh.isLeaf(node)) {
+                int count = bvh.getObjectCount(node);
+                leaves++;
+                references += count;
+                depthSum += depth;
+                leafSizes.merge(count, 1, Integer::sum);
+                leafArea += bvh.getSurfaceArea(node);
+            } else {
+                depths[node + 1] = depth + 1;
+                depths[bvh.getRightChild(node)] = depth + 1;
+            }
+        }
+
+        double rootArea = nodeCount > 0 ? bvh.getSurfaceArea(0) : 0;
+        this.leafCount = leaves;
+        this.referenceCount = references;
+        this.maxDepth = deepest;
+        this.averageLeafDepth = leaves > 0 ? (double) depthSum / leaves : 0;
+        this.leafAreaRatio = rootArea > 0 ? leafArea / rootArea : 0;
+    }
+
+    /**
+     * Traces sample rays through the hierarchy and records how many nodes they visit and how
+     * many primitives they test on average. Can be called several times to add more samples.
+     *
+     * @param bvh  The hierarchy the report was created for.
+     * @param rays The rays to trace, usually camera rays.
+     * @param tMin The smallest accepted hit distance.
+     * @param tMax The largest accepted hit distance.
+     */
+    public void sampleRays(LinearBVH bvh, List<Ray> rays, double tMin, double tMax) {
+        Counters counters = new Counters();
+        for (Ray ray : rays) {
+            if (bvh.closestHit(ray, tMin, tMax, null, counters) != null) {
+                sampledHits++;
+            }
+            sampledRays++;
+        }
+        nodesVisited += counters.nodesVisited;
+        primitiveTests += counters.primitiveTests;
+    }
+
+    /**
+     * Formats the report as a JSON object on a single line.
+     *
+     * @return The JSON text.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"nodes\":").append(nodeCount);
+        json.append(",\"leaves\":").append(leafCount);
+        json.append(",\"references\":").append(referenceCount);
+        json.append(",\"maxDepth\":").append(maxDepth);
+        json.append(",\"averageLeafDepth\":").append(format(averageLeafDepth));
+        json.append(",\"leafSizes\":{");
+        boolean first = true;
+        for (Map.Entry<Integer, Integer> entry : leafSizes.entrySet()) {
+            if (!first) json.append(',');
+            json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            first = false;
+        }
+        json.append('}');
+        json.append(",\"sahCost\":").append(format(sahCost));
+        json.append(",\"leafAreaRatio\":").append(format(leafAreaRatio));
+        json.append(",\"sampledRays\":").append(sampledRays);
+        if (sampledRays > 0) {
+            json.append(",\"hitRatio\":").append(format((double) sampledHits / sampledRays));
+            json.append(",\"averageNodesVisited\":").append(format((double) nodesVisited / sampledRays));
+            json.append(",\"averagePrimitiveTests\":").append(format((double) primitiveTests / sampledRays));
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Formats a number for the JSON output.
+     *
+     * @param value The number.
+     * @return The number with four decimals, or 0 if it is not finite.
+     */
+    private static String format(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.4f", value) : "0";
+    }
+}
@@ -0,0 +1,516 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a Bounding Box Tree top-down from a complete list of objects using the binned
+ * surface area heuristic (SAH). Centroids are bucketed into a fixed number of bins per axis
+ * and the cheapest bin boundary is chosen as the split plane, which gives far better
+ * balanced trees than inserting objects one by one.
+ * The build runs on a {@link ForkJoinPool}: large subtrees are built as separate tasks and
+ * the binning and partitioning of the biggest ranges near the root are split into chunks.
+ */
+public class BinnedSAHBuilder {
+    /** Default number of bins evaluated per axis */
+    public static final int DEFAULT_BIN_COUNT = 16;
+    /** Relative cost of visiting an internal node */
+    public static final double TRAVERSAL_COST = 1.0;
+    /** Relative cost of intersecting a single object */
+    public static final double INTERSECTION_COST = 1.0;
+    /** Ranges with more objects than this are built as separate fork/join tasks */
+    private static final int PARALLEL_SUBTREE_THRESHOLD = 4096;
+    /** Ranges with at least this many objects are binned and partitioned in parallel chunks */
+    private static final int PARALLEL_BINNING_THRESHOLD = 65536;
+    /** Number of objects handled by every chunk of a parallel binning or partitioning step */
+    private static final int CHUNK_SIZE = 16384;
+
+    private final int binCount;
+    private final int parallelism;
+    private Object3D[] primitives;
+    private double[] bounds;     ///< Six values per primitive: min x, y, z followed by max x, y, z.
+    private double[] centroids;  ///< Three values per primitive.
+    private int[] indices;
+    private int[] scratch;       ///< Temporary indices used by parallel partitioning.
+
+    /**
+     * Constructs a builder that uses the default number of bins and every available processor.
+     */
+    public BinnedSAHBuilder() {
+        this(DEFAULT_BIN_COUNT);
+    }
+
+    /**
+     * Constructs a builder with the given number of bins per axis that uses every available processor.
+     *
+     * @param binCount The number of bins evaluated on each axis (at least 2).
+     */
+    public BinnedSAHBuilder(int binCount) {
+        this(binCount, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a builder with the given number of bins per axis and worker threads.
+     *
+     * @param binCount    The number of bins evaluated on each axis (at least 2).
+     * @param parallelism The number of threads used to build the tree (at least 1).
+     */
+    public BinnedSAHBuilder(int binCount, int parallelism) {
+        this.binCount = Math.max(2, binCount);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Builds a tree containing every object of the list that has a bounding box.
+     *
+     * @param objects The objects to organize.
+     * @return The root of the new tree, or {@code null} if there is nothing to build.
+     */
+    BBTree.BBNode build(List<Object3D> objects) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(ForkJoinTask.adapt(() -> buildAll(objects)));
+        } finally {
+            pool.shutdown();
+            primitives = null;
+            bounds = null;
+            centroids = null;
+            indices = null;
+            scratch = null;
+        }
+    }
+
+    /**
+     * Gathers the bounds of every object and builds the whole tree. Runs inside the builder's pool.
+     *
+     * @param objects The objects to organize.
+     * @return The root of the new tree, or {@code null} if there is nothing to build.
+     */
+    private BBTree.BBNode buildAll(List<Object3D> objects) {
+        Object3D[] candidates = objects.toArray(new Object3D[0]);
+        BoundingBox[] boxes = new BoundingBox[candidates.length];
+        IntStream.range(0, candidates.length).parallel().forEach(i -> {
+            if (candidates[i] != null) boxes[i] = candidates[i].getBB();
+        });
+
+        int count = 0;
+        for (BoundingBox bb : boxes) {
+            if (bb != null) count++;
+        }
+        if (count == 0) return null;
+
+        primitives = new Object3D[count];
+        bounds = new double[count * 6];
+        centroids = new double[count * 3];
+        indices = new int[count];
+        scratch = new int[count];
+
+        int i = 0;
+        for (int c = 0; c < candidates.length; c++) {
+            BoundingBox bb = boxes[c];
+            if (bb == null) continue;
+
+            primitives[i] = candidates[c];
+            bounds[i * 6] = bb.getMin().x;
+            bounds[i * 6 + 1] = bb.getMin().y;
+            bounds[i * 6 + 2] = bb.getMin().z;
+            bounds[i * 6 + 3] = bb.getMax().x;
+            bounds[i * 6 + 4] = bb.getMax().y;
+            bounds[i * 6 + 5] = bb.getMax().z;
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i * 3 + axis] = 0.5 * (bounds[i * 6 + axis] + bounds[i * 6 + 3 + axis]);
+            }
+            indices[i] = i;
+            i++;
+        }
+
+        return new BuildTask(0, count).compute();
+    }
+
+    /**
+     * Fork/join task that builds the subtree of a range, forking its left half when the range is large.
+     */
+    private class BuildTask extends RecursiveTask<BBTree.BBNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructs a task for the primitives stored in {@code indices[start, end)}.
+         *
+         * @param start First index of the range (inclusive).
+         * @param end   Last index of the range (exclusive).
+         */
+        BuildTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Builds the subtree of the range.
+         *
+         * @return The root node of the subtree.
+         */
+        @Override
+        protected BBTree.BBNode compute() {
+            if (end - start <= PARALLEL_SUBTREE_THRESHOLD) {
+                return buildRange(start, end);
+            }
+
+            int mid = partition(start, end);
+            BuildTask left = new BuildTask(start, mid);
+            left.fork();
+            BBTree.BBNode right = new BuildTask(mid, end).compute();
+            return new BBTree.BBNode(left.join(), right);
+        }
+    }
+
+    /**
+     * Recursively builds the subtree for the primitives stored in {@code indices[start, end)}.
+     *
+     * @param start First index of the range (inclusive).
+     * @param end   Last index of the range (exclusive).
+     * @return The root node of the subtree.
+     */
+    private BBTree.BBNode buildRange(int start, int end) {
+        if (end - start == 1) {
+            return new BBTree.BBNode(primitives[indices[start]]);
+        }
+
+        int mid = partition(start, end);
+        BBTree.BBNode left = buildRange(start, mid);
+        BBTree.BBNode right = buildRange(mid, end);
+        return new BBTree.BBNode(left, right);
+    }
+
+    /**
+     * Chooses the cheapest SAH split for a range and reorders its indices accordingly.
+     * Falls back to a median split when all centroids coincide or the split is degenerate.
+     *
+     * @param start First index of the range (inclusive).
+     * @param end   Last index of the range (exclusive).
+     * @return The index where the right half of the range begins.
+     */
+    private int partition(int start, int end) {
+        boolean parallel = end - start >= PARALLEL_BINNING_THRESHOLD;
+        int chunks = (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        double[] centroidBounds = parallel
+                ? IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> centroidBounds(chunkStart(start, c), chunkEnd(start, end, c)))
+                        .reduce(BinnedSAHBuilder::mergeBoxes).orElseThrow()
+                : centroidBounds(start, end);
+
+        double[] scales = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+            scales[axis] = extent > 0 ? binCount / extent : 0;
+        }
+
+        Bins bins = parallel
+                ? IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> binRange(chunkStart(start, c), chunkEnd(start, end, c), centroidBounds, scales))
+                        .reduce(Bins::merge).orElseThrow()
+                : binRange(start, end, centroidBounds, scales);
+
+        int bestAxis = -1;
+        int bestBin = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        double[] rightAreas = new double[binCount];
+        double[] box = new double[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            if (scales[axis] == 0) continue;
+            int base = axis * binCount;
+
+            // Sweep from the right to get the area of every suffix of bins
+            resetBox(box, 0);
+            for (int b = binCount - 1; b > 0; b--) {
+                growBox(box, 0, bins.boxes, (base + b) * 6);
+                rightAreas[b] = surfaceArea(box, 0);
+            }
+
+            // Sweep from the left and evaluate the split after every bin
+            resetBox(box, 0);
+            int leftCount = 0;
+            for (int b = 0; b < binCount - 1; b++) {
+                growBox(box, 0, bins.boxes, (base + b) * 6);
+                leftCount += bins.counts[base + b];
+                int rightCount = (end - start) - leftCount;
+                if (leftCount == 0 || rightCount == 0) continue;
+
+                double cost = leftCount * surfaceArea(box, 0) + rightCount * rightAreas[b + 1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = b;
+                }
+            }
+        }
+
+        int mid = start;
+        if (bestAxis != -1) {
+            double min = centroidBounds[bestAxis];
+            double scale = scales[bestAxis];
+            mid = parallel
+                    ? partitionParallel(start, end, chunks, bestAxis, bestBin, min, scale)
+                    : partitionSequential(start, end, bestAxis, bestBin, min, scale);
+        }
+
+        if (mid == start || mid == end) {
+            mid = (start + end) / 2;
+        }
+        return mid;
+    }
+
+    /**
+     * Reorders a range in place so that primitives left of the split bin come first.
+     *
+     * @param start First index of the range (inclusive).
+     * @param end   Last index of the range (exclusive).
+     * @param axis  The split axis.
+     * @param bin   The last bin that belongs to the left side.
+     * @param min   The minimum centroid coordinate of the range on the split axis.
+     * @param scale The number of bins divided by the centroid extent on the split axis.
+     * @return The index where the right side begins.
+     */
+    private int partitionSequential(int start, int end, int axis, int bin, double min, double scale) {
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            int p = indices[i];
+            if (binIndex(centroids[p * 3 + axis], min, scale) <= bin) {
+                i++;
+            } else {
+                indices[i] = indices[j];
+                indices[j] = p;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Reorders a large range with one counting and one scattering pass over parallel chunks.
+     *
+     * @param start  First index of the range (inclusive).
+     * @param end    Last index of the range (exclusive).
+     * @param chunks The number of chunks the range is split into.
+     * @param axis   The split axis.
+     * @param bin    The last bin that belongs to the left side.
+     * @param min    The minimum centroid coordinate of the range on the split axis.
+     * @param scale  The number of bins divided by the centroid extent on the split axis.
+     * @return The index where the right side begins.
+     */
+    private int partitionParallel(int start, int end, int chunks, int axis, int bin, double min, double scale) {
+        int[] leftCounts = IntStream.range(0, chunks).parallel().map(c -> {
+            int left = 0;
+            for (int i = chunkStart(start, c); i < chunkEnd(start, end, c); i++) {
+                if (binIndex(centroids[indices[i] * 3 + axis], min, scale) <= bin) left++;
+            }
+            return left;
+        }).toArray();
+
+        int[] leftOffsets = new int[chunks];
+        int[] rightOffsets = new int[chunks];
+        int totalLeft = 0;
+        for (int c = 0; c < chunks; c++) {
+            leftOffsets[c] = start + totalLeft;
+            totalLeft += leftCounts[c];
+        }
+        int nextRight = start + totalLeft;
+        for (int c = 0; c < chunks; c++) {
+            rightOffsets[c] = nextRight;
+            nextRight += (chunkEnd(start, end, c) - chunkStart(start, c)) - leftCounts[c];
+        }
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int left = leftOffsets[c];
+            int right = rightOffsets[c];
+            for (int i = chunkStart(start, c); i < chunkEnd(start, end, c); i++) {
+                int p = indices[i];
+                if (binIndex(centroids[p * 3 + axis], min, scale) <= bin) {
+                    scratch[left++] = p;
+                } else {
+                    scratch[right++] = p;
+                }
+            }
+        });
+        System.arraycopy(scratch, start, indices, start, end - start);
+        return start + totalLeft;
+    }
+
+    /**
+     * Computes the bounds of the centroids of a range.
+     *
+     * @param start First index of the range (inclusive).
+     * @param end   Last index of the range (exclusive).
+     * @return A packed box enclosing every centroid of the range.
+     */
+    private double[] centroidBounds(int start, int end) {
+        double[] box = new double[6];
+        resetBox(box, 0);
+        for (int i = start; i < end; i++) {
+            int p = indices[i];
+            for (int axis = 0; axis < 3; axis++) {
+                double c = centroids[p * 3 + axis];
+                box[axis] = Math.min(box[axis], c);
+                box[3 + axis] = Math.max(box[3 + axis], c);
+            }
+        }
+        return box;
+    }
+
+    /**
+     * Sorts the primitives of a range into bins on all three axes.
+     *
+     * @param start          First index of the range (inclusive).
+     * @param end            Last index of the range (exclusive).
+     * @param centroidBounds The centroid bounds of the whole range being split.
+     * @param scales         Per axis, the number of bins divided by the centroid extent (0 if flat).
+     * @return The filled bins.
+     */
+    private Bins binRange(int start, int end, double[] centroidBounds, double[] scales) {
+        Bins bins = new Bins(binCount);
+        for (int i = start; i < end; i++) {
+            int p = indices[i];
+            for (int axis = 0; axis < 3; axis++) {
+                if (scales[axis] == 0) continue;
+                int b = axis * binCount + binIndex(centroids[p * 3 + axis], centroidBounds[axis], scales[axis]);
+                bins.counts[b]++;
+                growBox(bins.boxes, b * 6, bounds, p * 6);
+            }
+        }
+        return bins;
+    }
+
+    /**
+     * Object counts and bounds of the bins of all three axes.
+     */
+    private static class Bins {
+        final int[] counts;
+        final double[] boxes;
+
+        /**
+         * Constructs empty bins.
+         *
+         * @param binCount The number of bins per axis.
+         */
+        Bins(int binCount) {
+            counts = new int[binCount * 3];
+            boxes = new double[binCount * 3 * 6];
+            for (int b = 0; b < binCount * 3; b++) resetBox(boxes, b * 6);
+        }
+
+        /**
+         * Adds the contents of other bins into these bins.
+         *
+         * @param other Bins filled from another chunk of the same range.
+         * @return These bins.
+         */
+        Bins merge(Bins other) {
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] += other.counts[b];
+                growBox(boxes, b * 6, other.boxes, b * 6);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Gets the first index of a chunk.
+     *
+     * @param start First index of the range.
+     * @param chunk The chunk number.
+     * @return The first index of the chunk.
+     */
+    private static int chunkStart(int start, int chunk) {
+        return start + chunk * CHUNK_SIZE;
+    }
+
+    /**
+     * Gets the end index (exclusive) of a chunk.
+     *
+     * @param start First index of the range.
+     * @param end   Last index of the range (exclusive).
+     * @param chunk The chunk number.
+     * @return The end index of the chunk.
+     */
+    private static int chunkEnd(int start, int end, int chunk) {
+        return Math.min(end, start + (chunk + 1) * CHUNK_SIZE);
+    }
+
+    /**
+     * Merges two packed boxes into the first one.
+     *
+     * @param box   The box to grow.
+     * @param other The box to enclose.
+     * @return The grown first box.
+     */
+    private static double[] mergeBoxes(double[] box, double[] other) {
+        growBox(box, 0, other, 0);
+        return box;
+    }
+
+    /**
+     * Maps a centroid coordinate to its bin.
+     *
+     * @param value The centroid coordinate.
+     * @param min   The minimum centroid coordinate of the range.
+     * @param scale The number of bins divided by the centroid extent.
+     * @return The bin index, clamped to the valid range.
+     */
+    private int binIndex(double value, double min, double scale) {
+        int b = (int) ((value - min) * scale);
+        return Math.min(binCount - 1, Math.max(0, b));
+    }
+
+    /**
+     * Resets a packed box to an empty (inverted) box.
+     *
+     * @param box    The packed box array.
+     * @param offset Offset of the box inside the array.
+     */
+    static void resetBox(double[] box, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[offset + axis] = Double.POSITIVE_INFINITY;
+            box[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Grows a packed box so that it also encloses another packed box.
+     *
+     * @param box         The box to grow.
+     * @param offset      Offset of the box to grow.
+     * @param other       The array holding the box to enclose.
+     * @param otherOffset Offset of the box to enclose.
+     */
+    static void growBox(double[] box, int offset, double[] other, int otherOffset) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[offset + axis] = Math.min(box[offset + axis], other[otherOffset + axis]);
+            box[offset + 3 + axis] = Math.max(box[offset + 3 + axis], other[otherOffset + 3 + axis]);
+        }
+    }
+
+    /**
+     * Calculates the surface area of a packed box.
+     *
+     * @param box    The packed box array.
+     * @param offset Offset of the box inside the array.
+     * @return The surface area, or 0 for an empty box.
+     */
+    static double surfaceArea(double[] box, int offset) {
+        double dx = box[offset + 3] - box[offset];
+        double dy = box[offset + 4] - box[offset + 1];
+        double dz = box[offset + 5] - box[offset + 2];
+        if (dx < 0 || dy < 0 || dz < 0) return 0;
+        return 2 * (dx * dy + dx * dz + dy * dz);
+    }
+}
@@ -0,0 +1,357 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Kd-tree over the bounding boxes of the scene objects. Every node splits space with an
+ * axis-aligned plane chosen by sweeping the box edges of its objects and minimizing the surface
+ * area heuristic; objects that straddle the plane go to both children. Unlike a BVH the cells
+ * do not overlap, so rays visit them strictly front to back and stop at the first cell that
+ * ends behind the closest hit, which suits dense meshes.
+ */
+public class KdTree implements AccelerationStructure {
+    /** Cost of testing one object, relative to the cost of a traversal step */
+    private static final double INTERSECTION_COST = 80;
+    /** Cost of a traversal step */
+    private static final double TRAVERSAL_COST = 1;
+    /** Fraction of the cost saved when one side of a split is empty */
+    private static final double EMPTY_BONUS = 0.5;
+    /** Nodes with at most this many objects become leaves */
+    private static final int MAX_LEAF_OBJECTS = 1;
+    /** Number of splits that may increase the cost along a path before it becomes a leaf */
+    private static final int MAX_BAD_REFINES = 3;
+    /** Marks leaves in {@link #axes} */
+    private static final int LEAF = 3;
+
+    private final Object3D[] objects;
+    private final double[] objectBounds;  ///< Six values per object: min x, y, z followed by max x, y, z.
+    private final double[] bounds = new double[6];
+    private final int maxDepth;
+
+    private int[] axes = new int[64];         ///< Per node: split axis, or LEAF.
+    private double[] splits = new double[64]; ///< Per node: position of the split plane.
+    private int[] data = new int[64];         ///< Per node: above child (internal) or first entry in leafObjects (leaf).
+    private int[] counts = new int[64];       ///< Per node: number of objects of a leaf.
+    private int nodeCount = 0;
+    private int[] leafObjects = new int[64];  ///< Object indices referenced by the leaves.
+    private int leafObjectCount = 0;
+
+    /**
+     * Builds a kd-tree over every object of the list that has a bounding box.
+     *
+     * @param sceneObjects The objects to organize.
+     */
+    public KdTree(List<Object3D> sceneObjects) {
+        List<Object3D> bounded = new ArrayList<>();
+        for (Object3D object : sceneObjects) {
+            if (object != null && object.getBB() != null) bounded.add(object);
+        }
+        this.objects = bounded.toArray(new Object3D[0]);
+        int n = objects.length;
+        this.objectBounds = new double[n * 6];
+        this.maxDepth = (int) Math.round(8 + 1.3 * Math.log(Math.max(1, n)) / Math.log(2));
+        if (n == 0) return;
+
+        BinnedSAHBuilder.resetBox(bounds, 0);
+        for (int i = 0; i < n; i++) {
+            BoundingBox bb = objects[i].getBB();
+            objectBounds[i * 6] = bb.getMin().x;
+            objectBounds[i * 6 + 1] = bb.getMin().y;
+            objectBounds[i * 6 + 2] = bb.getMin().z;
+            objectBounds[i * 6 + 3] = bb.getMax().x;
+            objectBounds[i * 6 + 4] = bb.getMax().y;
+            objectBounds[i * 6 + 5] = bb.getMax().z;
+            BinnedSAHBuilder.growBox(bounds, 0, objectBounds, i * 6);
+        }
+
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) all[i] = i;
+        buildNode(bounds.clone(), all, maxDepth, 0);
+
+        axes = Arrays.copyOf(axes, nodeCount);
+        splits = Arrays.copyOf(splits, nodeCount);
+        data = Arrays.copyOf(data, nodeCount);
+        counts = Arrays.copyOf(counts, nodeCount);
+        leafObjects = Arrays.copyOf(leafObjects, leafObjectCount);
+    }
+
+    /**
+     * Edge of an object box along one axis.
+     *
+     * @param position The coordinate of the edge.
+     * @param object   The object index.
+     * @param start    Whether the box starts or ends at the edge.
+     */
+    private record Edge(double position, int object, boolean start) {
+    }
+
+    /**
+     * Recursively builds the node covering the given region. The children of a node are
+     * stored after it: the one below the split directly follows it and the one above is
+     * recorded in {@link #data}.
+     *
+     * @param nodeBounds  The region covered by the node.
+     * @param nodeObjects The objects overlapping the region.
+     * @param depth       The number of levels left before the node must become a leaf.
+     * @param badRefines  The number of cost-increasing splits above this node.
+     */
+    private void buildNode(double[] nodeBounds, int[] nodeObjects, int depth, int badRefines) {
+        int node = allocateNode();
+        int n = nodeObjects.length;
+        if (n <= MAX_LEAF_OBJECTS || depth == 0) {
+            makeLeaf(node, nodeObjects);
+            return;
+        }
+
+        double[] extent = {nodeBounds[3] - nodeBounds[0], nodeBounds[4] - nodeBounds[1], nodeBounds[5] - nodeBounds[2]};
+        double totalArea = 2 * (extent[0] * extent[1] + extent[1] * extent[2] + extent[2] * extent[0]);
+        double invTotalArea = totalArea > 0 ? 1 / totalArea : 0;
+        double leafCost = INTERSECTION_COST * n;
+
+        int bestAxis = -1, bestOffset = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        Edge[] bestEdges = null;
+
+        // Try the longest axis first and the others only if it has no valid split
+        int axis = extent[0] > extent[1] && extent[0] > extent[2] ? 0 : (extent[1] > extent[2] ? 1 : 2);
+        for (int retries = 0; retries < 3 && bestAxis == -1; retries++, axis = (axis + 1) % 3) {
+            Edge[] edges = new Edge[2 * n];
+            for (int i = 0; i < n; i++) {
+                int object = nodeObjects[i];
+                edges[2 * i] = new Edge(objectBounds[object * 6 + axis], object, true);
+                edges[2 * i + 1] = new Edge(objectBounds[object * 6 + 3 + axis], object, false);
+            }
+            // Starts sort before ends at the same position, as a box starting there is below the plane
+            Arrays.sort(edges, (a, b) -> a.position != b.position
+                    ? Double.compare(a.position, b.position)
+                    : Boolean.compare(b.start, a.start));
+
+            int other0 = (axis + 1) % 3, other1 = (axis + 2) % 3;
+            int below = 0, above = n;
+            for (int i = 0; i < 2 * n; i++) {
+                if (!edges[i].start) above--;
+                double position = edges[i].position;
+                if (position > nodeBounds[axis] && position < nodeBounds[3 + axis]) {
+                    double belowArea = 2 * (extent[other0] * extent[other1]
+                            + (position - nodeBounds[axis]) * (extent[other0] + extent[other1]));
+                    double aboveArea = 2 * (extent[other0] * extent[other1]
+                            + (nodeBounds[3 + axis] - position) * (extent[other0] + extent[other1]));
+                    double bonus = (below == 0 || above == 0) ? EMPTY_BONUS : 0;
+                    double cost = TRAVERSAL_COST + INTERSECTION_COST * (1 - bonus)
+                            * (belowArea * invTotalArea * below + aboveArea * invTotalArea * above);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestOffset = i;
+                        bestEdges = edges;
+                    }
+                }
+                if (edges[i].start) below++;
+            }
+        }
+
+        if (bestCost > leafCost) badRefines++;
+        if ((bestCost > 4 * leafCost && n < 16) || bestAxis == -1 || badRefines == MAX_BAD_REFINES) {
+            makeLeaf(node, nodeObjects);
+            return;
+        }
+
+        int belowCount = 0, aboveCount = 0;
+        int[] belowObjects = new int[n];
+        int[] aboveObjects = new int[n];
+        for (int i = 0; i < bestOffset; i++) {
+            if (bestEdges[i].start) belowObjects[belowCount++] = bestEdges[i].object;
+        }
+        for (int i = bestOffset + 1; i < 2 * n; i++) {
+            if (!bestEdges[i].start) aboveObjects[aboveCount++] = bestEdges[i].object;
+        }
+
+        double split = bestEdges[bestOffset].position;
+        axes[node] = bestAxis;
+        splits[node] = split;
+
+        double[] belowBounds = nodeBounds.clone();
+        belowBounds[3 + bestAxis] = split;
+        buildNode(belowBounds, Arrays.copyOf(belowObjects, belowCount), depth - 1, badRefines);
+
+        data[node] = nodeCount;
+        double[] aboveBounds = nodeBounds.clone();
+        aboveBounds[bestAxis] = split;
+        buildNode(aboveBounds, Arrays.copyOf(aboveObjects, aboveCount), depth - 1, badRefines);
+    }
+
+    /**
+     * Reserves the next node, growing the node arrays when needed.
+     *
+     * @return The index of the new node.
+     */
+    private int allocateNode() {
+        if (nodeCount == axes.length) {
+            axes = Arrays.copyOf(axes, nodeCount * 2);
+            splits = Arrays.copyOf(splits, nodeCount * 2);
+            data = Arrays.copyOf(data, nodeCount * 2);
+            counts = Arrays.copyOf(counts, nodeCount * 2);
+        }
+        return nodeCount++;
+    }
+
+    /**
+     * Turns a node into a leaf referencing the given objects.
+     *
+     * @param node        The node index.
+     * @param nodeObjects The objects of the leaf.
+     */
+    private void makeLeaf(int node, int[] nodeObjects) {
+        if (leafObjectCount + nodeObjects.length > leafObjects.length) {
+            leafObjects = Arrays.copyOf(leafObjects, Math.max(leafObjects.length * 2, leafObjectCount + nodeObjects.length));
+        }
+        axes[node] = LEAF;
+        data[node] = leafObjectCount;
+        counts[node] = nodeObjects.length;
+        System.arraycopy(nodeObjects, 0, leafObjects, leafObjectCount, nodeObjects.length);
+        leafObjectCount += nodeObjects.length;
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}.
+     * Cells are visited front to back and the search stops as soon as the closest hit lies
+     * before the next cell.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        HitRecord record = new HitRecord();
+        traverse(ray, tMin, tMax, ignore, record);
+        return record.resolve(ray);
+    }
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]}.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        return traverse(ray, tMin, maxDistance, ignore, null);
+    }
+
+    /**
+     * Walks the cells pierced by the ray interval front to back.
+     *
+     * @param ray     The ray.
+     * @param tMin    Start of the ray interval.
+     * @param tMax    End of the ray interval.
+     * @param ignore  Object whose hits are skipped, or {@code null}.
+     * @param closest Receives the closest hit, or {@code null} to stop at the first blocker.
+     * @return {@code true} if a blocker was found while looking for one.
+     */
+    private boolean traverse(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord closest) {
+        if (nodeCount == 0) return false;
+
+        double[] origin = {ray.origin.x, ray.origin.y, ray.origin.z};
+        double[] direction = {-ray.direction.x, -ray.direction.y, -ray.direction.z};
+        double[] inverse = {1 / direction[0], 1 / direction[1], 1 / direction[2]};
+
+        // Clip the interval to the bounds of the tree
+        double t0 = tMin, t1 = tMax;
+        for (int axis = 0; axis < 3; axis++) {
+            if (direction[axis] == 0) {
+                if (origin[axis] < bounds[axis] || origin[axis] > bounds[3 + axis]) return false;
+                continue;
+            }
+            double near = (bounds[axis] - origin[axis]) * inverse[axis];
+            double far = (bounds[3 + axis] - origin[axis]) * inverse[axis];
+            t0 = Math.max(t0, Math.min(near, far));
+            t1 = Math.min(t1, Math.max(near, far));
+        }
+        if (t0 > t1) return false;
+
+        int[] stack = new int[maxDepth + 1];
+        double[] stackT0 = new double[maxDepth + 1];
+        double[] stackT1 = new double[maxDepth + 1];
+        int top = 0;
+        int node = 0;
+
+        while (true) {
+            if (tMax < t0) break;
+
+            if (axes[node] != LEAF) {
+                int axis = axes[node];
+                double split = splits[node];
+                double entry = direction[axis] == 0 ? origin[axis] : origin[axis] + t0 * direction[axis];
+                boolean belowFirst = entry < split || (entry == split && direction[axis] <= 0);
+                int first = belowFirst ? node + 1 : data[node];
+                int second = belowFirst ? data[node] : node + 1;
+                double tPlane = (split - origin[axis]) * inverse[axis];
+
+                if (!(tPlane >= t0 && tPlane <= t1)) {
+                    node = first;
+                } else {
+                    stack[top] = second;
+                    stackT0[top] = tPlane;
+                    stackT1[top] = t1;
+                    top++;
+                    node = first;
+                    t1 = tPlane;
+                }
+                continue;
+            }
+
+            for (int i = data[node]; i < data[node] + counts[node]; i++) {
+                Object3D object = objects[leafObjects[i]];
+                if (closest == null) {
+                    if (object.occludes(ray, tMin, tMax, ignore)) return true;
+                    continue;
+                }
+                if (object.hit(ray, tMin, tMax, ignore, closest)) {
+                    tMax = closest.distance;
+                }
+            }
+
+            if (top == 0) break;
+            top--;
+            node = stack[top];
+            t0 = stackT0[top];
+            t1 = stackT1[top];
+        }
+        return false;
+    }
+
+    /**
+     * Gets the bounds of every object in the tree.
+     *
+     * @return The bounding box, or {@code null} if the tree is empty.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        if (nodeCount == 0) return null;
+        return new BoundingBox(new Vector3D(bounds[0], bounds[1], bounds[2]),
+                new Vector3D(bounds[3], bounds[4], bounds[5]));
+    }
+
+    /**
+     * Gets the number of nodes in the tree.
+     *
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,322 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a Bounding Box Tree from Morton codes (a linear BVH). Object centroids are quantized
+ * onto a grid, interleaved into 30 or 63 bit Morton codes and radix sorted, after which every
+ * internal node of the hierarchy is found independently from the sorted codes.
+ * The build runs in linear time and is much faster than the SAH builder, at the price of a
+ * somewhat worse tree, which makes it the better choice when geometry changes every frame.
+ */
+public class LBVHBuilder {
+    /** Bits per axis of a 30 bit Morton code */
+    public static final int BITS_PER_AXIS_30 = 10;
+    /** Bits per axis of a 63 bit Morton code */
+    public static final int BITS_PER_AXIS_63 = 21;
+    /** Number of key bits sorted by every radix sort pass */
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    /** Number of objects handled by every parallel chunk */
+    private static final int CHUNK_SIZE = 16384;
+
+    private final int bitsPerAxis;
+    private final int parallelism;
+
+    /**
+     * Constructs a builder that uses 63 bit Morton codes and every available processor.
+     */
+    public LBVHBuilder() {
+        this(BITS_PER_AXIS_63, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a builder with the given code precision and number of worker threads.
+     *
+     * @param bitsPerAxis Either {@link #BITS_PER_AXIS_30} or {@link #BITS_PER_AXIS_63}.
+     * @param parallelism The number of threads used to build the tree (at least 1).
+     */
+    public LBVHBuilder(int bitsPerAxis, int parallelism) {
+        this.bitsPerAxis = Math.clamp(bitsPerAxis, 1, BITS_PER_AXIS_63);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Builds a tree containing every object of the list that has a bounding box.
+     *
+     * @param objects The objects to organize.
+     * @return The root of the new tree, or {@code null} if there is nothing to build.
+     */
+    BBTree.BBNode build(List<Object3D> objects) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(ForkJoinTask.adapt(() -> buildAll(objects)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Computes the Morton codes of the objects, sorts them and emits the hierarchy.
+     * Runs inside the builder's pool.
+     *
+     * @param objects The objects to organize.
+     * @return The root of the new tree, or {@code null} if there is nothing to build.
+     */
+    private BBTree.BBNode buildAll(List<Object3D> objects) {
+        Object3D[] candidates = objects.toArray(new Object3D[0]);
+        BBTree.BBNode[] candidateLeaves = new BBTree.BBNode[candidates.length];
+        IntStream.range(0, candidates.length).parallel().forEach(i -> {
+            if (candidates[i] != null && candidates[i].getBB() != null) {
+                candidateLeaves[i] = new BBTree.BBNode(candidates[i]);
+            }
+        });
+
+        BBTree.BBNode[] leaves = Arrays.stream(candidateLeaves).filter(leaf -> leaf != null)
+                .toArray(BBTree.BBNode[]::new);
+        int count = leaves.length;
+        if (count == 0) return null;
+        if (count == 1) return leaves[0];
+
+        // Centroids and their bounds
+        double[] centroids = new double[count * 3];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            BoundingBox bb = leaves[i].bbox;
+            centroids[i * 3] = 0.5 * (bb.getMin().x + bb.getMax().x);
+            centroids[i * 3 + 1] = 0.5 * (bb.getMin().y + bb.getMax().y);
+            centroids[i * 3 + 2] = 0.5 * (bb.getMin().z + bb.getMax().z);
+        });
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        double[] centroidBounds = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+            double[] box = new double[6];
+            BinnedSAHBuilder.resetBox(box, 0);
+            for (int i = c * CHUNK_SIZE; i < Math.min(count, (c + 1) * CHUNK_SIZE); i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    box[axis] = Math.min(box[axis], centroids[i * 3 + axis]);
+                    box[3 + axis] = Math.max(box[3 + axis], centroids[i * 3 + axis]);
+                }
+            }
+            return box;
+        }).reduce((a, b) -> {
+            BinnedSAHBuilder.growBox(a, 0, b, 0);
+            return a;
+        }).orElseThrow();
+
+        // Quantized Morton codes
+        double cells = (1L << bitsPerAxis) - 1;
+        double[] scales = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+            scales[axis] = extent > 0 ? cells / extent : 0;
+        }
+        long[] codes = new long[count];
+        int[] order = new int[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            long x = (long) ((centroids[i * 3] - centroidBounds[0]) * scales[0]);
+            long y = (long) ((centroids[i * 3 + 1] - centroidBounds[1]) * scales[1]);
+            long z = (long) ((centroids[i * 3 + 2] - centroidBounds[2]) * scales[2]);
+            codes[i] = (expandBits(x) << 2) | (expandBits(y) << 1) | expandBits(z);
+            order[i] = i;
+        });
+
+        radixSort(codes, order, bitsPerAxis * 3);
+
+        return emitHierarchy(codes, order, leaves);
+    }
+
+    /**
+     * Sorts the codes in ascending order with a parallel least-significant-digit radix sort,
+     * applying the same permutation to the object order.
+     *
+     * @param codes The Morton codes to sort.
+     * @param order The object indices that travel with the codes.
+     * @param bits  The number of significant bits of the codes.
+     */
+    private static void radixSort(long[] codes, int[] order, int bits) {
+        int count = codes.length;
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long[] codesOut = new long[count];
+        int[] orderOut = new int[count];
+        int[][] offsets = new int[chunks][];
+
+        long[] sourceCodes = codes;
+        int[] sourceOrder = order;
+        long[] targetCodes = codesOut;
+        int[] targetOrder = orderOut;
+
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            int pass = shift;
+            long[] inCodes = sourceCodes;
+
+            // Digit histogram of every chunk
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] histogram = new int[RADIX];
+                for (int i = c * CHUNK_SIZE; i < Math.min(count, (c + 1) * CHUNK_SIZE); i++) {
+                    histogram[(int) (inCodes[i] >>> pass) & (RADIX - 1)]++;
+                }
+                offsets[c] = histogram;
+            });
+
+            // Exclusive prefix sum, digit major so that the sort stays stable
+            int total = 0;
+            boolean trivial = false;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int digitTotal = 0;
+                for (int c = 0; c < chunks; c++) {
+                    int digitCount = offsets[c][digit];
+                    offsets[c][digit] = total;
+                    total += digitCount;
+                    digitTotal += digitCount;
+                }
+                if (digitTotal == count) trivial = true;
+            }
+            if (trivial) continue;  // Every key has the same digit, nothing moves
+
+            int[] inOrder = sourceOrder;
+            long[] outCodes = targetCodes;
+            int[] outOrder = targetOrder;
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] offset = offsets[c];
+                for (int i = c * CHUNK_SIZE; i < Math.min(count, (c + 1) * CHUNK_SIZE); i++) {
+                    int destination = offset[(int) (inCodes[i] >>> pass) & (RADIX - 1)]++;
+                    outCodes[destination] = inCodes[i];
+                    outOrder[destination] = inOrder[i];
+                }
+            });
+
+            targetCodes = sourceCodes;
+            targetOrder = sourceOrder;
+            sourceCodes = outCodes;
+            sourceOrder = outOrder;
+        }
+
+        if (sourceCodes != codes) {
+            System.arraycopy(sourceCodes, 0, codes, 0, count);
+            System.arraycopy(sourceOrder, 0, order, 0, count);
+        }
+    }
+
+    /**
+     * Finds the children of every internal node from the sorted codes, then creates the nodes
+     * bottom-up. Internal node {@code i} covers a range of sorted leaves that starts or ends at {@code i}.
+     *
+     * @param codes  The sorted Morton codes.
+     * @param order  The leaf index of every sorted code.
+     * @param leaves The leaf nodes.
+     * @return The root of the tree.
+     */
+    private static BBTree.BBNode emitHierarchy(long[] codes, int[] order, BBTree.BBNode[] leaves) {
+        int count = codes.length;
+        int internalCount = count - 1;
+        // Children are stored as the index of an internal node, or as ~index of a sorted leaf
+        int[] leftChild = new int[internalCount];
+        int[] rightChild = new int[internalCount];
+        int[] internalParent = new int[internalCount];
+        int[] leafParent = new int[count];
+        internalParent[0] = -1;
+
+        IntStream.range(0, internalCount).parallel().forEach(i -> {
+            // Direction of the range and the common prefix length of its other end
+            int d = commonPrefix(codes, i, i + 1) - commonPrefix(codes, i, i - 1) > 0 ? 1 : -1;
+            int minPrefix = commonPrefix(codes, i, i - d);
+
+            int maxLength = 2;
+            while (commonPrefix(codes, i, i + maxLength * d) > minPrefix) {
+                maxLength *= 2;
+            }
+            int length = 0;
+            for (int step = maxLength / 2; step >= 1; step /= 2) {
+                if (commonPrefix(codes, i, i + (length + step) * d) > minPrefix) {
+                    length += step;
+                }
+            }
+            int j = i + length * d;
+
+            // Split position: the last leaf that shares more than the range prefix with i
+            int nodePrefix = commonPrefix(codes, i, j);
+            int split = 0;
+            int step = length;
+            do {
+                step = (step + 1) >> 1;
+                if (commonPrefix(codes, i, i + (split + step) * d) > nodePrefix) {
+                    split += step;
+                }
+            } while (step > 1);
+            int gamma = i + split * d + Math.min(d, 0);
+
+            if (Math.min(i, j) == gamma) {
+                leftChild[i] = ~gamma;
+                leafParent[gamma] = i;
+            } else {
+                leftChild[i] = gamma;
+                internalParent[gamma] = i;
+            }
+            if (Math.max(i, j) == gamma + 1) {
+                rightChild[i] = ~(gamma + 1);
+                leafParent[gamma + 1] = i;
+            } else {
+                rightChild[i] = gamma + 1;
+                internalParent[gamma + 1] = i;
+            }
+        });
+
+        // Every leaf climbs towards the root; the second thread to reach a node creates it
+        BBTree.BBNode[] internal = new BBTree.BBNode[internalCount];
+        AtomicIntegerArray visits = new AtomicIntegerArray(internalCount);
+        IntStream.range(0, count).parallel().forEach(leaf -> {
+            int node = leafParent[leaf];
+            while (node != -1 && visits.getAndIncrement(node) == 1) {
+                int left = leftChild[node];
+                int right = rightChild[node];
+                internal[node] = new BBTree.BBNode(
+                        left < 0 ? leaves[order[~left]] : internal[left],
+                        right < 0 ? leaves[order[~right]] : internal[right]);
+                node = internalParent[node];
+            }
+        });
+
+        return internal[0];
+    }
+
+    /**
+     * Computes the length of the common prefix of two sorted codes. Equal codes are told
+     * apart by their positions so that every code is unique.
+     *
+     * @param codes The sorted Morton codes.
+     * @param i     The position of the first code.
+     * @param j     The position of the second code.
+     * @return The common prefix length, or -1 if {@code j} is out of range.
+     */
+    private static int commonPrefix(long[] codes, int i, int j) {
+        if (j < 0 || j >= codes.length) return -1;
+        long a = codes[i];
+        long b = codes[j];
+        if (a == b) {
+            return Long.SIZE + Integer.numberOfLeadingZeros(i ^ j);
+        }
+        return Long.numberOfLeadingZeros(a ^ b);
+    }
+
+    /**
+     * Spreads the lowest 21 bits of a value so that there are two zero bits between each of them.
+     *
+     * @param v The value to expand.
+     * @return The expanded value.
+     */
+    static long expandBits(long v) {
+        v &= 0x1fffffL;
+        v = (v | v << 32) & 0x1f00000000ffffL;
+        v = (v | v << 16) & 0x1f0000ff0000ffL;
+        v = (v | v << 8) & 0x100f00f00f00f00fL;
+        v = (v | v << 4) & 0x10c30c30c30c30c3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+}
@@ -0,0 +1,1004 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.MeshTriangle;
+import edu.up.isgc.raytracer.shapes.Object3D;
+import edu.up.isgc.raytracer.shapes.Triangle;
+import edu.up.isgc.raytracer.world.Camera;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Flattened, array-backed form of a {@link BBTree} used for traversal while rendering.
+ * Nodes are stored in depth-first order so the left child of a node always follows it directly.
+ * Node bounds live in a primitive {@code double[]} and child / object offsets in an {@code int[]},
+ * which avoids chasing node references and allocating a stack for every ray.
+ */
+public class LinearBVH implements AccelerationStructure {
+    /** Number of values stored per node in {@link #bounds} */
+    private static final int BOUNDS_STRIDE = 6;
+    /** Number of values stored per node in {@link #nodes} */
+    private static final int NODE_STRIDE = 2;
+    /** Directions smaller than this are treated as parallel to a slab, as in {@link BoundingBox#bbIntersects} */
+    private static final double PARALLEL_EPSILON = 1e-6;
+    /** Entry distance returned for nodes the ray interval does not touch */
+    private static final double MISS = Double.POSITIVE_INFINITY;
+    /** Default largest number of objects merged into a leaf */
+    public static final int DEFAULT_MAX_LEAF_SIZE = 4;
+    /** Number of values stored per triangle in {@link #triangles}: a vertex and two edges */
+    private static final int PACK_STRIDE = 9;
+
+    /** Traversal stacks reused by every ray traced on the same thread, one pair per nesting level */
+    private static final ThreadLocal<TraversalStacks> traversalStacks = ThreadLocal.withInitial(TraversalStacks::new);
+
+    private final double[] bounds;     ///< Six values per node: min x, y, z followed by max x, y, z.
+    private final int[] nodes;         ///< Per node: right child index (internal) or first object (leaf), then object count (0 for internal).
+    private final Object3D[] objects;  ///< Objects referenced by the leaves, in leaf order.
+    private final double[] triangles;  ///< Triangle packs of the leaves, see {@link #packLeaf(int)}.
+    private final boolean[] packed;    ///< Per object: whether it is tested through its triangle pack.
+    private final int nodeCount;
+
+    /**
+     * Constructs the flattened layout of the given tree, merging small subtrees into leaves of
+     * up to {@link #DEFAULT_MAX_LEAF_SIZE} objects.
+     *
+     * @param tree The tree to flatten.
+     */
+    public LinearBVH(BBTree tree) {
+        this(tree.getRoot(), DEFAULT_MAX_LEAF_SIZE);
+    }
+
+    /**
+     * Constructs the flattened layout of the given tree. A subtree becomes a single leaf when it
+     * holds at most {@code maxLeafSize} objects and testing all of them is cheaper, by the surface
+     * area heuristic, than traversing it.
+     *
+     * @param tree        The tree to flatten.
+     * @param maxLeafSize The largest number of objects per leaf, 1 keeps one object per leaf.
+     */
+    public LinearBVH(BBTree tree, int maxLeafSize) {
+        this(tree.getRoot(), maxLeafSize);
+    }
+
+    /**
+     * Constructs the flattened layout of the subtree rooted at the given node.
+     *
+     * @param root        The root node, or {@code null} for an empty hierarchy.
+     * @param maxLeafSize The largest number of objects per leaf.
+     */
+    LinearBVH(BBTree.BBNode root, int maxLeafSize) {
+        this(collapse(flatten(root), maxLeafSize));
+    }
+
+    /**
+     * Constructs a hierarchy from a flattened layout.
+     *
+     * @param layout The layout.
+     */
+    private LinearBVH(Layout layout) {
+        this(layout.bounds(), layout.nodes(), layout.objects());
+    }
+
+    /**
+     * Constructs a hierarchy from its flattened arrays, e.g. when it is read back from a {@link BVHCache}.
+     * The arrays are used as they are and must follow the layout documented on the fields.
+     *
+     * @param bounds  Six values per node.
+     * @param nodes   Two values per node.
+     * @param objects The objects referenced by the leaves.
+     */
+    LinearBVH(double[] bounds, int[] nodes, Object3D[] objects) {
+        this.nodeCount = nodes.length / NODE_STRIDE;
+        this.bounds = bounds;
+        this.nodes = nodes;
+        this.objects = objects;
+        this.triangles = new double[objects.length * PACK_STRIDE];
+        this.packed = new boolean[objects.length];
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodes[node * NODE_STRIDE + 1] > 0) packLeaf(node);
+        }
+    }
+
+    /**
+     * Flattened arrays of a hierarchy, see the fields of {@link LinearBVH}.
+     *
+     * @param bounds  Six values per node.
+     * @param nodes   Two values per node.
+     * @param objects The objects referenced by the leaves.
+     */
+    private record Layout(double[] bounds, int[] nodes, Object3D[] objects) {
+    }
+
+    /**
+     * Flattens a tree in depth-first order with one object per leaf.
+     *
+     * @param root The root node, or {@code null} for an empty hierarchy.
+     * @return The flattened layout.
+     */
+    private static Layout flatten(BBTree.BBNode root) {
+        int nodeTotal = 0;
+        int leafTotal = 0;
+        ArrayDeque<BBTree.BBNode> pending = new ArrayDeque<>();
+        if (root != null) pending.push(root);
+        while (!pending.isEmpty()) {
+            BBTree.BBNode current = pending.pop();
+            nodeTotal++;
+            if (current.isLeaf()) {
+                leafTotal++;
+            } else {
+                pending.push(current.left);
+                pending.push(current.right);
+            }
+        }
+
+        double[] bounds = new double[nodeTotal * BOUNDS_STRIDE];
+        int[] nodes = new int[nodeTotal * NODE_STRIDE];
+        Object3D[] objects = new Object3D[leafTotal];
+        if (root == null) return new Layout(bounds, nodes, objects);
+
+        // Depth-first flattening; each entry keeps the node and the index of the parent that needs its offset
+        ArrayDeque<BBTree.BBNode> nodeStack = new ArrayDeque<>();
+        ArrayDeque<Integer> parentStack = new ArrayDeque<>();
+        nodeStack.push(root);
+        parentStack.push(-1);
+
+        int nextNode = 0;
+        int nextObject = 0;
+        while (!nodeStack.isEmpty()) {
+            BBTree.BBNode current = nodeStack.pop();
+            int parent = parentStack.pop();
+            int index = nextNode++;
+            if (parent >= 0) {
+                nodes[parent * NODE_STRIDE] = index;
+            }
+
+            BoundingBox bb = current.bbox;
+            int b = index * BOUNDS_STRIDE;
+            bounds[b] = bb.getMin().x;
+            bounds[b + 1] = bb.getMin().y;
+            bounds[b + 2] = bb.getMin().z;
+            bounds[b + 3] = bb.getMax().x;
+            bounds[b + 4] = bb.getMax().y;
+            bounds[b + 5] = bb.getMax().z;
+
+            if (current.isLeaf()) {
+                nodes[index * NODE_STRIDE] = nextObject;
+                nodes[index * NODE_STRIDE + 1] = 1;
+                objects[nextObject++] = current.object;
+            } else {
+                // The right child records its offset in this node once it is emitted
+                nodeStack.push(current.right);
+                parentStack.push(index);
+                nodeStack.push(current.left);
+                parentStack.push(-1);
+            }
+        }
+        return new Layout(bounds, nodes, objects);
+    }
+
+    /**
+     * Merges subtrees into multi-object leaves where the surface area heuristic says so.
+     * A reverse sweep compares, for every node, the cost of testing all objects below it with
+     * the cost of traversing it. Objects below a node are contiguous in depth-first order,
+     * so a merged leaf simply covers their range; objects that a spatial split referenced
+     * twice below the node are kept once.
+     *
+     * @param layout      The layout with one object per leaf.
+     * @param maxLeafSize The largest number of objects per leaf.
+     * @return The collapsed layout.
+     */
+    private static Layout collapse(Layout layout, int maxLeafSize) {
+        int total = layout.nodes().length / NODE_STRIDE;
+        if (maxLeafSize <= 1 || total <= 1) return layout;
+        double[] bounds = layout.bounds();
+        int[] nodes = layout.nodes();
+
+        int[] counts = new int[total];
+        int[] firsts = new int[total];
+        double[] costs = new double[total];
+        boolean[] merged = new boolean[total];
+        for (int node = total - 1; node >= 0; node--) {
+            double area = BinnedSAHBuilder.surfaceArea(bounds, node * BOUNDS_STRIDE);
+            int count = nodes[node * NODE_STRIDE + 1];
+            if (count > 0) {
+                counts[node] = count;
+                firsts[node] = nodes[node * NODE_STRIDE];
+                costs[node] = BinnedSAHBuilder.INTERSECTION_COST * count * area;
+                continue;
+            }
+
+            int left = node + 1;
+            int right = nodes[node * NODE_STRIDE];
+            counts[node] = counts[left] + counts[right];
+            firsts[node] = firsts[left];
+            double splitCost = BinnedSAHBuilder.TRAVERSAL_COST * area + costs[left] + costs[right];
+            double leafCost = BinnedSAHBuilder.INTERSECTION_COST * counts[node] * area;
+            merged[node] = counts[node] <= maxLeafSize && leafCost <= splitCost;
+            costs[node] = merged[node] ? leafCost : splitCost;
+        }
+
+        double[] newBounds = new double[bounds.length];
+        int[] newNodes = new int[nodes.length];
+        Object3D[] newObjects = new Object3D[layout.objects().length];
+        int[] stack = new int[64];
+        int[] parents = new int[64];
+        int top = 0;
+        stack[top] = 0;
+        parents[top++] = -1;
+
+        int nextNode = 0;
+        int nextObject = 0;
+        while (top > 0) {
+            top--;
+            int node = stack[top];
+            int parent = parents[top];
+            int index = nextNode++;
+            if (parent >= 0) {
+                newNodes[parent * NODE_STRIDE] = index;
+            }
+            System.arraycopy(bounds, node * BOUNDS_STRIDE, newBounds, index * BOUNDS_STRIDE, BOUNDS_STRIDE);
+
+            if (nodes[node * NODE_STRIDE + 1] > 0 || merged[node]) {
+                int first = nextObject;
+                for (int i = firsts[node]; i < firsts[node] + counts[node]; i++) {
+                    Object3D object = layout.objects()[i];
+                    boolean duplicate = false;
+                    for (int j = first; j < nextObject && !duplicate; j++) {
+                        duplicate = newObjects[j] == object;
+                    }
+                    if (!duplicate) newObjects[nextObject++] = object;
+                }
+                newNodes[index * NODE_STRIDE] = first;
+                newNodes[index * NODE_STRIDE + 1] = nextObject - first;
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    parents = Arrays.copyOf(parents, parents.length * 2);
+                }
+                // The right child records its offset in this node once it is emitted
+                stack[top] = nodes[node * NODE_STRIDE];
+                parents[top++] = index;
+                stack[top] = node + 1;
+                parents[top++] = -1;
+            }
+        }
+
+        return new Layout(Arrays.copyOf(newBounds, nextNode * BOUNDS_STRIDE),
+                Arrays.copyOf(newNodes, nextNode * NODE_STRIDE),
+                Arrays.copyOf(newObjects, nextObject));
+    }
+
+    /**
+     * Copies the vertices of the triangles of a leaf into its pack. The pack of a leaf starts at
+     * {@code PACK_STRIDE * first} and stores, for each of the nine values (vertex A, edge A to B,
+     * edge A to C), one entry per object of the leaf, so the leaf loop reads contiguous memory.
+     *
+     * @param node The leaf node index.
+     */
+    private void packLeaf(int node) {
+        int first = nodes[node * NODE_STRIDE];
+        int count = nodes[node * NODE_STRIDE + 1];
+        int base = first * PACK_STRIDE;
+        double[] corners = new double[9];
+        for (int j = 0; j < count; j++) {
+            Object3D object = objects[first + j];
+            // Only plain and mesh triangles share the test of Triangle#occludes; subclasses keep their own
+            packed[first + j] = object != null && (object.getClass() == Triangle.class || object instanceof MeshTriangle)
+                    && object.getTriangleVertices(corners, 0);
+            if (!packed[first + j]) continue;
+
+            for (int axis = 0; axis < 3; axis++) {
+                triangles[base + axis * count + j] = corners[axis];
+                triangles[base + (3 + axis) * count + j] = corners[3 + axis] - corners[axis];
+                triangles[base + (6 + axis) * count + j] = corners[6 + axis] - corners[axis];
+            }
+        }
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}.
+     * The upper bound shrinks every time a hit is found, nodes entered beyond it are skipped,
+     * and the nearer child of every node is visited first.
+     * Objects in this tracer intersect along the negated ray direction (see
+     * {@link edu.up.isgc.raytracer.shapes.Triangle#intersect}), so distances are measured that way.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        return closestHit(ray, tMin, tMax, ignore, null);
+    }
+
+    /**
+     * Finds the closest intersection like {@link #closestHit(Ray, double, double, Object3D)},
+     * optionally counting the work done for the ray.
+     *
+     * @param ray      The ray used to check for intersections.
+     * @param tMin     The smallest accepted hit distance.
+     * @param tMax     The largest accepted hit distance.
+     * @param ignore   Object whose hits are skipped, or {@code null}.
+     * @param counters Receives the visited nodes and primitive tests, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore, BVHReport.Counters counters) {
+        if (nodeCount == 0) return null;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        double rootEntry = entryDistance(0, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+        if (rootEntry == MISS) return null;
+
+        HitRecord record = new HitRecord();
+        TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            double[] entries = stacks.entries[level];
+            int top = 0;
+            entries[top] = rootEntry;
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int node = stack[--top];
+                if (entries[top] > tMax) continue;
+                int count = nodes[node * NODE_STRIDE + 1];
+                if (counters != null) {
+                    counters.nodesVisited++;
+                    counters.primitiveTests += count;
+                }
+
+                if (count > 0) {
+                    if (closestHitInLeaf(nodes[node * NODE_STRIDE], count, ray, tMin, tMax, ignore, record)) {
+                        tMax = record.distance;
+                    }
+                } else {
+                    int left = node + 1;
+                    int right = nodes[node * NODE_STRIDE];
+                    double leftEntry = entryDistance(left, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+                    double rightEntry = entryDistance(right, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+                    if (top + 2 > stack.length) {
+                        stack = stacks.growNodes(level);
+                        entries = stacks.growEntries(level);
+                    }
+
+                    // Push the farther child first so the nearer one is popped next
+                    int near = left, far = right;
+                    double nearEntry = leftEntry, farEntry = rightEntry;
+                    if (rightEntry < leftEntry) {
+                        near = right;
+                        far = left;
+                        nearEntry = rightEntry;
+                        farEntry = leftEntry;
+                    }
+                    if (farEntry != MISS) {
+                        entries[top] = farEntry;
+                        stack[top++] = far;
+                    }
+                    if (nearEntry != MISS) {
+                        entries[top] = nearEntry;
+                        stack[top++] = near;
+                    }
+                }
+            }
+
+            return record.resolve(ray);
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]}.
+     * Returns as soon as the first blocker is found, in no particular order, and never
+     * computes hit points, colors, normals or texture lookups.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker, usually the distance to the light.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        if (nodeCount == 0) return false;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        if (entryDistance(0, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) == MISS) return false;
+
+        TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            int top = 0;
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int node = stack[--top];
+                int count = nodes[node * NODE_STRIDE + 1];
+
+                if (count > 0) {
+                    if (occludedInLeaf(nodes[node * NODE_STRIDE], count, ray, tMin, maxDistance, ignore)) {
+                        return true;
+                    }
+                } else {
+                    int left = node + 1;
+                    int right = nodes[node * NODE_STRIDE];
+                    if (top + 2 > stack.length) {
+                        stack = stacks.growNodes(level);
+                    }
+                    if (entryDistance(right, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) != MISS) {
+                        stack[top++] = right;
+                    }
+                    if (entryDistance(left, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) != MISS) {
+                        stack[top++] = left;
+                    }
+                }
+            }
+
+            return false;
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Finds the closest intersection of every lane of a packet, like
+     * {@link #closestHit(Ray, double, double, Object3D)}, walking the tree once for the whole packet.
+     * A node is skipped when interval arithmetic shows that every lane misses it; otherwise the
+     * lanes before the first one that hits it are masked off for its whole subtree, and its
+     * children are visited nearest first for that lane.
+     *
+     * @param packet The rays; receives the closest hit of every lane.
+     */
+    @Override
+    public void closestHit(RayPacket packet) {
+        int size = packet.size();
+        if (nodeCount == 0 || size == 0) return;
+        packet.prepare();
+        double packetTMin = Double.POSITIVE_INFINITY, packetTMax = Double.NEGATIVE_INFINITY;
+        for (int lane = 0; lane < size; lane++) {
+            packetTMin = Math.min(packetTMin, packet.tMin[lane]);
+            packetTMax = Math.max(packetTMax, packet.tMax[lane]);
+        }
+
+        int[] stack = packet.stackNodes;
+        int[] lanes = packet.stackLanes;
+        int top = 0;
+        stack[top] = 0;
+        lanes[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int lane = lanes[top];
+            if (packet.missesAll(bounds, node * BOUNDS_STRIDE, packetTMin, packetTMax)) continue;
+            while (lane < size && laneEntry(node, packet, lane) == MISS) lane++;
+            if (lane == size) continue;
+
+            int count = nodes[node * NODE_STRIDE + 1];
+            if (count > 0) {
+                int first = nodes[node * NODE_STRIDE];
+                boolean shrunk = false;
+                for (int l = lane; l < size; l++) {
+                    if (l != lane && laneEntry(node, packet, l) == MISS) continue;
+                    if (closestHitInLeaf(first, count, packet.rays[l], packet.tMin[l], packet.tMax[l],
+                            packet.ignore[l], packet.records[l])) {
+                        packet.tMax[l] = packet.records[l].distance;
+                        shrunk = true;
+                    }
+                }
+                if (shrunk) {
+                    packetTMax = Double.NEGATIVE_INFINITY;
+                    for (int l = 0; l < size; l++) {
+                        packetTMax = Math.max(packetTMax, packet.tMax[l]);
+                    }
+                }
+            } else {
+                int left = node + 1;
+                int right = nodes[node * NODE_STRIDE];
+                int near = left, far = right;
+                if (laneEntry(right, packet, lane) < laneEntry(left, packet, lane)) {
+                    near = right;
+                    far = left;
+                }
+                if (top + 2 > stack.length) {
+                    packet.reserveStack(top + 2);
+                    stack = packet.stackNodes;
+                    lanes = packet.stackLanes;
+                }
+                // A child the first lane misses may still be hit by the following lanes
+                stack[top] = far;
+                lanes[top++] = lane;
+                stack[top] = near;
+                lanes[top++] = lane;
+            }
+        }
+
+        // Only the closest hit of each lane is shaded
+        for (int l = 0; l < size; l++) {
+            packet.hits[l] = packet.records[l].resolve(packet.rays[l]);
+        }
+    }
+
+    /**
+     * Checks for every lane of a packet whether an object blocks it, like
+     * {@link #occluded(Ray, double, double, Object3D)}, walking the tree once for the whole packet.
+     * Blocked lanes are masked off, and the walk ends once every lane is blocked.
+     *
+     * @param packet The shadow rays; receives whether every lane is blocked.
+     */
+    @Override
+    public void occluded(RayPacket packet) {
+        int size = packet.size();
+        if (nodeCount == 0 || size == 0) return;
+        packet.prepare();
+        double packetTMin = Double.POSITIVE_INFINITY, packetTMax = Double.NEGATIVE_INFINITY;
+        for (int lane = 0; lane < size; lane++) {
+            packetTMin = Math.min(packetTMin, packet.tMin[lane]);
+            packetTMax = Math.max(packetTMax, packet.tMax[lane]);
+        }
+
+        int[] stack = packet.stackNodes;
+        int[] lanes = packet.stackLanes;
+        int top = 0;
+        stack[top] = 0;
+        lanes[top++] = 0;
+        int unblocked = size;
+
+        while (top > 0 && unblocked > 0) {
+            int node = stack[--top];
+            int lane = lanes[top];
+            if (packet.missesAll(bounds, node * BOUNDS_STRIDE, packetTMin, packetTMax)) continue;
+            while (lane < size && (packet.occluded[lane] || laneEntry(node, packet, lane) == MISS)) lane++;
+            if (lane == size) continue;
+
+            int count = nodes[node * NODE_STRIDE + 1];
+            if (count > 0) {
+                int first = nodes[node * NODE_STRIDE];
+                for (int l = lane; l < size; l++) {
+                    if (packet.occluded[l] || l != lane && laneEntry(node, packet, l) == MISS) continue;
+                    if (occludedInLeaf(first, count, packet.rays[l], packet.tMin[l], packet.tMax[l], packet.ignore[l])) {
+                        packet.occluded[l] = true;
+                        unblocked--;
+                    }
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    packet.reserveStack(top + 2);
+                    stack = packet.stackNodes;
+                    lanes = packet.stackLanes;
+                }
+                stack[top] = nodes[node * NODE_STRIDE];
+                lanes[top++] = lane;
+                stack[top] = node + 1;
+                lanes[top++] = lane;
+            }
+        }
+    }
+
+    /**
+     * Computes where a lane of a packet enters a node.
+     *
+     * @param node   The node index.
+     * @param packet The packet.
+     * @param lane   The lane.
+     * @return The entry distance clamped to the start of the lane interval, or {@link #MISS}.
+     */
+    private double laneEntry(int node, RayPacket packet, int lane) {
+        return entryDistance(node, packet.ox[lane], packet.oy[lane], packet.oz[lane],
+                packet.dx[lane], packet.dy[lane], packet.dz[lane],
+                packet.invX[lane], packet.invY[lane], packet.invZ[lane],
+                packet.tMin[lane], packet.tMax[lane]);
+    }
+
+    /**
+     * Records the closest hit with the objects of a leaf inside {@code [tMin, tMax]} that is
+     * closer than the hit already in the record. Packed triangles are tested straight from the
+     * pack; only the closest one is then recorded through {@link Object3D#hit}. Among hits
+     * at the same distance the first object wins, as if every object were intersected in order.
+     *
+     * @param first  The index of the first object of the leaf.
+     * @param count  The number of objects in the leaf.
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @param record The closest hit so far; updated if an object of the leaf is hit closer.
+     * @return {@code true} if the record was updated.
+     */
+    boolean closestHitInLeaf(int first, int count, Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        double length = ray.direction.value;
+        double dx = -ray.direction.x / length, dy = -ray.direction.y / length, dz = -ray.direction.z / length;
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        int base = first * PACK_STRIDE;
+
+        boolean found = false;
+        int packedHit = -1;
+        for (int j = 0; j < count; j++) {
+            int i = first + j;
+            if (objects[i] == ignore) continue;
+
+            if (packed[i]) {
+                if (length == 0) continue;
+                double t = packedDistance(base, count, j, ox, oy, oz, dx, dy, dz);
+                if (t >= tMin && t <= tMax && record.isCloser(t) && (packedHit < 0 || t < tMax)) {
+                    packedHit = i;
+                    tMax = t;
+                }
+                continue;
+            }
+            // The pending packed hit goes into the record first so ties keep the leaf order
+            if (packedHit >= 0) {
+                found |= objects[packedHit].hit(ray, tMin, tMax, ignore, record);
+                packedHit = -1;
+            }
+            if (objects[i].hit(ray, tMin, tMax, ignore, record)) {
+                found = true;
+                tMax = record.distance;
+            }
+        }
+        if (packedHit >= 0) {
+            found |= objects[packedHit].hit(ray, tMin, tMax, ignore, record);
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether any object of a leaf blocks the ray inside {@code [tMin, tMax]}.
+     *
+     * @param first  The index of the first object of the leaf.
+     * @param count  The number of objects in the leaf.
+     * @param ray    The shadow ray.
+     * @param tMin   The smallest distance that counts as a blocker.
+     * @param tMax   The largest distance that counts as a blocker.
+     * @param ignore Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if an object of the leaf blocks the ray.
+     */
+    boolean occludedInLeaf(int first, int count, Ray ray, double tMin, double tMax, Object3D ignore) {
+        double length = ray.direction.value;
+        double dx = -ray.direction.x / length, dy = -ray.direction.y / length, dz = -ray.direction.z / length;
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        int base = first * PACK_STRIDE;
+
+        for (int j = 0; j < count; j++) {
+            int i = first + j;
+            if (packed[i]) {
+                if (length == 0 || objects[i] == ignore) continue;
+                double t = packedDistance(base, count, j, ox, oy, oz, dx, dy, dz);
+                if (t >= tMin && t <= tMax) return true;
+            } else if (objects[i].occludes(ray, tMin, tMax, ignore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Intersects a packed triangle with the Möller-Trumbore test of {@link Triangle#occludes}.
+     *
+     * @param base  The start of the pack of the leaf.
+     * @param count The number of objects in the leaf.
+     * @param j     The position of the triangle inside the leaf.
+     * @param ox    Ray origin x.
+     * @param oy    Ray origin y.
+     * @param oz    Ray origin z.
+     * @param dx    Normalized propagation direction x.
+     * @param dy    Normalized propagation direction y.
+     * @param dz    Normalized propagation direction z.
+     * @return The hit distance, or NaN if the ray misses the triangle.
+     */
+    private double packedDistance(int base, int count, int j,
+                                  double ox, double oy, double oz,
+                                  double dx, double dy, double dz) {
+        double e1X = triangles[base + 3 * count + j], e1Y = triangles[base + 4 * count + j], e1Z = triangles[base + 5 * count + j];
+        double e2X = triangles[base + 6 * count + j], e2Y = triangles[base + 7 * count + j], e2Z = triangles[base + 8 * count + j];
+
+        double pX = dy * e1Z - dz * e1Y;
+        double pY = dz * e1X - dx * e1Z;
+        double pZ = dx * e1Y - dy * e1X;
+        double invDet = 1.0 / (e2X * pX + e2Y * pY + e2Z * pZ);
+
+        double tX = ox - triangles[base + j], tY = oy - triangles[base + count + j], tZ = oz - triangles[base + 2 * count + j];
+        double u = invDet * (tX * pX + tY * pY + tZ * pZ);
+        if (u < 0 || u > 1) return Double.NaN;
+
+        double qX = tY * e2Z - tZ * e2Y;
+        double qY = tZ * e2X - tX * e2Z;
+        double qZ = tX * e2Y - tY * e2X;
+        double v = invDet * (dx * qX + dy * qY + dz * qZ);
+        if (v < 0 || (u + v) > (1.0 + Camera.getEpsilon())) return Double.NaN;
+
+        return invDet * (qX * e1X + qY * e1Y + qZ * e1Z);
+    }
+
+    /**
+     * Computes where a ray interval enters the bounds of a node.
+     *
+     * @param node The node index.
+     * @param ox   Ray origin x.
+     * @param oy   Ray origin y.
+     * @param oz   Ray origin z.
+     * @param dx   Propagation direction x.
+     * @param dy   Propagation direction y.
+     * @param dz   Propagation direction z.
+     * @param invX Reciprocal of the propagation direction x.
+     * @param invY Reciprocal of the propagation direction y.
+     * @param invZ Reciprocal of the propagation direction z.
+     * @param tMin Start of the ray interval.
+     * @param tMax End of the ray interval.
+     * @return The entry distance clamped to {@code tMin}, or {@link #MISS} if the interval misses the node.
+     */
+    private double entryDistance(int node, double ox, double oy, double oz,
+                                 double dx, double dy, double dz,
+                                 double invX, double invY, double invZ,
+                                 double tMin, double tMax) {
+        int b = node * BOUNDS_STRIDE;
+
+        if (Math.abs(dx) < PARALLEL_EPSILON) {
+            if (ox < bounds[b] || ox > bounds[b + 3]) return MISS;
+        } else {
+            double t1 = (bounds[b] - ox) * invX;
+            double t2 = (bounds[b + 3] - ox) * invX;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        if (Math.abs(dy) < PARALLEL_EPSILON) {
+            if (oy < bounds[b + 1] || oy > bounds[b + 4]) return MISS;
+        } else {
+            double t1 = (bounds[b + 1] - oy) * invY;
+            double t2 = (bounds[b + 4] - oy) * invY;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        if (Math.abs(dz) < PARALLEL_EPSILON) {
+            if (oz < bounds[b + 2] || oz > bounds[b + 5]) return MISS;
+        } else {
+            double t1 = (bounds[b + 2] - oz) * invZ;
+            double t2 = (bounds[b + 5] - oz) * invZ;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        return tMin <= tMax ? tMin : MISS;
+    }
+
+    /**
+     * Recomputes the bounds of every node bottom-up from the current bounds of the objects,
+     * keeping the topology of the hierarchy. Used after objects move: it is much cheaper than
+     * a rebuild, but the tree gets worse as objects drift away from where it was built.
+     * Children are always stored after their parent, so a reverse sweep visits them first.
+     * The triangle packs of the leaves are refreshed as well.
+     *
+     * @return The SAH cost of the refitted hierarchy.
+     */
+    public double refit() {
+        if (nodeCount == 0) return 0;
+
+        // Leaves only depend on their objects and can be refreshed in parallel
+        IntStream.range(0, nodeCount).parallel().forEach(node -> {
+            int count = nodes[node * NODE_STRIDE + 1];
+            if (count == 0) return;
+            int first = nodes[node * NODE_STRIDE];
+            int b = node * BOUNDS_STRIDE;
+            BinnedSAHBuilder.resetBox(bounds, b);
+            for (int i = first; i < first + count; i++) {
+                BoundingBox bb = objects[i].getBB();
+                bounds[b] = Math.min(bounds[b], bb.getMin().x);
+                bounds[b + 1] = Math.min(bounds[b + 1], bb.getMin().y);
+                bounds[b + 2] = Math.min(bounds[b + 2], bb.getMin().z);
+                bounds[b + 3] = Math.max(bounds[b + 3], bb.getMax().x);
+                bounds[b + 4] = Math.max(bounds[b + 4], bb.getMax().y);
+                bounds[b + 5] = Math.max(bounds[b + 5], bb.getMax().z);
+            }
+            packLeaf(node);
+        });
+
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (nodes[node * NODE_STRIDE + 1] > 0) continue;
+            int b = node * BOUNDS_STRIDE;
+            BinnedSAHBuilder.resetBox(bounds, b);
+            BinnedSAHBuilder.growBox(bounds, b, bounds, (node + 1) * BOUNDS_STRIDE);
+            BinnedSAHBuilder.growBox(bounds, b, bounds, nodes[node * NODE_STRIDE] * BOUNDS_STRIDE);
+        }
+
+        return getSAHCost();
+    }
+
+    /**
+     * Computes the surface area heuristic cost of the hierarchy relative to the area of the root,
+     * with the same costs as {@link BBTree#getSAHCost()}.
+     *
+     * @return The SAH cost, or 0 if the hierarchy is empty.
+     */
+    public double getSAHCost() {
+        if (nodeCount == 0) return 0;
+        double rootArea = BinnedSAHBuilder.surfaceArea(bounds, 0);
+        if (rootArea <= 0) return 0;
+
+        double cost = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            double area = BinnedSAHBuilder.surfaceArea(bounds, node * BOUNDS_STRIDE);
+            int count = nodes[node * NODE_STRIDE + 1];
+            cost += count > 0
+                    ? BinnedSAHBuilder.INTERSECTION_COST * count * area
+                    : BinnedSAHBuilder.TRAVERSAL_COST * area;
+        }
+        return cost / rootArea;
+    }
+
+    /**
+     * Gets the bounds of the whole hierarchy.
+     *
+     * @return The bounding box of the root node, or {@code null} if the hierarchy is empty.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        if (nodeCount == 0) return null;
+        return new BoundingBox(new Vector3D(bounds[0], bounds[1], bounds[2]),
+                new Vector3D(bounds[3], bounds[4], bounds[5]));
+    }
+
+    /**
+     * Gets the number of nodes in the hierarchy.
+     *
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the memory taken by the nodes, bounds and child / object offsets, without the objects
+     * and the triangle packs.
+     *
+     * @return The size of the node arrays in bytes.
+     */
+    public long getNodeBytes() {
+        return (long) bounds.length * Double.BYTES + (long) nodes.length * Integer.BYTES;
+    }
+
+    /**
+     * Checks whether a node is a leaf.
+     *
+     * @param node The node index.
+     * @return {@code true} if the node references objects.
+     */
+    boolean isLeaf(int node) {
+        return nodes[node * NODE_STRIDE + 1] > 0;
+    }
+
+    /**
+     * Gets the index of the right child of an internal node; the left child is {@code node + 1}.
+     *
+     * @param node The node index.
+     * @return The index of the right child.
+     */
+    int getRightChild(int node) {
+        return nodes[node * NODE_STRIDE];
+    }
+
+    /**
+     * Gets the position of the first object of a leaf in the object array.
+     *
+     * @param node The node index.
+     * @return The index of the first object.
+     */
+    int getFirstObject(int node) {
+        return nodes[node * NODE_STRIDE];
+    }
+
+    /**
+     * Gets the number of objects referenced by a leaf.
+     *
+     * @param node The node index.
+     * @return The object count, 0 for internal nodes.
+     */
+    int getObjectCount(int node) {
+        return nodes[node * NODE_STRIDE + 1];
+    }
+
+    /**
+     * Gets the objects referenced by the leaves, in leaf order.
+     *
+     * @return The object array, shared with this hierarchy.
+     */
+    Object3D[] getObjects() {
+        return objects;
+    }
+
+    /**
+     * Gets one bound of a node.
+     *
+     * @param node The node index.
+     * @param i    0 to 2 for min x, y, z and 3 to 5 for max x, y, z.
+     * @return The bound.
+     */
+    double getBound(int node, int i) {
+        return bounds[node * BOUNDS_STRIDE + i];
+    }
+
+    /**
+     * Computes the surface area of a node.
+     *
+     * @param node The node index.
+     * @return The surface area of its bounds.
+     */
+    double getSurfaceArea(int node) {
+        return BinnedSAHBuilder.surfaceArea(bounds, node * BOUNDS_STRIDE);
+    }
+
+    /**
+     * Per-thread traversal stacks. Traversals can nest, for example when a leaf of the
+     * top-level hierarchy is an instance with its own hierarchy, so every nesting level
+     * gets its own pair of stacks.
+     */
+    static final class TraversalStacks {
+        /** Initial capacity of every stack */
+        private static final int INITIAL_CAPACITY = 64;
+
+        int[][] nodes = new int[2][];
+        double[][] entries = new double[2][];  ///< Entry distances matching {@link #nodes}.
+        private int depth = 0;
+
+        /**
+         * Reserves the stacks of the next nesting level.
+         *
+         * @return The reserved level.
+         */
+        int enter() {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                entries = Arrays.copyOf(entries, depth * 2);
+            }
+            if (nodes[depth] == null) {
+                nodes[depth] = new int[INITIAL_CAPACITY];
+                entries[depth] = new double[INITIAL_CAPACITY];
+            }
+            return depth++;
+        }
+
+        /**
+         * Releases the stacks of the innermost nesting level.
+         */
+        void exit() {
+            depth--;
+        }
+
+        /**
+         * Doubles the capacity of the node stack of a level, keeping its contents.
+         *
+         * @param level The nesting level.
+         * @return The larger node stack.
+         */
+        int[] growNodes(int level) {
+            nodes[level] = Arrays.copyOf(nodes[level], nodes[level].length * 2);
+            return nodes[level];
+        }
+
+        /**
+         * Grows the entry distance stack of a level to the capacity of its node stack, keeping its contents.
+         *
+         * @param level The nesting level.
+         * @return The larger entry stack.
+         */
+        double[] growEntries(int level) {
+            entries[level] = Arrays.copyOf(entries[level], nodes[level].length);
+            return entries[level];
+        }
+    }
+}
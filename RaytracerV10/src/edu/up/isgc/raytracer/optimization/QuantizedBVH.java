@@ -0,0 +1,531 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.Arrays;
+
+/**
+ * Compressed form of a {@link LinearBVH} for scenes whose tree does not fit in memory comfortably.
+ * Only the root keeps full precision bounds; the box of every other node is stored as 8 or 16 bit
+ * offsets inside the box of its parent, rounded outward so the stored box always contains the
+ * original one. A node then takes 6 or 12 bytes of bounds instead of 48, at the price of some
+ * extra box and primitive tests where the rounding loosened the boxes.
+ * <p>
+ * Boxes are decoded on the fly while the tree is walked: every stack entry carries the decoded box
+ * of its node, from which the boxes of the children are computed when it is visited. Build and
+ * traversal decode with the same arithmetic, so the rounding is conservative for the decoded
+ * boxes and not only for the exact ones.
+ */
+public class QuantizedBVH implements AccelerationStructure {
+    /** Number of quantized values stored per node in {@link #boxes} */
+    private static final int BOX_STRIDE = 6;
+    /** Number of values stored per node in {@link #nodes} */
+    private static final int NODE_STRIDE = 2;
+    /** Directions smaller than this are treated as parallel to a slab, as in {@link LinearBVH} */
+    private static final double PARALLEL_EPSILON = 1e-6;
+    /** Entry distance returned for boxes the ray interval does not touch */
+    private static final double MISS = Double.POSITIVE_INFINITY;
+
+    /** Traversal stacks reused by every ray traced on the same thread, one set per nesting level */
+    private static final ThreadLocal<TraversalStacks> traversalStacks = ThreadLocal.withInitial(TraversalStacks::new);
+
+    private final int bits;
+    private final int levels;               ///< Largest quantized value, the far side of the parent box.
+    private final double step;              ///< Fraction of the parent box per quantized value, 1 / levels.
+    private final double[] rootBounds = new double[6];
+    private final byte[] boxes;             ///< Per node: min x, y, z then max x, y, z, one or two big-endian bytes each.
+    private final int[] nodes;              ///< Same layout as in {@link LinearBVH}: right child or first object, then object count.
+    private final Object3D[] objects;
+    private final int nodeCount;
+
+    /**
+     * Compresses the nodes of a flattened hierarchy. The objects are shared with it, but the
+     * hierarchy itself is not referenced afterwards and can be dropped.
+     *
+     * @param linear The hierarchy to compress.
+     * @param bits   Bits per bound, 8 or 16.
+     * @throws IllegalArgumentException If {@code bits} is neither 8 nor 16.
+     */
+    public QuantizedBVH(LinearBVH linear, int bits) {
+        if (bits != 8 && bits != 16) throw new IllegalArgumentException("Unsupported quantization: " + bits + " bits");
+        this.bits = bits;
+        this.levels = (1 << bits) - 1;
+        this.step = 1.0 / levels;
+        this.nodeCount = linear.getNodeCount();
+        this.boxes = new byte[nodeCount * BOX_STRIDE * (bits / 8)];
+        this.nodes = new int[nodeCount * NODE_STRIDE];
+        this.objects = linear.getObjects();
+        if (nodeCount == 0) return;
+
+        for (int i = 0; i < 6; i++) {
+            rootBounds[i] = linear.getBound(0, i);
+        }
+
+        // Parents come before their children, so the decoded box of a parent is ready when its children are quantized
+        double[] decoded = new double[nodeCount * BOX_STRIDE];
+        System.arraycopy(rootBounds, 0, decoded, 0, 6);
+        for (int i = 0; i < BOX_STRIDE; i++) {
+            write(i, i < 3 ? 0 : levels);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (linear.isLeaf(node)) {
+                nodes[node * NODE_STRIDE] = linear.getFirstObject(node);
+                nodes[node * NODE_STRIDE + 1] = linear.getObjectCount(node);
+                continue;
+            }
+            int right = linear.getRightChild(node);
+            nodes[node * NODE_STRIDE] = right;
+            quantizeChild(linear, node + 1, decoded, node * BOX_STRIDE);
+            quantizeChild(linear, right, decoded, node * BOX_STRIDE);
+        }
+    }
+
+    /**
+     * Stores the box of a node relative to the decoded box of its parent and decodes it back.
+     *
+     * @param linear  The hierarchy being compressed.
+     * @param child   The node to quantize.
+     * @param decoded The decoded boxes; receives the box of the child.
+     * @param parent  Offset of the decoded box of the parent.
+     */
+    private void quantizeChild(LinearBVH linear, int child, double[] decoded, int parent) {
+        for (int axis = 0; axis < 3; axis++) {
+            double low = decoded[parent + axis], high = decoded[parent + 3 + axis];
+            int min = quantizeMin(linear.getBound(child, axis), low, high);
+            int max = quantizeMax(linear.getBound(child, 3 + axis), low, high);
+            write(child * BOX_STRIDE + axis, min);
+            write(child * BOX_STRIDE + 3 + axis, max);
+        }
+        decodeBox(child, decoded, parent, decoded, child * BOX_STRIDE);
+    }
+
+    /**
+     * Rounds a lower bound down to a quantized value.
+     *
+     * @param value The bound.
+     * @param low   The lower bound of the parent on the same axis.
+     * @param high  The upper bound of the parent on the same axis.
+     * @return The largest quantized value that decodes at or below the bound.
+     */
+    private int quantizeMin(double value, double low, double high) {
+        if (!(high > low)) return 0;
+        int q = Math.clamp((long) Math.floor((value - low) / ((high - low) * step)), 0, levels);
+        while (q > 0 && dequantize(q, low, high) > value) q--;
+        return q;
+    }
+
+    /**
+     * Rounds an upper bound up to a quantized value.
+     *
+     * @param value The bound.
+     * @param low   The lower bound of the parent on the same axis.
+     * @param high  The upper bound of the parent on the same axis.
+     * @return The smallest quantized value that decodes at or above the bound.
+     */
+    private int quantizeMax(double value, double low, double high) {
+        if (!(high > low)) return levels;
+        int q = Math.clamp((long) Math.ceil((value - low) / ((high - low) * step)), 0, levels);
+        while (q < levels && dequantize(q, low, high) < value) q++;
+        return q;
+    }
+
+    /**
+     * Decodes a quantized bound.
+     *
+     * @param q    The quantized value.
+     * @param low  The lower bound of the parent on the same axis.
+     * @param high The upper bound of the parent on the same axis.
+     * @return The bound; the largest value maps exactly to {@code high}.
+     */
+    private double dequantize(int q, double low, double high) {
+        return q == levels ? high : low + q * ((high - low) * step);
+    }
+
+    /**
+     * Decodes the box of a node from the decoded box of its parent.
+     *
+     * @param node   The node.
+     * @param src    Array holding the decoded box of the parent.
+     * @param parent Offset of the parent box in {@code src}.
+     * @param dst    Receives the box of the node.
+     * @param offset Offset of the node box in {@code dst}.
+     */
+    private void decodeBox(int node, double[] src, int parent, double[] dst, int offset) {
+        int q = node * BOX_STRIDE;
+        for (int axis = 0; axis < 3; axis++) {
+            double low = src[parent + axis], high = src[parent + 3 + axis];
+            dst[offset + axis] = dequantize(read(q + axis), low, high);
+            dst[offset + 3 + axis] = dequantize(read(q + 3 + axis), low, high);
+        }
+    }
+
+    /**
+     * Reads a quantized value.
+     *
+     * @param i The value index.
+     * @return The value.
+     */
+    private int read(int i) {
+        if (bits == 8) return boxes[i] & 0xFF;
+        return (boxes[2 * i] & 0xFF) << 8 | boxes[2 * i + 1] & 0xFF;
+    }
+
+    /**
+     * Writes a quantized value.
+     *
+     * @param i     The value index.
+     * @param value The value.
+     */
+    private void write(int i, int value) {
+        if (bits == 8) {
+            boxes[i] = (byte) value;
+        } else {
+            boxes[2 * i] = (byte) (value >>> 8);
+            boxes[2 * i + 1] = (byte) value;
+        }
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}, visiting the
+     * nearer child of every node first like {@link LinearBVH#closestHit(Ray, double, double, Object3D)}.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (nodeCount == 0) return null;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        double rootEntry = entryDistance(rootBounds, 0, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+        if (rootEntry == MISS) return null;
+
+        HitRecord record = new HitRecord();
+        TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            double[] entries = stacks.entries[level];
+            double[] bounds = stacks.boxes[level];
+            int top = 0;
+            entries[top] = rootEntry;
+            System.arraycopy(rootBounds, 0, bounds, 0, 6);
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int node = stack[--top];
+                if (entries[top] > tMax) continue;
+                int count = nodes[node * NODE_STRIDE + 1];
+
+                if (count > 0) {
+                    if (closestHitInLeaf(nodes[node * NODE_STRIDE], count, ray, tMin, tMax, ignore, record)) {
+                        tMax = record.distance;
+                    }
+                } else {
+                    if (top + 3 > stack.length) {
+                        stacks.grow(level);
+                        stack = stacks.nodes[level];
+                        entries = stacks.entries[level];
+                        bounds = stacks.boxes[level];
+                    }
+                    // Decode both children into the slots above the popped parent
+                    int left = node + 1;
+                    int right = nodes[node * NODE_STRIDE];
+                    int leftSlot = (top + 1) * BOX_STRIDE, rightSlot = (top + 2) * BOX_STRIDE;
+                    decodeBox(left, bounds, top * BOX_STRIDE, bounds, leftSlot);
+                    decodeBox(right, bounds, top * BOX_STRIDE, bounds, rightSlot);
+                    double leftEntry = entryDistance(bounds, leftSlot, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+                    double rightEntry = entryDistance(bounds, rightSlot, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax);
+
+                    // Push the farther child first so the nearer one is popped next
+                    int near = left, far = right, nearSlot = leftSlot, farSlot = rightSlot;
+                    double nearEntry = leftEntry, farEntry = rightEntry;
+                    if (rightEntry < leftEntry) {
+                        near = right;
+                        far = left;
+                        nearSlot = rightSlot;
+                        farSlot = leftSlot;
+                        nearEntry = rightEntry;
+                        farEntry = leftEntry;
+                    }
+                    if (farEntry != MISS) {
+                        System.arraycopy(bounds, farSlot, bounds, top * BOX_STRIDE, BOX_STRIDE);
+                        entries[top] = farEntry;
+                        stack[top++] = far;
+                    }
+                    if (nearEntry != MISS) {
+                        System.arraycopy(bounds, nearSlot, bounds, top * BOX_STRIDE, BOX_STRIDE);
+                        entries[top] = nearEntry;
+                        stack[top++] = near;
+                    }
+                }
+            }
+
+            return record.resolve(ray);
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]},
+     * returning as soon as the first blocker is found.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        if (nodeCount == 0) return false;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        if (entryDistance(rootBounds, 0, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) == MISS) return false;
+
+        TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            double[] bounds = stacks.boxes[level];
+            int top = 0;
+            System.arraycopy(rootBounds, 0, bounds, 0, 6);
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int node = stack[--top];
+                int count = nodes[node * NODE_STRIDE + 1];
+
+                if (count > 0) {
+                    if (occludedInLeaf(nodes[node * NODE_STRIDE], count, ray, tMin, maxDistance, ignore)) {
+                        return true;
+                    }
+                } else {
+                    if (top + 3 > stack.length) {
+                        stacks.grow(level);
+                        stack = stacks.nodes[level];
+                        bounds = stacks.boxes[level];
+                    }
+                    int left = node + 1;
+                    int right = nodes[node * NODE_STRIDE];
+                    int leftSlot = (top + 1) * BOX_STRIDE, rightSlot = (top + 2) * BOX_STRIDE;
+                    decodeBox(left, bounds, top * BOX_STRIDE, bounds, leftSlot);
+                    decodeBox(right, bounds, top * BOX_STRIDE, bounds, rightSlot);
+                    if (entryDistance(bounds, rightSlot, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) != MISS) {
+                        System.arraycopy(bounds, rightSlot, bounds, top * BOX_STRIDE, BOX_STRIDE);
+                        stack[top++] = right;
+                    }
+                    if (entryDistance(bounds, leftSlot, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance) != MISS) {
+                        System.arraycopy(bounds, leftSlot, bounds, top * BOX_STRIDE, BOX_STRIDE);
+                        stack[top++] = left;
+                    }
+                }
+            }
+
+            return false;
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Records the closest hit with the objects of a leaf inside {@code [tMin, tMax]} that is
+     * closer than the hit already in the record.
+     *
+     * @param first  The index of the first object of the leaf.
+     * @param count  The number of objects in the leaf.
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @param record The closest hit so far; updated if an object of the leaf is hit closer.
+     * @return {@code true} if the record was updated.
+     */
+    private boolean closestHitInLeaf(int first, int count, Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        boolean found = false;
+        for (int i = first; i < first + count; i++) {
+            Object3D object = objects[i];
+            if (object == ignore) continue;
+            if (object.hit(ray, tMin, tMax, ignore, record)) {
+                found = true;
+                tMax = record.distance;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether any object of a leaf blocks the ray inside {@code [tMin, tMax]}.
+     *
+     * @param first  The index of the first object of the leaf.
+     * @param count  The number of objects in the leaf.
+     * @param ray    The shadow ray.
+     * @param tMin   The smallest distance that counts as a blocker.
+     * @param tMax   The largest distance that counts as a blocker.
+     * @param ignore Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if an object of the leaf blocks the ray.
+     */
+    private boolean occludedInLeaf(int first, int count, Ray ray, double tMin, double tMax, Object3D ignore) {
+        for (int i = first; i < first + count; i++) {
+            if (objects[i].occludes(ray, tMin, tMax, ignore)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes where a ray interval enters a decoded box.
+     *
+     * @param box  Array holding the box: min x, y, z then max x, y, z.
+     * @param b    Offset of the box.
+     * @param ox   Ray origin x.
+     * @param oy   Ray origin y.
+     * @param oz   Ray origin z.
+     * @param dx   Propagation direction x.
+     * @param dy   Propagation direction y.
+     * @param dz   Propagation direction z.
+     * @param invX Reciprocal of the propagation direction x.
+     * @param invY Reciprocal of the propagation direction y.
+     * @param invZ Reciprocal of the propagation direction z.
+     * @param tMin Start of the ray interval.
+     * @param tMax End of the ray interval.
+     * @return The entry distance clamped to {@code tMin}, or {@link #MISS} if the interval misses the box.
+     */
+    private static double entryDistance(double[] box, int b, double ox, double oy, double oz,
+                                        double dx, double dy, double dz,
+                                        double invX, double invY, double invZ,
+                                        double tMin, double tMax) {
+        if (Math.abs(dx) < PARALLEL_EPSILON) {
+            if (ox < box[b] || ox > box[b + 3]) return MISS;
+        } else {
+            double t1 = (box[b] - ox) * invX;
+            double t2 = (box[b + 3] - ox) * invX;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        if (Math.abs(dy) < PARALLEL_EPSILON) {
+            if (oy < box[b + 1] || oy > box[b + 4]) return MISS;
+        } else {
+            double t1 = (box[b + 1] - oy) * invY;
+            double t2 = (box[b + 4] - oy) * invY;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        if (Math.abs(dz) < PARALLEL_EPSILON) {
+            if (oz < box[b + 2] || oz > box[b + 5]) return MISS;
+        } else {
+            double t1 = (box[b + 2] - oz) * invZ;
+            double t2 = (box[b + 5] - oz) * invZ;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        return tMin <= tMax ? tMin : MISS;
+    }
+
+    /**
+     * Gets the bounds of the whole hierarchy, stored at full precision.
+     *
+     * @return The bounding box of the root node, or {@code null} if the hierarchy is empty.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        if (nodeCount == 0) return null;
+        return new BoundingBox(new Vector3D(rootBounds[0], rootBounds[1], rootBounds[2]),
+                new Vector3D(rootBounds[3], rootBounds[4], rootBounds[5]));
+    }
+
+    /**
+     * Gets the number of nodes in the hierarchy.
+     *
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the number of bits per stored bound.
+     *
+     * @return 8 or 16.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Gets the memory taken by the nodes, bounds and child / object offsets, without the objects.
+     *
+     * @return The size of the node arrays in bytes.
+     */
+    public long getNodeBytes() {
+        return (long) boxes.length + (long) nodes.length * Integer.BYTES + rootBounds.length * Double.BYTES;
+    }
+
+    /**
+     * Per-thread traversal stacks, one set per nesting level as in {@link LinearBVH}. Besides the
+     * node and its entry distance, every entry holds the decoded box of the node.
+     */
+    private static final class TraversalStacks {
+        /** Initial capacity of every stack */
+        private static final int INITIAL_CAPACITY = 64;
+
+        int[][] nodes = new int[2][];
+        double[][] entries = new double[2][];
+        double[][] boxes = new double[2][];    ///< Six values per entry of {@link #nodes}.
+        private int depth = 0;
+
+        /**
+         * Reserves the stacks of the next nesting level.
+         *
+         * @return The reserved level.
+         */
+        int enter() {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                entries = Arrays.copyOf(entries, depth * 2);
+                boxes = Arrays.copyOf(boxes, depth * 2);
+            }
+            if (nodes[depth] == null) {
+                nodes[depth] = new int[INITIAL_CAPACITY];
+                entries[depth] = new double[INITIAL_CAPACITY];
+                boxes[depth] = new double[INITIAL_CAPACITY * BOX_STRIDE];
+            }
+            return depth++;
+        }
+
+        /**
+         * Releases the stacks of the innermost nesting level.
+         */
+        void exit() {
+            depth--;
+        }
+
+        /**
+         * Doubles the capacity of the stacks of a level, keeping their contents.
+         *
+         * @param level The nesting level.
+         */
+        void grow(int level) {
+            int capacity = nodes[level].length * 2;
+            nodes[level] = Arrays.copyOf(nodes[level], capacity);
+            entries[level] = Arrays.copyOf(entries[level], capacity);
+            boxes[level] = Arrays.copyOf(boxes[level], capacity * BOX_STRIDE);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.Arrays;
+
+/**
+ * Group of coherent rays traced together, such as the camera rays of a block of pixels or the
+ * shadow rays from those pixels toward one light. Every ray is a lane with its own interval and
+ * ignored object. Besides the per-lane origins and reciprocal directions, the packet keeps the
+ * range of its origins and reciprocal directions on every axis, so a node can be rejected for
+ * all lanes at once with interval arithmetic before the lanes are tested one by one.
+ * <p>
+ * Packets are meant to be reused: {@link #clear()} them and add the rays of the next block.
+ */
+public class RayPacket {
+    /** Largest number of rays in a packet */
+    public static final int MAX_SIZE = 64;
+    /** Directions smaller than this are treated as parallel to a slab, as in {@link LinearBVH} */
+    private static final double PARALLEL_EPSILON = 1e-6;
+
+    final Ray[] rays = new Ray[MAX_SIZE];
+    final double[] tMin = new double[MAX_SIZE];
+    final double[] tMax = new double[MAX_SIZE];           ///< Shrinks to the closest hit found so far.
+    final Object3D[] ignore = new Object3D[MAX_SIZE];
+    final Intersection[] hits = new Intersection[MAX_SIZE];
+    final HitRecord[] records = new HitRecord[MAX_SIZE];  ///< Closest hit of every lane while a closest-hit query runs.
+    final boolean[] occluded = new boolean[MAX_SIZE];
+    final double[] ox = new double[MAX_SIZE], oy = new double[MAX_SIZE], oz = new double[MAX_SIZE];
+    final double[] dx = new double[MAX_SIZE], dy = new double[MAX_SIZE], dz = new double[MAX_SIZE];  ///< Propagation direction, the negated ray direction.
+    final double[] invX = new double[MAX_SIZE], invY = new double[MAX_SIZE], invZ = new double[MAX_SIZE];
+    final double[] originMin = new double[3], originMax = new double[3];
+    final double[] inverseMin = new double[3], inverseMax = new double[3];
+    final boolean[] coherent = new boolean[3];              ///< Per axis: every lane travels the same way and none is parallel.
+    int[] stackNodes = new int[64];
+    int[] stackLanes = new int[64];                         ///< First lane that may still hit each stacked node.
+    private int size;
+
+    /**
+     * Creates an empty packet.
+     */
+    public RayPacket() {
+        for (int lane = 0; lane < MAX_SIZE; lane++) {
+            records[lane] = new HitRecord();
+        }
+    }
+
+    /**
+     * Removes every ray from the packet.
+     */
+    public void clear() {
+        Arrays.fill(rays, 0, size, null);
+        Arrays.fill(ignore, 0, size, null);
+        Arrays.fill(hits, 0, size, null);
+        for (int lane = 0; lane < size; lane++) {
+            records[lane].reset();
+        }
+        Arrays.fill(occluded, 0, size, false);
+        size = 0;
+    }
+
+    /**
+     * Adds a ray to the packet.
+     *
+     * @param ray    The ray.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The lane of the ray.
+     * @throws IllegalStateException If the packet is full.
+     */
+    public int add(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (size == MAX_SIZE) throw new IllegalStateException("Ray packet is full");
+        int lane = size++;
+        rays[lane] = ray;
+        this.tMin[lane] = tMin;
+        this.tMax[lane] = tMax;
+        this.ignore[lane] = ignore;
+        ox[lane] = ray.origin.x;
+        oy[lane] = ray.origin.y;
+        oz[lane] = ray.origin.z;
+        dx[lane] = -ray.direction.x;
+        dy[lane] = -ray.direction.y;
+        dz[lane] = -ray.direction.z;
+        invX[lane] = 1.0 / dx[lane];
+        invY[lane] = 1.0 / dy[lane];
+        invZ[lane] = 1.0 / dz[lane];
+        return lane;
+    }
+
+    /**
+     * Gets the number of rays in the packet.
+     *
+     * @return The ray count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the ray of a lane.
+     *
+     * @param lane The lane.
+     * @return The ray.
+     */
+    public Ray getRay(int lane) {
+        return rays[lane];
+    }
+
+    /**
+     * Gets the closest hit of a lane after a closest-hit query.
+     *
+     * @param lane The lane.
+     * @return The closest intersection, or {@code null} if the ray hit nothing.
+     */
+    public Intersection getHit(int lane) {
+        return hits[lane];
+    }
+
+    /**
+     * Checks whether a lane was blocked after an occlusion query.
+     *
+     * @param lane The lane.
+     * @return {@code true} if the ray is blocked inside its interval.
+     */
+    public boolean isOccluded(int lane) {
+        return occluded[lane];
+    }
+
+    /**
+     * Stores the result of a lane traced on its own.
+     *
+     * @param lane     The lane.
+     * @param hit      The closest intersection, or {@code null}.
+     * @param occluded Whether the ray is blocked.
+     */
+    void setResult(int lane, Intersection hit, boolean occluded) {
+        hits[lane] = hit;
+        this.occluded[lane] = occluded;
+    }
+
+    /**
+     * Computes the range of the origins and reciprocal directions of the lanes on every axis.
+     * Axes on which the lanes travel different ways, or parallel to the slabs, are not coherent
+     * and never reject a node for the whole packet.
+     */
+    void prepare() {
+        prepareAxis(0, ox, dx, invX);
+        prepareAxis(1, oy, dy, invY);
+        prepareAxis(2, oz, dz, invZ);
+    }
+
+    /**
+     * Computes the ranges of one axis.
+     *
+     * @param axis      The axis.
+     * @param origin    The lane origins on the axis.
+     * @param direction The lane directions on the axis.
+     * @param inverse   The lane reciprocal directions on the axis.
+     */
+    private void prepareAxis(int axis, double[] origin, double[] direction, double[] inverse) {
+        double oMin = Double.POSITIVE_INFINITY, oMax = Double.NEGATIVE_INFINITY;
+        double iMin = Double.POSITIVE_INFINITY, iMax = Double.NEGATIVE_INFINITY;
+        boolean positive = size > 0 && direction[0] > 0;
+        boolean same = size > 0;
+        for (int lane = 0; lane < size; lane++) {
+            oMin = Math.min(oMin, origin[lane]);
+            oMax = Math.max(oMax, origin[lane]);
+            iMin = Math.min(iMin, inverse[lane]);
+            iMax = Math.max(iMax, inverse[lane]);
+            if (Math.abs(direction[lane]) < PARALLEL_EPSILON || direction[lane] > 0 != positive) same = false;
+        }
+        originMin[axis] = oMin;
+        originMax[axis] = oMax;
+        inverseMin[axis] = iMin;
+        inverseMax[axis] = iMax;
+        coherent[axis] = same;
+    }
+
+    /**
+     * Checks with interval arithmetic whether every lane misses a box. The entry distance of
+     * every lane is at least the smallest product of the slab offsets and reciprocal directions
+     * over the packet ranges, and its exit distance at most the largest one.
+     *
+     * @param bounds     Box bounds: min x, y, z then max x, y, z.
+     * @param offset     Index of the first bound.
+     * @param packetTMin The smallest start of the lane intervals.
+     * @param packetTMax The largest end of the lane intervals.
+     * @return {@code true} if no lane can hit the box; {@code false} if some lane may.
+     */
+    boolean missesAll(double[] bounds, int offset, double packetTMin, double packetTMax) {
+        double entry = packetTMin, exit = packetTMax;
+        for (int axis = 0; axis < 3; axis++) {
+            if (!coherent[axis]) continue;
+            double near = inverseMin[axis] > 0 ? bounds[offset + axis] : bounds[offset + 3 + axis];
+            double far = inverseMin[axis] > 0 ? bounds[offset + 3 + axis] : bounds[offset + axis];
+            entry = Math.max(entry, lowest(near - originMax[axis], near - originMin[axis], axis));
+            exit = Math.min(exit, highest(far - originMax[axis], far - originMin[axis], axis));
+            if (entry > exit) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes the smallest product of an offset range and the reciprocal direction range of an axis.
+     *
+     * @param low  The smallest offset.
+     * @param high The largest offset.
+     * @param axis The axis.
+     * @return The smallest product.
+     */
+    private double lowest(double low, double high, int axis) {
+        return Math.min(Math.min(low * inverseMin[axis], low * inverseMax[axis]),
+                Math.min(high * inverseMin[axis], high * inverseMax[axis]));
+    }
+
+    /**
+     * Computes the largest product of an offset range and the reciprocal direction range of an axis.
+     *
+     * @param low  The smallest offset.
+     * @param high The largest offset.
+     * @param axis The axis.
+     * @return The largest product.
+     */
+    private double highest(double low, double high, int axis) {
+        return Math.max(Math.max(low * inverseMin[axis], low * inverseMax[axis]),
+                Math.max(high * inverseMin[axis], high * inverseMax[axis]));
+    }
+
+    /**
+     * Makes sure the traversal stacks can hold the given number of entries.
+     *
+     * @param capacity The required capacity.
+     */
+    void reserveStack(int capacity) {
+        if (capacity > stackNodes.length) {
+            stackNodes = Arrays.copyOf(stackNodes, Math.max(capacity, stackNodes.length * 2));
+            stackLanes = Arrays.copyOf(stackLanes, stackNodes.length);
+        }
+    }
+}
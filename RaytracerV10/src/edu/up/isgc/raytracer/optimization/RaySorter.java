@@ -0,0 +1,69 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Ray;
+
+import java.util.Arrays;
+
+/**
+ * Orders incoherent rays, such as reflection and refraction bounces, so that consecutive rays
+ * are likely to walk the same part of an acceleration structure. Rays are grouped by the octant
+ * of their direction, then by a 30 bit Morton code of their origin inside the bounds of all
+ * origins, so rays that start close together and travel the same way end up next to each other.
+ */
+public class RaySorter {
+    /** Bits per axis of the Morton code of the origins */
+    private static final int BITS_PER_AXIS = LBVHBuilder.BITS_PER_AXIS_30;
+    /** Bits used by the sort key, octant and Morton code */
+    private static final int KEY_BITS = 3 + 3 * BITS_PER_AXIS;
+    /** Largest number of rays that fits next to the key in a {@code long} */
+    public static final int MAX_RAYS = 1 << (Long.SIZE - 1 - KEY_BITS);
+
+    /**
+     * Computes the order in which the given rays should be traced.
+     *
+     * @param rays  The rays.
+     * @param count The number of rays to order, from the start of the array.
+     * @return The ray indices, grouped by direction octant and sorted by origin along a Morton curve.
+     * @throws IllegalArgumentException If there are more than {@link #MAX_RAYS} rays.
+     */
+    public static int[] sort(Ray[] rays, int count) {
+        if (count > MAX_RAYS) throw new IllegalArgumentException("Too many rays to sort: " + count);
+
+        double[] box = new double[6];
+        BinnedSAHBuilder.resetBox(box, 0);
+        for (int i = 0; i < count; i++) {
+            box[0] = Math.min(box[0], rays[i].origin.x);
+            box[1] = Math.min(box[1], rays[i].origin.y);
+            box[2] = Math.min(box[2], rays[i].origin.z);
+            box[3] = Math.max(box[3], rays[i].origin.x);
+            box[4] = Math.max(box[4], rays[i].origin.y);
+            box[5] = Math.max(box[5], rays[i].origin.z);
+        }
+        double cells = (1L << BITS_PER_AXIS) - 1;
+        double[] scales = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = box[3 + axis] - box[axis];
+            scales[axis] = extent > 0 ? cells / extent : 0;
+        }
+
+        // Key and index share one long so a primitive sort orders both
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            Ray ray = rays[i];
+            long octant = (ray.direction.x < 0 ? 4 : 0) | (ray.direction.y < 0 ? 2 : 0) | (ray.direction.z < 0 ? 1 : 0);
+            long x = (long) ((ray.origin.x - box[0]) * scales[0]);
+            long y = (long) ((ray.origin.y - box[1]) * scales[1]);
+            long z = (long) ((ray.origin.z - box[2]) * scales[2]);
+            long morton = (LBVHBuilder.expandBits(x) << 2) | (LBVHBuilder.expandBits(y) << 1) | LBVHBuilder.expandBits(z);
+            keys[i] = (((octant << (3 * BITS_PER_AXIS)) | morton) << (Long.SIZE - 1 - KEY_BITS)) | i;
+        }
+        Arrays.sort(keys);
+
+        int[] order = new int[count];
+        long indexMask = MAX_RAYS - 1;
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) (keys[i] & indexMask);
+        }
+        return order;
+    }
+}
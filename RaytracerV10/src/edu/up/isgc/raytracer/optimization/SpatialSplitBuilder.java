@@ -0,0 +1,589 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds a Bounding Box Tree with spatial splits (SBVH). Besides the usual binned object split,
+ * every node also evaluates splitting space itself: triangles that straddle the split plane are
+ * clipped and referenced from both children with tighter boxes. This helps with long, thin or
+ * heavily overlapping triangles, whose boxes make object splits overlap badly.
+ * The number of extra references is limited by a budget, given as a fraction of the object count.
+ */
+public class SpatialSplitBuilder {
+    /** Default number of bins evaluated per axis */
+    public static final int DEFAULT_BIN_COUNT = 32;
+    /** Default number of extra references, as a fraction of the object count */
+    public static final double DEFAULT_DUPLICATE_BUDGET = 0.3;
+    /**
+     * Spatial splits are only tried when the children of the best object split overlap by more
+     * than this fraction of the root area
+     */
+    private static final double OVERLAP_THRESHOLD = 1e-5;
+
+    private final int binCount;
+    private final double duplicateBudget;
+    private Object3D[] primitives;
+    private double[] vertices;     ///< Nine values per triangle primitive: A, B and C.
+    private boolean[] triangles;   ///< Whether a primitive has vertices in {@link #vertices}.
+    private double overlapLimit;
+    private int remainingDuplicates;
+    private int referenceCount;
+
+    /**
+     * Constructs a builder with the default number of bins and duplicate budget.
+     */
+    public SpatialSplitBuilder() {
+        this(DEFAULT_BIN_COUNT, DEFAULT_DUPLICATE_BUDGET);
+    }
+
+    /**
+     * Constructs a builder with the given number of bins and duplicate budget.
+     *
+     * @param binCount        The number of bins evaluated on each axis (at least 2).
+     * @param duplicateBudget The number of extra references allowed, as a fraction of the object count.
+     */
+    public SpatialSplitBuilder(int binCount, double duplicateBudget) {
+        this.binCount = Math.max(2, binCount);
+        this.duplicateBudget = Math.max(0, duplicateBudget);
+    }
+
+    /**
+     * Builds a tree containing every object of the list that has a bounding box.
+     * Leaves of split objects carry the clipped part of the object's box.
+     *
+     * @param objects The objects to organize.
+     * @return The root of the new tree, or {@code null} if there is nothing to build.
+     */
+    BBTree.BBNode build(List<Object3D> objects) {
+        int count = 0;
+        for (Object3D object : objects) {
+            if (object != null && object.getBB() != null) count++;
+        }
+        if (count == 0) return null;
+
+        primitives = new Object3D[count];
+        vertices = new double[count * 9];
+        triangles = new boolean[count];
+        int[] refs = new int[count];
+        double[] boxes = new double[count * 6];
+
+        int i = 0;
+        for (Object3D object : objects) {
+            if (object == null) continue;
+            BoundingBox bb = object.getBB();
+            if (bb == null) continue;
+
+            primitives[i] = object;
+            refs[i] = i;
+            boxes[i * 6] = bb.getMin().x;
+            boxes[i * 6 + 1] = bb.getMin().y;
+            boxes[i * 6 + 2] = bb.getMin().z;
+            boxes[i * 6 + 3] = bb.getMax().x;
+            boxes[i * 6 + 4] = bb.getMax().y;
+            boxes[i * 6 + 5] = bb.getMax().z;
+            triangles[i] = object.getTriangleVertices(vertices, i * 9);
+            i++;
+        }
+
+        double[] rootBox = boundsOf(boxes, count);
+        overlapLimit = OVERLAP_THRESHOLD * BinnedSAHBuilder.surfaceArea(rootBox, 0);
+        remainingDuplicates = (int) (duplicateBudget * count);
+        referenceCount = 0;
+
+        try {
+            return buildNode(refs, boxes, count, rootBox);
+        } finally {
+            primitives = null;
+            vertices = null;
+            triangles = null;
+        }
+    }
+
+    /**
+     * Gets the number of leaf references created by the last build, which exceeds the number of
+     * objects by the references of split objects.
+     *
+     * @return The number of references.
+     */
+    int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Recursively builds the subtree of a set of references.
+     *
+     * @param refs    The primitive of every reference.
+     * @param boxes   Six values per reference: its possibly clipped box.
+     * @param count   The number of references.
+     * @param nodeBox The box enclosing every reference.
+     * @return The root node of the subtree.
+     */
+    private BBTree.BBNode buildNode(int[] refs, double[] boxes, int count, double[] nodeBox) {
+        if (count == 1) {
+            referenceCount++;
+            return new BBTree.BBNode(primitives[refs[0]], toBoundingBox(boxes, 0));
+        }
+
+        ObjectSplit objectSplit = findObjectSplit(boxes, count);
+        double[] overlap = new double[6];
+        double overlapArea = 0;
+        if (objectSplit != null) {
+            for (int axis = 0; axis < 3; axis++) {
+                overlap[axis] = Math.max(objectSplit.leftBox[axis], objectSplit.rightBox[axis]);
+                overlap[3 + axis] = Math.min(objectSplit.leftBox[3 + axis], objectSplit.rightBox[3 + axis]);
+            }
+            overlapArea = BinnedSAHBuilder.surfaceArea(overlap, 0);
+        }
+
+        // Spatial splits are only worth their duplicates when the object split overlaps noticeably
+        if (remainingDuplicates > 0 && (objectSplit == null || overlapArea > overlapLimit)) {
+            SpatialSplit spatialSplit = findSpatialSplit(refs, boxes, count, nodeBox);
+            if (spatialSplit != null && (objectSplit == null || spatialSplit.cost < objectSplit.cost)) {
+                BBTree.BBNode node = applySpatialSplit(refs, boxes, count, spatialSplit);
+                if (node != null) return node;
+            }
+        }
+
+        // Object split, or a median split of the references if all centroids coincide
+        int leftCount = 0;
+        int[] leftRefs = new int[count];
+        int[] rightRefs = new int[count];
+        double[] leftBoxes = new double[count * 6];
+        double[] rightBoxes = new double[count * 6];
+        int rightCount = 0;
+        for (int r = 0; r < count; r++) {
+            boolean left;
+            if (objectSplit != null) {
+                double centroid = 0.5 * (boxes[r * 6 + objectSplit.axis] + boxes[r * 6 + 3 + objectSplit.axis]);
+                left = objectSplit.binOf(centroid) <= objectSplit.bin;
+            } else {
+                left = r < count / 2;
+            }
+            if (left) {
+                leftRefs[leftCount] = refs[r];
+                System.arraycopy(boxes, r * 6, leftBoxes, leftCount * 6, 6);
+                leftCount++;
+            } else {
+                rightRefs[rightCount] = refs[r];
+                System.arraycopy(boxes, r * 6, rightBoxes, rightCount * 6, 6);
+                rightCount++;
+            }
+        }
+        if (leftCount == 0 || rightCount == 0) {
+            // Degenerate binning; split the references in half instead
+            System.arraycopy(refs, 0, leftRefs, 0, count / 2);
+            System.arraycopy(boxes, 0, leftBoxes, 0, (count / 2) * 6);
+            System.arraycopy(refs, count / 2, rightRefs, 0, count - count / 2);
+            System.arraycopy(boxes, (count / 2) * 6, rightBoxes, 0, (count - count / 2) * 6);
+            leftCount = count / 2;
+            rightCount = count - count / 2;
+        }
+
+        return buildChildren(leftRefs, leftBoxes, leftCount, rightRefs, rightBoxes, rightCount);
+    }
+
+    /**
+     * Builds both children of a node and joins them.
+     *
+     * @param leftRefs   The primitives of the left references.
+     * @param leftBoxes  The boxes of the left references.
+     * @param leftCount  The number of left references.
+     * @param rightRefs  The primitives of the right references.
+     * @param rightBoxes The boxes of the right references.
+     * @param rightCount The number of right references.
+     * @return The internal node joining both subtrees.
+     */
+    private BBTree.BBNode buildChildren(int[] leftRefs, double[] leftBoxes, int leftCount,
+                                        int[] rightRefs, double[] rightBoxes, int rightCount) {
+        BBTree.BBNode left = buildNode(leftRefs, leftBoxes, leftCount, boundsOf(leftBoxes, leftCount));
+        BBTree.BBNode right = buildNode(rightRefs, rightBoxes, rightCount, boundsOf(rightBoxes, rightCount));
+        return new BBTree.BBNode(left, right);
+    }
+
+    /**
+     * Best binned SAH partition of the references by the centroids of their boxes.
+     */
+    private static class ObjectSplit {
+        int axis;
+        int bin;
+        double min;
+        double scale;
+        double cost;
+        final double[] leftBox = new double[6];
+        final double[] rightBox = new double[6];
+
+        /**
+         * Maps a centroid coordinate on the split axis to its bin.
+         *
+         * @param centroid The centroid coordinate.
+         * @return The bin index.
+         */
+        int binOf(double centroid) {
+            return (int) ((centroid - min) * scale);
+        }
+    }
+
+    /**
+     * Finds the cheapest binned object split of a set of references.
+     *
+     * @param boxes The boxes of the references.
+     * @param count The number of references.
+     * @return The best split, or {@code null} if all centroids coincide.
+     */
+    private ObjectSplit findObjectSplit(double[] boxes, int count) {
+        double[] centroidBounds = new double[6];
+        BinnedSAHBuilder.resetBox(centroidBounds, 0);
+        for (int r = 0; r < count; r++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double c = 0.5 * (boxes[r * 6 + axis] + boxes[r * 6 + 3 + axis]);
+                centroidBounds[axis] = Math.min(centroidBounds[axis], c);
+                centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], c);
+            }
+        }
+
+        ObjectSplit best = null;
+        int[] counts = new int[binCount];
+        double[] binBoxes = new double[binCount * 6];
+        double[] rightAreas = new double[binCount];
+        double[] box = new double[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+            if (extent <= 0) continue;
+            double scale = binCount * (1 - 1e-9) / extent;
+
+            Arrays.fill(counts, 0);
+            for (int b = 0; b < binCount; b++) BinnedSAHBuilder.resetBox(binBoxes, b * 6);
+            for (int r = 0; r < count; r++) {
+                double c = 0.5 * (boxes[r * 6 + axis] + boxes[r * 6 + 3 + axis]);
+                int b = Math.min(binCount - 1, (int) ((c - centroidBounds[axis]) * scale));
+                counts[b]++;
+                BinnedSAHBuilder.growBox(binBoxes, b * 6, boxes, r * 6);
+            }
+
+            BinnedSAHBuilder.resetBox(box, 0);
+            for (int b = binCount - 1; b > 0; b--) {
+                BinnedSAHBuilder.growBox(box, 0, binBoxes, b * 6);
+                rightAreas[b] = BinnedSAHBuilder.surfaceArea(box, 0);
+            }
+
+            BinnedSAHBuilder.resetBox(box, 0);
+            int leftCount = 0;
+            for (int b = 0; b < binCount - 1; b++) {
+                BinnedSAHBuilder.growBox(box, 0, binBoxes, b * 6);
+                leftCount += counts[b];
+                int rightCount = count - leftCount;
+                if (leftCount == 0 || rightCount == 0) continue;
+
+                double cost = leftCount * BinnedSAHBuilder.surfaceArea(box, 0) + rightCount * rightAreas[b + 1];
+                if (best == null || cost < best.cost) {
+                    if (best == null) best = new ObjectSplit();
+                    best.axis = axis;
+                    best.bin = b;
+                    best.min = centroidBounds[axis];
+                    best.scale = scale;
+                    best.cost = cost;
+                }
+            }
+        }
+
+        if (best != null) {
+            BinnedSAHBuilder.resetBox(best.leftBox, 0);
+            BinnedSAHBuilder.resetBox(best.rightBox, 0);
+            for (int r = 0; r < count; r++) {
+                double c = 0.5 * (boxes[r * 6 + best.axis] + boxes[r * 6 + 3 + best.axis]);
+                double[] side = best.binOf(c) <= best.bin ? best.leftBox : best.rightBox;
+                BinnedSAHBuilder.growBox(side, 0, boxes, r * 6);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Best split plane found by binning the node's space.
+     */
+    private static class SpatialSplit {
+        int axis;
+        double position;
+        double cost;
+        final double[] leftBox = new double[6];
+        final double[] rightBox = new double[6];
+        int leftCount;
+        int rightCount;
+    }
+
+    /**
+     * Finds the cheapest spatial split plane of a node. References are chopped into the
+     * bins they overlap; each one enters the bin where it starts and exits the bin where it ends.
+     *
+     * @param refs    The primitives of the references.
+     * @param boxes   The boxes of the references.
+     * @param count   The number of references.
+     * @param nodeBox The box enclosing every reference.
+     * @return The best split, or {@code null} if the node is flat on every axis.
+     */
+    private SpatialSplit findSpatialSplit(int[] refs, double[] boxes, int count, double[] nodeBox) {
+        SpatialSplit best = null;
+        int[] entries = new int[binCount];
+        int[] exits = new int[binCount];
+        double[] binBoxes = new double[binCount * 6];
+        double[] rightBoxes = new double[binCount * 6];
+        double[] piece = new double[6];
+        double[] leftPiece = new double[6];
+        double[] rightPiece = new double[6];
+        double[] box = new double[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            double origin = nodeBox[axis];
+            double width = (nodeBox[3 + axis] - origin) / binCount;
+            if (width <= 0) continue;
+
+            Arrays.fill(entries, 0);
+            Arrays.fill(exits, 0);
+            for (int b = 0; b < binCount; b++) BinnedSAHBuilder.resetBox(binBoxes, b * 6);
+
+            for (int r = 0; r < count; r++) {
+                int first = Math.clamp((int) ((boxes[r * 6 + axis] - origin) / width), 0, binCount - 1);
+                int last = Math.clamp((int) ((boxes[r * 6 + 3 + axis] - origin) / width), first, binCount - 1);
+                entries[first]++;
+                exits[last]++;
+
+                System.arraycopy(boxes, r * 6, piece, 0, 6);
+                for (int b = first; b < last; b++) {
+                    splitReference(refs[r], piece, axis, origin + (b + 1) * width, leftPiece, rightPiece);
+                    BinnedSAHBuilder.growBox(binBoxes, b * 6, leftPiece, 0);
+                    System.arraycopy(rightPiece, 0, piece, 0, 6);
+                }
+                BinnedSAHBuilder.growBox(binBoxes, last * 6, piece, 0);
+            }
+
+            BinnedSAHBuilder.resetBox(box, 0);
+            for (int b = binCount - 1; b > 0; b--) {
+                BinnedSAHBuilder.growBox(box, 0, binBoxes, b * 6);
+                System.arraycopy(box, 0, rightBoxes, b * 6, 6);
+            }
+
+            BinnedSAHBuilder.resetBox(box, 0);
+            int leftCount = 0;
+            int rightCount = count;
+            for (int b = 0; b < binCount - 1; b++) {
+                BinnedSAHBuilder.growBox(box, 0, binBoxes, b * 6);
+                leftCount += entries[b];
+                rightCount -= exits[b];
+                if (leftCount == 0 || rightCount == 0) continue;
+
+                double cost = leftCount * BinnedSAHBuilder.surfaceArea(box, 0)
+                        + rightCount * BinnedSAHBuilder.surfaceArea(rightBoxes, (b + 1) * 6);
+                if (best == null || cost < best.cost) {
+                    if (best == null) best = new SpatialSplit();
+                    best.axis = axis;
+                    best.position = origin + (b + 1) * width;
+                    best.cost = cost;
+                    System.arraycopy(box, 0, best.leftBox, 0, 6);
+                    System.arraycopy(rightBoxes, (b + 1) * 6, best.rightBox, 0, 6);
+                    best.leftCount = leftCount;
+                    best.rightCount = rightCount;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distributes the references of a node by a spatial split plane and builds its children.
+     * References that straddle the plane are either clipped into both children or, when that is
+     * cheaper, moved whole into one of them ("unsplitting").
+     *
+     * @param refs  The primitives of the references.
+     * @param boxes The boxes of the references.
+     * @param count The number of references.
+     * @param split The split to apply.
+     * @return The internal node, or {@code null} if the split exceeds the duplicate budget or separates nothing.
+     */
+    private BBTree.BBNode applySpatialSplit(int[] refs, double[] boxes, int count, SpatialSplit split) {
+        int axis = split.axis;
+        double position = split.position;
+
+        int straddling = 0;
+        for (int r = 0; r < count; r++) {
+            if (boxes[r * 6 + axis] < position && boxes[r * 6 + 3 + axis] > position) straddling++;
+        }
+        if (straddling > remainingDuplicates) return null;
+
+        int[] leftRefs = new int[count];
+        int[] rightRefs = new int[count];
+        double[] leftBoxes = new double[count * 6];
+        double[] rightBoxes = new double[count * 6];
+        int leftCount = 0;
+        int rightCount = 0;
+
+        double[] leftBox = split.leftBox.clone();
+        double[] rightBox = split.rightBox.clone();
+        int leftTotal = split.leftCount;
+        int rightTotal = split.rightCount;
+        double[] leftPiece = new double[6];
+        double[] rightPiece = new double[6];
+        double[] grown = new double[6];
+        int duplicates = 0;
+
+        for (int r = 0; r < count; r++) {
+            double min = boxes[r * 6 + axis];
+            double max = boxes[r * 6 + 3 + axis];
+            if (max <= position && !(min == position && max == position && leftTotal > rightTotal)) {
+                leftRefs[leftCount] = refs[r];
+                System.arraycopy(boxes, r * 6, leftBoxes, leftCount * 6, 6);
+                leftCount++;
+                continue;
+            }
+            if (min >= position) {
+                rightRefs[rightCount] = refs[r];
+                System.arraycopy(boxes, r * 6, rightBoxes, rightCount * 6, 6);
+                rightCount++;
+                continue;
+            }
+
+            // Straddling reference: compare splitting it with moving it whole to either side
+            double leftArea = BinnedSAHBuilder.surfaceArea(leftBox, 0);
+            double rightArea = BinnedSAHBuilder.surfaceArea(rightBox, 0);
+            double splitCost = leftArea * leftTotal + rightArea * rightTotal;
+
+            System.arraycopy(leftBox, 0, grown, 0, 6);
+            BinnedSAHBuilder.growBox(grown, 0, boxes, r * 6);
+            double allLeftCost = BinnedSAHBuilder.surfaceArea(grown, 0) * leftTotal + rightArea * (rightTotal - 1);
+
+            System.arraycopy(rightBox, 0, grown, 0, 6);
+            BinnedSAHBuilder.growBox(grown, 0, boxes, r * 6);
+            double allRightCost = leftArea * (leftTotal - 1) + BinnedSAHBuilder.surfaceArea(grown, 0) * rightTotal;
+
+            if (allLeftCost < splitCost && allLeftCost <= allRightCost) {
+                BinnedSAHBuilder.growBox(leftBox, 0, boxes, r * 6);
+                rightTotal--;
+                leftRefs[leftCount] = refs[r];
+                System.arraycopy(boxes, r * 6, leftBoxes, leftCount * 6, 6);
+                leftCount++;
+            } else if (allRightCost < splitCost) {
+                BinnedSAHBuilder.growBox(rightBox, 0, boxes, r * 6);
+                leftTotal--;
+                rightRefs[rightCount] = refs[r];
+                System.arraycopy(boxes, r * 6, rightBoxes, rightCount * 6, 6);
+                rightCount++;
+            } else {
+                System.arraycopy(boxes, r * 6, grown, 0, 6);
+                splitReference(refs[r], grown, axis, position, leftPiece, rightPiece);
+                leftRefs[leftCount] = refs[r];
+                System.arraycopy(leftPiece, 0, leftBoxes, leftCount * 6, 6);
+                leftCount++;
+                rightRefs[rightCount] = refs[r];
+                System.arraycopy(rightPiece, 0, rightBoxes, rightCount * 6, 6);
+                rightCount++;
+                duplicates++;
+            }
+        }
+
+        if (leftCount == 0 || rightCount == 0 || leftCount == count && rightCount == count) return null;
+
+        remainingDuplicates -= duplicates;
+        return buildChildren(leftRefs, leftBoxes, leftCount, rightRefs, rightBoxes, rightCount);
+    }
+
+    /**
+     * Splits a reference by an axis-aligned plane. Triangles are clipped so that each side only
+     * covers the part of the triangle on that side; other objects keep their box cut at the plane.
+     * Both results are limited to the current box of the reference.
+     *
+     * @param primitive The primitive of the reference.
+     * @param box       The current box of the reference.
+     * @param axis      The axis of the plane.
+     * @param position  The position of the plane.
+     * @param left      Receives the box of the part below the plane.
+     * @param right     Receives the box of the part above the plane.
+     */
+    private void splitReference(int primitive, double[] box, int axis, double position, double[] left, double[] right) {
+        if (triangles[primitive]) {
+            BinnedSAHBuilder.resetBox(left, 0);
+            BinnedSAHBuilder.resetBox(right, 0);
+            int v = primitive * 9;
+            for (int edge = 0; edge < 3; edge++) {
+                int a = v + edge * 3;
+                int b = v + ((edge + 1) % 3) * 3;
+                double pa = vertices[a + axis];
+                double pb = vertices[b + axis];
+
+                if (pa <= position) growPoint(left, vertices[a], vertices[a + 1], vertices[a + 2]);
+                if (pa >= position) growPoint(right, vertices[a], vertices[a + 1], vertices[a + 2]);
+
+                // The edge crosses the plane: both sides get the crossing point
+                if ((pa < position && pb > position) || (pa > position && pb < position)) {
+                    double t = (position - pa) / (pb - pa);
+                    double x = vertices[a] + t * (vertices[b] - vertices[a]);
+                    double y = vertices[a + 1] + t * (vertices[b + 1] - vertices[a + 1]);
+                    double z = vertices[a + 2] + t * (vertices[b + 2] - vertices[a + 2]);
+                    growPoint(left, x, y, z);
+                    growPoint(right, x, y, z);
+                }
+            }
+            left[3 + axis] = Math.min(left[3 + axis], position);
+            right[axis] = Math.max(right[axis], position);
+            for (int i = 0; i < 3; i++) {
+                left[i] = Math.max(left[i], box[i]);
+                left[3 + i] = Math.min(left[3 + i], box[3 + i]);
+                right[i] = Math.max(right[i], box[i]);
+                right[3 + i] = Math.min(right[3 + i], box[3 + i]);
+            }
+        } else {
+            System.arraycopy(box, 0, left, 0, 6);
+            System.arraycopy(box, 0, right, 0, 6);
+            left[3 + axis] = Math.min(box[3 + axis], position);
+            right[axis] = Math.max(box[axis], position);
+        }
+    }
+
+    /**
+     * Grows a packed box so that it also encloses a point.
+     *
+     * @param box The box to grow.
+     * @param x   Point x.
+     * @param y   Point y.
+     * @param z   Point z.
+     */
+    private static void growPoint(double[] box, double x, double y, double z) {
+        box[0] = Math.min(box[0], x);
+        box[1] = Math.min(box[1], y);
+        box[2] = Math.min(box[2], z);
+        box[3] = Math.max(box[3], x);
+        box[4] = Math.max(box[4], y);
+        box[5] = Math.max(box[5], z);
+    }
+
+    /**
+     * Computes the box enclosing a set of packed boxes.
+     *
+     * @param boxes The packed boxes.
+     * @param count The number of boxes.
+     * @return A new packed box.
+     */
+    private static double[] boundsOf(double[] boxes, int count) {
+        double[] box = new double[6];
+        BinnedSAHBuilder.resetBox(box, 0);
+        for (int r = 0; r < count; r++) {
+            BinnedSAHBuilder.growBox(box, 0, boxes, r * 6);
+        }
+        return box;
+    }
+
+    /**
+     * Converts a packed box into a {@link BoundingBox}.
+     *
+     * @param boxes  The packed boxes.
+     * @param offset Offset of the box inside the array.
+     * @return The bounding box.
+     */
+    private static BoundingBox toBoundingBox(double[] boxes, int offset) {
+        return new BoundingBox(new Vector3D(boxes[offset], boxes[offset + 1], boxes[offset + 2]),
+                new Vector3D(boxes[offset + 3], boxes[offset + 4], boxes[offset + 5]));
+    }
+}
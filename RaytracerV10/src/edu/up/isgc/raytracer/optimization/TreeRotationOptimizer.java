@@ -0,0 +1,208 @@
+package edu.up.isgc.raytracer.optimization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Improves an existing Bounding Box Tree in place with tree rotations (Kensler 2008).
+ * Every internal node tries swapping one of its children with a grandchild on the other side,
+ * or two grandchildren with each other, and applies the swap that shrinks the surface area of
+ * the rebuilt children the most. The set of objects below a node never changes, so its own box
+ * stays the same and nodes can be optimized bottom-up in any order.
+ * <p>
+ * Subtrees below the top of the tree are optimized in parallel on a {@link ForkJoinPool}, then the
+ * top is optimized on a single thread. Passes repeat until they stop paying off or the time
+ * budget runs out, which turns the trees built by {@link BBTree#insert} into trees close to a
+ * full rebuild for a fraction of its cost.
+ */
+public class TreeRotationOptimizer {
+    /** Stop once a pass reduces the SAH cost, relative to the root area, by less than this */
+    private static final double MIN_PASS_GAIN = 1e-3;
+    /** Largest number of passes over the tree */
+    private static final int MAX_PASSES = 32;
+    /** Number of subtrees optimized in parallel per thread */
+    private static final int SUBTREES_PER_THREAD = 4;
+
+    private final long budgetNanos;
+    private final int parallelism;
+    private long deadline;
+
+    /**
+     * Constructs an optimizer with the given time budget and worker threads.
+     *
+     * @param budgetMillis The time the optimization may take, in milliseconds.
+     * @param parallelism  The number of threads used to optimize the subtrees (at least 1).
+     */
+    public TreeRotationOptimizer(long budgetMillis, int parallelism) {
+        this.budgetNanos = Math.max(0, budgetMillis) * 1_000_000;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Optimizes the tree below the given root in place.
+     *
+     * @param root The root of the tree, which is kept as the root.
+     * @return The number of passes made over the tree.
+     */
+    int optimize(BBTree.BBNode root) {
+        if (root == null || root.isLeaf()) return 0;
+        deadline = System.nanoTime() + budgetNanos;
+
+        // Split the tree breadth-first into a top part and independent subtrees below it
+        Set<BBTree.BBNode> subtrees = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<BBTree.BBNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty() && queue.size() + subtrees.size() < parallelism * SUBTREES_PER_THREAD) {
+            BBTree.BBNode node = queue.poll();
+            if (node.isLeaf()) {
+                subtrees.add(node);
+            } else {
+                queue.add(node.left);
+                queue.add(node.right);
+            }
+        }
+        subtrees.addAll(queue);
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            int passes = 0;
+            double area = root.bbox.getSurfaceArea();
+            while (passes < MAX_PASSES && System.nanoTime() < deadline) {
+                DoubleAdder gain = new DoubleAdder();
+                if (pool != null) {
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                    for (BBTree.BBNode subtree : subtrees) {
+                        tasks.add(pool.submit(() -> gain.add(sweep(subtree, null))));
+                    }
+                    for (ForkJoinTask<?> task : tasks) {
+                        task.join();
+                    }
+                } else {
+                    for (BBTree.BBNode subtree : subtrees) {
+                        gain.add(sweep(subtree, null));
+                    }
+                }
+                gain.add(sweep(root, subtrees));
+                passes++;
+
+                if (area <= 0 || gain.sum() * BinnedSAHBuilder.TRAVERSAL_COST / area < MIN_PASS_GAIN) break;
+            }
+            return passes;
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /**
+     * Visits the internal nodes below a node bottom-up and applies the best rotation of each.
+     *
+     * @param node The root of the part to optimize.
+     * @param stop Nodes whose subtrees are skipped, or {@code null} to visit the whole subtree.
+     * @return The total surface area removed.
+     */
+    private double sweep(BBTree.BBNode node, Set<BBTree.BBNode> stop) {
+        // Collect the nodes parents first, then walk the list backwards so children come first
+        List<BBTree.BBNode> order = new ArrayList<>();
+        ArrayDeque<BBTree.BBNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            BBTree.BBNode current = stack.pop();
+            if (current.isLeaf() || current != node && stop != null && stop.contains(current)) continue;
+            order.add(current);
+            stack.push(current.left);
+            stack.push(current.right);
+        }
+
+        double gain = 0;
+        for (int i = order.size() - 1; i >= 0; i--) {
+            if ((i & 255) == 0 && System.nanoTime() >= deadline) break;
+            gain += rotate(order.get(i), stop);
+        }
+        return gain;
+    }
+
+    /**
+     * Applies the rotation at a node that removes the most surface area, if any does.
+     *
+     * @param node An internal node.
+     * @param stop Children that must keep their own children, or {@code null}.
+     * @return The surface area removed, or 0 if no rotation helps.
+     */
+    private static double rotate(BBTree.BBNode node, Set<BBTree.BBNode> stop) {
+        BBTree.BBNode left = node.left, right = node.right;
+        double leftArea = left.bbox.getSurfaceArea();
+        double rightArea = right.bbox.getSurfaceArea();
+        boolean openLeft = !left.isLeaf() && (stop == null || !stop.contains(left));
+        boolean openRight = !right.isLeaf() && (stop == null || !stop.contains(right));
+
+        int best = 0;
+        double bestGain = 0;
+        double gain;
+        if (openRight) {
+            // Swap the left child with one of the right grandchildren
+            gain = rightArea - area(left, right.right);
+            if (gain > bestGain) { bestGain = gain; best = 1; }
+            gain = rightArea - area(right.left, left);
+            if (gain > bestGain) { bestGain = gain; best = 2; }
+        }
+        if (openLeft) {
+            // Swap the right child with one of the left grandchildren
+            gain = leftArea - area(right, left.right);
+            if (gain > bestGain) { bestGain = gain; best = 3; }
+            gain = leftArea - area(left.left, right);
+            if (gain > bestGain) { bestGain = gain; best = 4; }
+        }
+        if (openLeft && openRight) {
+            // Swap a left grandchild with a right grandchild
+            gain = leftArea + rightArea - area(right.left, left.right) - area(left.left, right.right);
+            if (gain > bestGain) { bestGain = gain; best = 5; }
+            gain = leftArea + rightArea - area(right.right, left.right) - area(right.left, left.left);
+            if (gain > bestGain) { bestGain = gain; best = 6; }
+        }
+
+        // Only the boxes of the children that got new children change
+        BBTree.BBNode swap;
+        switch (best) {
+            case 1 -> { swap = right.left; right.left = left; node.left = swap; right.updateBoundingBox(); }
+            case 2 -> { swap = right.right; right.right = left; node.left = swap; right.updateBoundingBox(); }
+            case 3 -> { swap = left.left; left.left = right; node.right = swap; left.updateBoundingBox(); }
+            case 4 -> { swap = left.right; left.right = right; node.right = swap; left.updateBoundingBox(); }
+            case 5, 6 -> {
+                swap = left.left;
+                if (best == 5) {
+                    left.left = right.left;
+                    right.left = swap;
+                } else {
+                    left.left = right.right;
+                    right.right = swap;
+                }
+                left.updateBoundingBox();
+                right.updateBoundingBox();
+            }
+            default -> { return 0; }
+        }
+        return bestGain;
+    }
+
+    /**
+     * Computes the surface area of the box enclosing two nodes.
+     *
+     * @param a The first node.
+     * @param b The second node.
+     * @return The surface area of their common box.
+     */
+    private static double area(BBTree.BBNode a, BBTree.BBNode b) {
+        BoundingBox x = a.bbox, y = b.bbox;
+        double dx = Math.max(x.getMax().x, y.getMax().x) - Math.min(x.getMin().x, y.getMin().x);
+        double dy = Math.max(x.getMax().y, y.getMax().y) - Math.min(x.getMin().y, y.getMin().y);
+        double dz = Math.max(x.getMax().z, y.getMax().z) - Math.min(x.getMin().z, y.getMin().z);
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
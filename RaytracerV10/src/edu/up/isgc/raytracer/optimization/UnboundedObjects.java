@@ -0,0 +1,125 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.List;
+
+/**
+ * Adds objects without a bounding box, like infinite {@link edu.up.isgc.raytracer.shapes.Plane}s,
+ * to another structure. The builders skip such objects, so they are tested one by one after the
+ * structure, and only closer than the hit it found. Scenes have a handful of them at most.
+ */
+public class UnboundedObjects implements AccelerationStructure {
+    private final AccelerationStructure bounded;  ///< Structure over the bounded objects, or null if there are none.
+    private final Object3D[] objects;
+
+    /**
+     * Creates the structure.
+     *
+     * @param bounded The structure over the bounded objects, or null if there are none
+     * @param objects The objects without a bounding box
+     */
+    public UnboundedObjects(AccelerationStructure bounded, List<Object3D> objects) {
+        this.bounded = bounded;
+        this.objects = objects.toArray(new Object3D[0]);
+    }
+
+    /**
+     * Finds the closest intersection in the bounded structure and then among the unbounded objects.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        Intersection closest = bounded == null ? null : bounded.closestHit(ray, tMin, tMax, ignore);
+        return closestUnbounded(ray, tMin, tMax, ignore, closest);
+    }
+
+    /**
+     * Checks the unbounded objects first, which are few and large, and then the bounded structure.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        for (Object3D object : objects) {
+            if (object.occludes(ray, tMin, maxDistance, ignore)) return true;
+        }
+        return bounded != null && bounded.occluded(ray, tMin, maxDistance, ignore);
+    }
+
+    /**
+     * Traces the packet through the bounded structure and then tests every lane against the
+     * unbounded objects.
+     *
+     * @param packet The rays; receives the closest hit of every lane.
+     */
+    @Override
+    public void closestHit(RayPacket packet) {
+        if (bounded != null) bounded.closestHit(packet);
+        for (int lane = 0; lane < packet.size(); lane++) {
+            Intersection hit = closestUnbounded(packet.rays[lane], packet.tMin[lane], packet.tMax[lane],
+                    packet.ignore[lane], packet.hits[lane]);
+            packet.setResult(lane, hit, false);
+        }
+    }
+
+    /**
+     * Traces the packet through the bounded structure and checks the lanes it does not block
+     * against the unbounded objects.
+     *
+     * @param packet The shadow rays; receives whether every lane is blocked.
+     */
+    @Override
+    public void occluded(RayPacket packet) {
+        if (bounded != null) bounded.occluded(packet);
+        for (int lane = 0; lane < packet.size(); lane++) {
+            if (packet.occluded[lane]) continue;
+            for (Object3D object : objects) {
+                if (object.occludes(packet.rays[lane], packet.tMin[lane], packet.tMax[lane], packet.ignore[lane])) {
+                    packet.setResult(lane, null, true);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the unbounded objects for a hit closer than the given one.
+     *
+     * @param ray     The ray.
+     * @param tMin    The smallest accepted hit distance.
+     * @param tMax    The largest accepted hit distance.
+     * @param ignore  Object whose hits are skipped, or {@code null}.
+     * @param closest The closest hit found so far, or {@code null}.
+     * @return The closest of the given hit and the hits of the unbounded objects.
+     */
+    private Intersection closestUnbounded(Ray ray, double tMin, double tMax, Object3D ignore, Intersection closest) {
+        for (Object3D object : objects) {
+            double limit = closest == null ? tMax : Math.nextDown(closest.distance);
+            Intersection hit = object.closestHit(ray, tMin, limit, ignore);
+            if (hit != null) closest = hit;
+        }
+        return closest;
+    }
+
+    /**
+     * Gets the bounds of the bounded objects; the unbounded ones have none.
+     *
+     * @return The bounding box, or {@code null} if there are no bounded objects.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        return bounded == null ? null : bounded.getBounds();
+    }
+}
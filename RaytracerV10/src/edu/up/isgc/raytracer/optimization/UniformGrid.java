@@ -0,0 +1,271 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid over the bounding boxes of the scene objects. The resolution follows the object
+ * count, about three cells per cube root of it along the longest axis, and every object is
+ * referenced from each cell its box overlaps. Rays step through the cells with a 3D DDA, which
+ * is very cheap to build and works well for sparse scenes of similar sized objects.
+ */
+public class UniformGrid implements AccelerationStructure {
+    /** Cells along the longest axis per cube root of the object count */
+    private static final double DENSITY = 3;
+    /** Largest number of cells along one axis */
+    private static final int MAX_RESOLUTION = 128;
+
+    private final Object3D[] objects;
+    private final double[] bounds = new double[6];
+    private final int[] resolution = new int[3];
+    private final double[] cellSize = new double[3];
+    private final int[] cellStart;    ///< Per cell: first entry in cellObjects; one extra entry marks the end.
+    private final int[] cellObjects;  ///< Object indices referenced by the cells, cell by cell.
+
+    /**
+     * Builds a grid over every object of the list that has a bounding box.
+     *
+     * @param sceneObjects The objects to organize.
+     */
+    public UniformGrid(List<Object3D> sceneObjects) {
+        List<Object3D> bounded = new ArrayList<>();
+        for (Object3D object : sceneObjects) {
+            if (object != null && object.getBB() != null) bounded.add(object);
+        }
+        this.objects = bounded.toArray(new Object3D[0]);
+        int n = objects.length;
+        if (n == 0) {
+            this.cellStart = new int[1];
+            this.cellObjects = new int[0];
+            return;
+        }
+
+        double[] objectBounds = new double[n * 6];
+        BinnedSAHBuilder.resetBox(bounds, 0);
+        for (int i = 0; i < n; i++) {
+            BoundingBox bb = objects[i].getBB();
+            objectBounds[i * 6] = bb.getMin().x;
+            objectBounds[i * 6 + 1] = bb.getMin().y;
+            objectBounds[i * 6 + 2] = bb.getMin().z;
+            objectBounds[i * 6 + 3] = bb.getMax().x;
+            objectBounds[i * 6 + 4] = bb.getMax().y;
+            objectBounds[i * 6 + 5] = bb.getMax().z;
+            BinnedSAHBuilder.growBox(bounds, 0, objectBounds, i * 6);
+        }
+
+        double maxExtent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+        double cellsPerUnit = maxExtent > 0 ? DENSITY * Math.cbrt(n) / maxExtent : 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = bounds[3 + axis] - bounds[axis];
+            resolution[axis] = Math.clamp(Math.round(extent * cellsPerUnit), 1, MAX_RESOLUTION);
+            cellSize[axis] = extent / resolution[axis];
+        }
+
+        // Count the references of every cell, then fill them in place
+        int cellCount = resolution[0] * resolution[1] * resolution[2];
+        int[] start = new int[cellCount + 1];
+        int[] range = new int[6];
+        for (int i = 0; i < n; i++) {
+            cellRange(objectBounds, i, range);
+            for (int z = range[2]; z <= range[5]; z++) {
+                for (int y = range[1]; y <= range[4]; y++) {
+                    for (int x = range[0]; x <= range[3]; x++) {
+                        start[cellIndex(x, y, z) + 1]++;
+                    }
+                }
+            }
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            start[cell + 1] += start[cell];
+        }
+
+        int[] fill = new int[cellCount];
+        int[] references = new int[start[cellCount]];
+        for (int i = 0; i < n; i++) {
+            cellRange(objectBounds, i, range);
+            for (int z = range[2]; z <= range[5]; z++) {
+                for (int y = range[1]; y <= range[4]; y++) {
+                    for (int x = range[0]; x <= range[3]; x++) {
+                        int cell = cellIndex(x, y, z);
+                        references[start[cell] + fill[cell]++] = i;
+                    }
+                }
+            }
+        }
+        this.cellStart = start;
+        this.cellObjects = references;
+    }
+
+    /**
+     * Computes the cells overlapped by the box of an object.
+     *
+     * @param objectBounds The packed object boxes.
+     * @param object       The object index.
+     * @param range        Receives the first and the last cell along x, y and z.
+     */
+    private void cellRange(double[] objectBounds, int object, int[] range) {
+        for (int axis = 0; axis < 3; axis++) {
+            range[axis] = toCell(objectBounds[object * 6 + axis], axis);
+            range[3 + axis] = toCell(objectBounds[object * 6 + 3 + axis], axis);
+        }
+    }
+
+    /**
+     * Maps a coordinate to the cell containing it, clamped to the grid.
+     *
+     * @param position The coordinate.
+     * @param axis     The axis of the coordinate.
+     * @return The cell coordinate along the axis.
+     */
+    private int toCell(double position, int axis) {
+        if (cellSize[axis] <= 0) return 0;
+        return Math.clamp((long) Math.floor((position - bounds[axis]) / cellSize[axis]), 0, resolution[axis] - 1);
+    }
+
+    /**
+     * Computes the index of a cell.
+     *
+     * @param x Cell coordinate along x.
+     * @param y Cell coordinate along y.
+     * @param z Cell coordinate along z.
+     * @return The cell index.
+     */
+    private int cellIndex(int x, int y, int z) {
+        return (z * resolution[1] + y) * resolution[0] + x;
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}.
+     * Cells are visited front to back and the walk stops once the closest hit lies before
+     * the next cell.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        HitRecord record = new HitRecord();
+        traverse(ray, tMin, tMax, ignore, record);
+        return record.resolve(ray);
+    }
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]}.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        return traverse(ray, tMin, maxDistance, ignore, null);
+    }
+
+    /**
+     * Steps through the cells pierced by the ray interval front to back.
+     *
+     * @param ray     The ray.
+     * @param tMin    Start of the ray interval.
+     * @param tMax    End of the ray interval.
+     * @param ignore  Object whose hits are skipped, or {@code null}.
+     * @param closest Receives the closest hit, or {@code null} to stop at the first blocker.
+     * @return {@code true} if a blocker was found while looking for one.
+     */
+    private boolean traverse(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord closest) {
+        if (objects.length == 0) return false;
+
+        double[] origin = {ray.origin.x, ray.origin.y, ray.origin.z};
+        double[] direction = {-ray.direction.x, -ray.direction.y, -ray.direction.z};
+
+        // Clip the interval to the bounds of the grid
+        double t0 = tMin, t1 = tMax;
+        for (int axis = 0; axis < 3; axis++) {
+            if (direction[axis] == 0) {
+                if (origin[axis] < bounds[axis] || origin[axis] > bounds[3 + axis]) return false;
+                continue;
+            }
+            double near = (bounds[axis] - origin[axis]) / direction[axis];
+            double far = (bounds[3 + axis] - origin[axis]) / direction[axis];
+            t0 = Math.max(t0, Math.min(near, far));
+            t1 = Math.min(t1, Math.max(near, far));
+        }
+        if (t0 > t1) return false;
+
+        int[] cell = new int[3];
+        int[] step = new int[3];
+        int[] end = new int[3];
+        double[] next = new double[3];
+        double[] delta = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            double entry = direction[axis] == 0 ? origin[axis] : origin[axis] + t0 * direction[axis];
+            cell[axis] = toCell(entry, axis);
+            if (direction[axis] > 0 && cellSize[axis] > 0) {
+                next[axis] = t0 + (bounds[axis] + (cell[axis] + 1) * cellSize[axis] - entry) / direction[axis];
+                delta[axis] = cellSize[axis] / direction[axis];
+                step[axis] = 1;
+                end[axis] = resolution[axis];
+            } else if (direction[axis] < 0 && cellSize[axis] > 0) {
+                next[axis] = t0 + (bounds[axis] + cell[axis] * cellSize[axis] - entry) / direction[axis];
+                delta[axis] = -cellSize[axis] / direction[axis];
+                step[axis] = -1;
+                end[axis] = -1;
+            } else {
+                next[axis] = Double.POSITIVE_INFINITY;
+                end[axis] = -1;
+            }
+        }
+
+        while (true) {
+            int index = cellIndex(cell[0], cell[1], cell[2]);
+            for (int i = cellStart[index]; i < cellStart[index + 1]; i++) {
+                Object3D object = objects[cellObjects[i]];
+                if (closest == null) {
+                    if (object.occludes(ray, tMin, tMax, ignore)) return true;
+                    continue;
+                }
+                if (object.hit(ray, tMin, tMax, ignore, closest)) {
+                    tMax = closest.distance;
+                }
+            }
+
+            int axis = next[0] < next[1] ? (next[0] < next[2] ? 0 : 2) : (next[1] < next[2] ? 1 : 2);
+            if (tMax < next[axis] || next[axis] > t1) break;
+            cell[axis] += step[axis];
+            if (cell[axis] == end[axis]) break;
+            next[axis] += delta[axis];
+        }
+        return false;
+    }
+
+    /**
+     * Gets the bounds of every object in the grid.
+     *
+     * @return The bounding box, or {@code null} if the grid is empty.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        if (objects.length == 0) return null;
+        return new BoundingBox(new Vector3D(bounds[0], bounds[1], bounds[2]),
+                new Vector3D(bounds[3], bounds[4], bounds[5]));
+    }
+
+    /**
+     * Gets the number of cells along each axis.
+     *
+     * @return The resolution along x, y and z.
+     */
+    public int[] getResolution() {
+        return resolution.clone();
+    }
+}
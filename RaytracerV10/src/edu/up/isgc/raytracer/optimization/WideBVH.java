@@ -0,0 +1,365 @@
+package edu.up.isgc.raytracer.optimization;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Four-wide form of a {@link LinearBVH}. Every node of the binary hierarchy is collapsed with
+ * its descendants until it has up to four children, which halves the depth of the tree.
+ * The bounds of the four children are stored as structure of arrays in a {@code float[]}
+ * (all min x, then all min y, ... ), so a node is tested against a ray in a single loop over
+ * the four lanes that the JIT can keep in registers, and visited children are ordered by distance.
+ */
+public class WideBVH implements AccelerationStructure {
+    /** Number of children per node */
+    public static final int WIDTH = 4;
+    /** Number of values stored per node in {@link #bounds} */
+    private static final int BOUNDS_STRIDE = 6 * WIDTH;
+    /** Marks unused child slots in {@link #children} */
+    private static final int EMPTY = -1;
+    /** Directions smaller than this are treated as parallel to a slab, as in {@link LinearBVH} */
+    private static final double PARALLEL_EPSILON = 1e-6;
+
+    /** Traversal stacks reused by every ray traced on the same thread */
+    private static final ThreadLocal<LinearBVH.TraversalStacks> traversalStacks =
+            ThreadLocal.withInitial(LinearBVH.TraversalStacks::new);
+
+    private final float[] bounds;      ///< Per node: min x, y, z then max x, y, z of each child, lane by lane.
+    private final int[] children;      ///< Per child slot: node index (internal), first object (leaf) or EMPTY.
+    private final int[] counts;        ///< Per child slot: object count of a leaf, 0 for internal children.
+    private final LinearBVH binary;    ///< The collapsed hierarchy, which owns the objects and triangle packs of the leaves.
+    private final int nodeCount;
+
+    /**
+     * Constructs the four-wide layout of a binary hierarchy. At every node the child with the
+     * largest surface area is opened until the node has four children or only leaves are left.
+     *
+     * @param binary The hierarchy to collapse.
+     */
+    public WideBVH(LinearBVH binary) {
+        this.binary = binary;
+        int binaryNodes = binary.getNodeCount();
+        if (binaryNodes == 0) {
+            this.nodeCount = 0;
+            this.bounds = new float[0];
+            this.children = new int[0];
+            this.counts = new int[0];
+            return;
+        }
+
+        // Never more wide nodes than binary internal nodes, plus one if the root is a leaf
+        int capacity = Math.max(1, binaryNodes / 2);
+        float[] wideBounds = new float[capacity * BOUNDS_STRIDE];
+        int[] wideChildren = new int[capacity * WIDTH];
+        int[] wideCounts = new int[capacity * WIDTH];
+
+        // Each entry holds a binary node and the child slot of the wide node that must point to it
+        ArrayDeque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[]{0, -1});
+        List<Integer> slots = new ArrayList<>(WIDTH);
+        int next = 0;
+
+        while (!pending.isEmpty()) {
+            int[] entry = pending.pop();
+            int binaryNode = entry[0];
+            int index = next++;
+            if (entry[1] >= 0) wideChildren[entry[1]] = index;
+
+            slots.clear();
+            if (binary.isLeaf(binaryNode)) {
+                slots.add(binaryNode);
+            } else {
+                slots.add(binaryNode + 1);
+                slots.add(binary.getRightChild(binaryNode));
+            }
+            while (slots.size() < WIDTH) {
+                int largest = -1;
+                double largestArea = -1;
+                for (int s = 0; s < slots.size(); s++) {
+                    int candidate = slots.get(s);
+                    if (binary.isLeaf(candidate)) continue;
+                    double area = binary.getSurfaceArea(candidate);
+                    if (area > largestArea) {
+                        largestArea = area;
+                        largest = s;
+                    }
+                }
+                if (largest < 0) break;
+                int opened = slots.get(largest);
+                slots.set(largest, opened + 1);
+                slots.add(binary.getRightChild(opened));
+            }
+
+            int b = index * BOUNDS_STRIDE;
+            for (int lane = 0; lane < WIDTH; lane++) {
+                int slot = index * WIDTH + lane;
+                if (lane >= slots.size()) {
+                    wideChildren[slot] = EMPTY;
+                    continue;
+                }
+                int child = slots.get(lane);
+                for (int axis = 0; axis < 3; axis++) {
+                    wideBounds[b + axis * WIDTH + lane] = roundDown(binary.getBound(child, axis));
+                    wideBounds[b + (3 + axis) * WIDTH + lane] = roundUp(binary.getBound(child, 3 + axis));
+                }
+                if (binary.isLeaf(child)) {
+                    wideChildren[slot] = binary.getFirstObject(child);
+                    wideCounts[slot] = binary.getObjectCount(child);
+                } else {
+                    pending.push(new int[]{child, slot});
+                }
+            }
+        }
+
+        this.nodeCount = next;
+        this.bounds = Arrays.copyOf(wideBounds, next * BOUNDS_STRIDE);
+        this.children = Arrays.copyOf(wideChildren, next * WIDTH);
+        this.counts = Arrays.copyOf(wideCounts, next * WIDTH);
+    }
+
+    /**
+     * Finds the closest intersection whose distance lies inside {@code [tMin, tMax]}, like
+     * {@link LinearBVH#closestHit}. The children of a node are pushed farthest first, so the
+     * nearest one is visited next and entries beyond the current closest hit are skipped.
+     *
+     * @param ray    The ray used to check for intersections.
+     * @param tMin   The smallest accepted hit distance.
+     * @param tMax   The largest accepted hit distance.
+     * @param ignore Object whose hits are skipped, or {@code null}.
+     * @return The closest intersection inside the interval, or {@code null} if there is none.
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (nodeCount == 0) return null;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        HitRecord record = new HitRecord();
+        LinearBVH.TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            double[] entries = stacks.entries[level];
+            int top = 0;
+            entries[top] = tMin;
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int code = stack[--top];
+                if (entries[top] > tMax) continue;
+
+                if (code < 0) {
+                    int slot = ~code;
+                    if (binary.closestHitInLeaf(children[slot], counts[slot], ray, tMin, tMax, ignore, record)) {
+                        tMax = record.distance;
+                    }
+                    continue;
+                }
+
+                if (top + WIDTH > stack.length) {
+                    stack = stacks.growNodes(level);
+                    entries = stacks.growEntries(level);
+                }
+                int start = top;
+                top = intersectChildren(code, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, tMax,
+                        stack, entries, top);
+
+                // Sort the pushed children by decreasing entry distance so the nearest is popped first
+                for (int i = start + 1; i < top; i++) {
+                    int node = stack[i];
+                    double entry = entries[i];
+                    int j = i - 1;
+                    while (j >= start && entries[j] < entry) {
+                        stack[j + 1] = stack[j];
+                        entries[j + 1] = entries[j];
+                        j--;
+                    }
+                    stack[j + 1] = node;
+                    entries[j + 1] = entry;
+                }
+            }
+
+            return record.resolve(ray);
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Checks whether any object blocks the ray at a distance inside {@code [tMin, maxDistance]},
+     * like {@link LinearBVH#occluded}. Children are visited in no particular order.
+     *
+     * @param ray         The shadow ray.
+     * @param tMin        The smallest distance that counts as a blocker.
+     * @param maxDistance The largest distance that counts as a blocker, usually the distance to the light.
+     * @param ignore      Object that cannot block the ray, or {@code null}.
+     * @return {@code true} if the ray is blocked inside the interval.
+     */
+    @Override
+    public boolean occluded(Ray ray, double tMin, double maxDistance, Object3D ignore) {
+        if (nodeCount == 0) return false;
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = -ray.direction.x, dy = -ray.direction.y, dz = -ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        LinearBVH.TraversalStacks stacks = traversalStacks.get();
+        int level = stacks.enter();
+        try {
+            int[] stack = stacks.nodes[level];
+            double[] entries = stacks.entries[level];
+            int top = 0;
+            stack[top++] = 0;
+
+            while (top > 0) {
+                int code = stack[--top];
+
+                if (code < 0) {
+                    int slot = ~code;
+                    if (binary.occludedInLeaf(children[slot], counts[slot], ray, tMin, maxDistance, ignore)) {
+                        return true;
+                    }
+                    continue;
+                }
+
+                if (top + WIDTH > stack.length) {
+                    stack = stacks.growNodes(level);
+                    entries = stacks.growEntries(level);
+                }
+                top = intersectChildren(code, ox, oy, oz, dx, dy, dz, invX, invY, invZ, tMin, maxDistance,
+                        stack, entries, top);
+            }
+
+            return false;
+        } finally {
+            stacks.exit();
+        }
+    }
+
+    /**
+     * Tests the ray interval against the four children of a node and pushes the children it
+     * enters. Internal children are pushed as their node index, leaves as the complement of
+     * their child slot.
+     *
+     * @param node    The wide node index.
+     * @param ox      Ray origin x.
+     * @param oy      Ray origin y.
+     * @param oz      Ray origin z.
+     * @param dx      Propagation direction x.
+     * @param dy      Propagation direction y.
+     * @param dz      Propagation direction z.
+     * @param invX    Reciprocal of the propagation direction x.
+     * @param invY    Reciprocal of the propagation direction y.
+     * @param invZ    Reciprocal of the propagation direction z.
+     * @param tMin    Start of the ray interval.
+     * @param tMax    End of the ray interval.
+     * @param stack   The node stack to push onto.
+     * @param entries The entry distances matching the stack.
+     * @param top     The current size of the stack.
+     * @return The new size of the stack.
+     */
+    private int intersectChildren(int node, double ox, double oy, double oz,
+                                  double dx, double dy, double dz,
+                                  double invX, double invY, double invZ,
+                                  double tMin, double tMax,
+                                  int[] stack, double[] entries, int top) {
+        boolean parallelX = Math.abs(dx) < PARALLEL_EPSILON;
+        boolean parallelY = Math.abs(dy) < PARALLEL_EPSILON;
+        boolean parallelZ = Math.abs(dz) < PARALLEL_EPSILON;
+        int b = node * BOUNDS_STRIDE;
+        int s = node * WIDTH;
+
+        for (int lane = 0; lane < WIDTH; lane++) {
+            if (children[s + lane] == EMPTY) continue;
+            double near = tMin;
+            double far = tMax;
+
+            double minX = bounds[b + lane], maxX = bounds[b + 3 * WIDTH + lane];
+            if (parallelX) {
+                if (ox < minX || ox > maxX) continue;
+            } else {
+                double t1 = (minX - ox) * invX;
+                double t2 = (maxX - ox) * invX;
+                near = Math.max(near, Math.min(t1, t2));
+                far = Math.min(far, Math.max(t1, t2));
+            }
+
+            double minY = bounds[b + WIDTH + lane], maxY = bounds[b + 4 * WIDTH + lane];
+            if (parallelY) {
+                if (oy < minY || oy > maxY) continue;
+            } else {
+                double t1 = (minY - oy) * invY;
+                double t2 = (maxY - oy) * invY;
+                near = Math.max(near, Math.min(t1, t2));
+                far = Math.min(far, Math.max(t1, t2));
+            }
+
+            double minZ = bounds[b + 2 * WIDTH + lane], maxZ = bounds[b + 5 * WIDTH + lane];
+            if (parallelZ) {
+                if (oz < minZ || oz > maxZ) continue;
+            } else {
+                double t1 = (minZ - oz) * invZ;
+                double t2 = (maxZ - oz) * invZ;
+                near = Math.max(near, Math.min(t1, t2));
+                far = Math.min(far, Math.max(t1, t2));
+            }
+
+            if (near <= far) {
+                stack[top] = counts[s + lane] > 0 ? ~(s + lane) : children[s + lane];
+                entries[top] = near;
+                top++;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Gets the bounds of the whole hierarchy.
+     *
+     * @return The bounding box of the collapsed hierarchy, or {@code null} if it is empty.
+     */
+    @Override
+    public BoundingBox getBounds() {
+        return binary.getBounds();
+    }
+
+    /**
+     * Gets the number of wide nodes.
+     *
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Converts a lower bound to the largest float that does not exceed it, so boxes only grow.
+     *
+     * @param value The bound.
+     * @return The float bound.
+     */
+    private static float roundDown(double value) {
+        float rounded = (float) value;
+        return rounded > value ? Math.nextDown(rounded) : rounded;
+    }
+
+    /**
+     * Converts an upper bound to the smallest float that is not below it, so boxes only grow.
+     *
+     * @param value The bound.
+     * @return The float bound.
+     */
+    private static float roundUp(double value) {
+        float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+}
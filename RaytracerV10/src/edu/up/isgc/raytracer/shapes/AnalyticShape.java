@@ -0,0 +1,226 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Light;
+import edu.up.isgc.raytracer.lighting.Material;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * Base of the primitives intersected in closed form, like {@link Plane}, {@link Disk},
+ * {@link Box} and {@link Cylinder}. Subclasses only compute the distance of the closest hit
+ * inside an interval and the normal and texture coordinates of a point on their surface; the
+ * intersection itself is built once, for the hit that is kept, as for triangles.
+ */
+public abstract class AnalyticShape extends Object3D {
+    /** Directions closer to parallel than this to a surface are treated as missing it */
+    static final double PARALLEL_EPSILON = 1e-12;
+
+    /**
+     * Constructs a primitive with a complete material definition.
+     *
+     * @param material The material defining the surface properties
+     */
+    protected AnalyticShape(Material material) {
+        super(material);
+    }
+
+    /**
+     * Finds the distance of the closest hit inside {@code [tMin, tMax]} along a normalized direction.
+     *
+     * @param oX Origin x
+     * @param oY Origin y
+     * @param oZ Origin z
+     * @param dX Propagation direction x, the negated and normalized ray direction
+     * @param dY Propagation direction y
+     * @param dZ Propagation direction z
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if the ray misses the primitive inside the interval
+     */
+    abstract double distance(double oX, double oY, double oZ, double dX, double dY, double dZ, double tMin, double tMax);
+
+    /**
+     * Calculates the surface normal at a point of the primitive.
+     *
+     * @param point A point on the surface
+     * @return The normalized normal
+     */
+    public abstract Vector3D normal(Vector3D point);
+
+    /**
+     * Calculates the texture coordinates of a point of the primitive.
+     *
+     * @param point A point on the surface
+     * @return The u and v coordinates
+     */
+    public abstract double[] textureCoordinates(Vector3D point);
+
+    /**
+     * Runs {@link #distance} for a ray of any length.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if there is no hit inside the interval
+     */
+    private double distance(Ray ray, double tMin, double tMax) {
+        double length = ray.direction.value;
+        if (length == 0) return Double.NaN;
+        return this.distance(ray.origin.x, ray.origin.y, ray.origin.z,
+                -ray.direction.x / length, -ray.direction.y / length, -ray.direction.z / length, tMin, tMax);
+    }
+
+    /**
+     * Calculates the intersection between the ray and the primitive.
+     *
+     * @param ray The ray to test for intersection
+     * @return Array containing the first intersection in front of the origin, or an array of nulls if there is none
+     */
+    @Override
+    public Intersection[] intersect(Ray ray) {
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, Math.ulp(0.0), Double.POSITIVE_INFINITY, null, record)) return Intersection.nullIntersection();
+        return new Intersection[] {this.surfaceInteraction(ray, record)};
+    }
+
+    /**
+     * Finds the intersection between the ray and the primitive inside {@code [tMin, tMax]}.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @return The intersection inside the interval, or null if there is none
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, tMin, tMax, ignore, record)) return null;
+        return this.surfaceInteraction(ray, record);
+    }
+
+    /**
+     * Records the distance of a hit inside the interval that is closer than the hit already in the record.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @param record The closest hit so far; updated if this primitive is hit closer
+     * @return true if the record was updated
+     */
+    @Override
+    public boolean hit(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        if (this == ignore) return false;
+        double t = this.distance(ray, tMin, tMax);
+        if (Double.isNaN(t) || !record.isCloser(t)) return false;
+        record.set(this, t, 0, 0);
+        return true;
+    }
+
+    /**
+     * Checks whether the ray hits the primitive inside the given distance interval.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the primitive blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        return !Double.isNaN(this.distance(ray, tMin, tMax));
+    }
+
+    /**
+     * Builds the intersection of a recorded hit, with the analytic normal and the color of the
+     * material or of its texture.
+     *
+     * @param ray The ray that produced the hit
+     * @param record The hit of this primitive
+     * @return The intersection
+     */
+    @Override
+    public Intersection surfaceInteraction(Ray ray, HitRecord record) {
+        double t = record.distance;
+        double length = ray.direction.value;
+        Vector3D point = new Vector3D(ray.origin.x - ray.direction.x / length * t,
+                ray.origin.y - ray.direction.y / length * t,
+                ray.origin.z - ray.direction.z / length * t);
+
+        Color color = this.getColor();
+        BufferedImage textureMap = this.getMaterial().getTextureMap();
+        if (textureMap != null) {
+            double[] uv = this.textureCoordinates(point);
+            int texX = Math.clamp((long) (uv[0] * (textureMap.getWidth() - 1)), 0, textureMap.getWidth() - 1);
+            int texY = Math.clamp((long) ((1 - uv[1]) * (textureMap.getHeight() - 1)), 0, textureMap.getHeight() - 1);
+            color = new Color(textureMap.getRGB(texX, texY));
+        }
+        return new Intersection(point, t, color, this.normal(point), this);
+    }
+
+    /**
+     * Calculates lighting at an intersection point.
+     *
+     * @param intersection Contains position, normal and material data
+     * @return Color with lighting applied
+     */
+    @Override
+    public Color addLight(Intersection intersection) {
+        return Light.calculateColor(intersection.getNormal(), intersection.point, this, intersection);
+    }
+
+    /**
+     * Picks a unit vector perpendicular to the given normal, used as the u axis of the texture
+     * coordinates when none is given.
+     *
+     * @param normal A unit normal
+     * @return A unit tangent
+     */
+    static Vector3D tangent(Vector3D normal) {
+        Vector3D reference = Math.abs(normal.y) < 0.999 ? new Vector3D(0, 1, 0) : new Vector3D(1, 0, 0);
+        return Vector3D.crossProduct(reference, normal).normalize();
+    }
+
+    /**
+     * Removes the component along a normal from a vector and normalizes it.
+     *
+     * @param vector The vector
+     * @param normal A unit normal
+     * @return The unit vector perpendicular to the normal, or a picked tangent if the vector is parallel to it
+     */
+    static Vector3D perpendicular(Vector3D vector, Vector3D normal) {
+        Vector3D projected = Vector3D.subtract(vector, normal.scale(vector.dot(normal)));
+        return projected.value < PARALLEL_EPSILON ? tangent(normal) : projected.normalize();
+    }
+
+    /**
+     * Maps a direction in a plane to the [0, 1] angle coordinate used by disks and cylinders.
+     *
+     * @param x Component along the tangent
+     * @param y Component along the bitangent
+     * @return The angle as a fraction of a full turn
+     */
+    static double angle(double x, double y) {
+        return Math.atan2(y, x) / (2 * Math.PI) + 0.5;
+    }
+
+    /**
+     * Computes the half extent, along each world axis, of a disk of the given radius around an axis.
+     *
+     * @param axis The unit normal of the disk
+     * @param radius The radius
+     * @return The half extents along x, y and z
+     */
+    static double[] diskExtent(Vector3D axis, double radius) {
+        return new double[] {
+                radius * Math.sqrt(Math.max(0, 1 - axis.x * axis.x)),
+                radius * Math.sqrt(Math.max(0, 1 - axis.y * axis.y)),
+                radius * Math.sqrt(Math.max(0, 1 - axis.z * axis.z))
+        };
+    }
+}
@@ -0,0 +1,171 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Transform;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+
+/**
+ * A box, axis-aligned or oriented. The ray is expressed in the frame of the box and clipped
+ * against its three slabs, so both kinds cost the same. Every face maps the whole texture.
+ */
+public class Box extends AnalyticShape {
+    /** The center of the box */
+    public Vector3D center;
+    private final Vector3D[] axes;      ///< Unit edge directions of the box.
+    private final double[] halfSize;    ///< Half of the size of the box along each of its axes.
+
+    /**
+     * Constructs an axis-aligned box.
+     *
+     * @param min The corner with the smallest coordinates
+     * @param max The corner with the largest coordinates
+     * @param material The material defining the surface properties
+     */
+    public Box(Vector3D min, Vector3D max, Material material) {
+        this(new Vector3D((min.x + max.x) / 2, (min.y + max.y) / 2, (min.z + max.z) / 2),
+                new Vector3D(max.x - min.x, max.y - min.y, max.z - min.z), Vector3D.getZero(), material);
+    }
+
+    /**
+     * Constructs an oriented box.
+     *
+     * @param center The center of the box
+     * @param size The size of the box along its own axes
+     * @param rotate Rotation angles in degrees (x, y, z), applied as in {@link Transform#rotation(double, double, double)}
+     * @param material The material defining the surface properties
+     */
+    public Box(Vector3D center, Vector3D size, Vector3D rotate, Material material) {
+        super(material);
+        Transform rotation = Transform.rotation(rotate.x, rotate.y, rotate.z);
+        this.center = center;
+        this.axes = new Vector3D[] {
+                rotation.transformVector(new Vector3D(1, 0, 0)).normalize(),
+                rotation.transformVector(new Vector3D(0, 1, 0)).normalize(),
+                rotation.transformVector(new Vector3D(0, 0, 1)).normalize()
+        };
+        this.halfSize = new double[] {Math.abs(size.x) / 2, Math.abs(size.y) / 2, Math.abs(size.z) / 2};
+    }
+
+    /**
+     * Clips the ray against the three slabs of the box. A ray starting inside the box hits the
+     * face it leaves through.
+     *
+     * @param oX Origin x
+     * @param oY Origin y
+     * @param oZ Origin z
+     * @param dX Propagation direction x
+     * @param dY Propagation direction y
+     * @param dZ Propagation direction z
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if there is no hit inside the interval
+     */
+    @Override
+    double distance(double oX, double oY, double oZ, double dX, double dY, double dZ, double tMin, double tMax) {
+        double wX = oX - center.x, wY = oY - center.y, wZ = oZ - center.z;
+        double near = Double.NEGATIVE_INFINITY, far = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 3; i++) {
+            Vector3D axis = axes[i];
+            double origin = wX * axis.x + wY * axis.y + wZ * axis.z;
+            double direction = dX * axis.x + dY * axis.y + dZ * axis.z;
+            if (Math.abs(direction) < PARALLEL_EPSILON) {
+                if (Math.abs(origin) > halfSize[i]) return Double.NaN;
+                continue;
+            }
+            double t0 = (-halfSize[i] - origin) / direction;
+            double t1 = (halfSize[i] - origin) / direction;
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+            if (near > far) return Double.NaN;
+        }
+        if (near >= tMin && near <= tMax) return near;
+        if (far >= tMin && far <= tMax) return far;
+        return Double.NaN;
+    }
+
+    /**
+     * Calculates the outward normal of the face a point lies on.
+     *
+     * @param point A point on the surface
+     * @return The unit normal of the closest face
+     */
+    @Override
+    public Vector3D normal(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, center);
+        int face = this.face(local);
+        return axes[face].scale(Math.signum(local.dot(axes[face])));
+    }
+
+    /**
+     * Calculates the texture coordinates of a point on the face it lies on.
+     *
+     * @param point A point on the surface
+     * @return The u and v coordinates, spanning [0, 1] over each face
+     */
+    @Override
+    public double[] textureCoordinates(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, center);
+        int face = this.face(local);
+        int uAxis = face == 0 ? 2 : 0, vAxis = face == 1 ? 2 : 1;
+        return new double[] {
+                local.dot(axes[uAxis]) / (2 * halfSize[uAxis]) + 0.5,
+                local.dot(axes[vAxis]) / (2 * halfSize[vAxis]) + 0.5
+        };
+    }
+
+    /**
+     * Finds the face a point relative to the center lies on: the axis along which it is closest
+     * to the surface.
+     *
+     * @param local The point relative to the center
+     * @return The index of the axis of the face
+     */
+    private int face(Vector3D local) {
+        int face = 0;
+        double closest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 3; i++) {
+            double gap = halfSize[i] - Math.abs(local.dot(axes[i]));
+            if (gap < closest) {
+                closest = gap;
+                face = i;
+            }
+        }
+        return face;
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "box"
+     */
+    @Override
+    public String type() { return "box"; }
+
+    /**
+     * Returns a default zero-state box instance.
+     *
+     * @return An empty box at the origin
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Box(Vector3D.getZero(), Vector3D.getZero(), this.getMaterial());
+    }
+
+    /**
+     * Computes the tight axis-aligned bounding box of the box.
+     *
+     * @return Bounding box containing the box
+     */
+    @Override
+    public BoundingBox getBB() {
+        double[] extent = new double[3];
+        for (int i = 0; i < 3; i++) {
+            extent[0] += Math.abs(axes[i].x) * halfSize[i];
+            extent[1] += Math.abs(axes[i].y) * halfSize[i];
+            extent[2] += Math.abs(axes[i].z) * halfSize[i];
+        }
+        return new BoundingBox(new Vector3D(center.x - extent[0], center.y - extent[1], center.z - extent[2]),
+                new Vector3D(center.x + extent[0], center.y + extent[1], center.z + extent[2]));
+    }
+}
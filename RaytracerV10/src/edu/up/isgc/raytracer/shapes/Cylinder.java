@@ -0,0 +1,206 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+
+/**
+ * A cylinder of finite height, open or closed by two caps. The side maps the texture with u
+ * around the axis and v along it; the caps map it in polar coordinates like a {@link Disk}.
+ */
+public class Cylinder extends AnalyticShape {
+    /** The center of the bottom cap */
+    public Vector3D base;
+    /** The unit direction from the bottom cap to the top cap */
+    public Vector3D axis;
+    /** The radius of the cylinder */
+    public double radius;
+    /** The distance between the caps */
+    public double height;
+    /** True when the caps are part of the surface */
+    public boolean capped;
+    private final Vector3D tangent;
+    private final Vector3D bitangent;
+
+    /**
+     * Constructs a closed cylinder.
+     *
+     * @param base The center of the bottom cap
+     * @param axis The direction from the bottom cap to the top cap
+     * @param radius The radius of the cylinder
+     * @param height The distance between the caps
+     * @param material The material defining the surface properties
+     */
+    public Cylinder(Vector3D base, Vector3D axis, double radius, double height, Material material) {
+        this(base, axis, radius, height, true, material);
+    }
+
+    /**
+     * Constructs a cylinder.
+     *
+     * @param base The center of the bottom cap
+     * @param axis The direction from the bottom cap to the top cap
+     * @param radius The radius of the cylinder
+     * @param height The distance between the caps
+     * @param capped True to close the cylinder with its caps
+     * @param material The material defining the surface properties
+     */
+    public Cylinder(Vector3D base, Vector3D axis, double radius, double height, boolean capped, Material material) {
+        super(material);
+        this.base = base;
+        this.axis = axis.normalize();
+        this.radius = radius;
+        this.height = height;
+        this.capped = capped;
+        this.tangent = tangent(this.axis);
+        this.bitangent = Vector3D.crossProduct(this.axis, this.tangent);
+    }
+
+    /**
+     * Solves the quadratic of the infinite cylinder, keeps the roots between the caps and, for a
+     * closed cylinder, intersects the planes of the caps.
+     *
+     * @param oX Origin x
+     * @param oY Origin y
+     * @param oZ Origin z
+     * @param dX Propagation direction x
+     * @param dY Propagation direction y
+     * @param dZ Propagation direction z
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if there is no hit inside the interval
+     */
+    @Override
+    double distance(double oX, double oY, double oZ, double dX, double dY, double dZ, double tMin, double tMax) {
+        double wX = oX - base.x, wY = oY - base.y, wZ = oZ - base.z;
+        double wA = wX * axis.x + wY * axis.y + wZ * axis.z;
+        double dA = dX * axis.x + dY * axis.y + dZ * axis.z;
+
+        // Components perpendicular to the axis
+        double pX = dX - dA * axis.x, pY = dY - dA * axis.y, pZ = dZ - dA * axis.z;
+        double qX = wX - wA * axis.x, qY = wY - wA * axis.y, qZ = wZ - wA * axis.z;
+        double a = pX * pX + pY * pY + pZ * pZ;
+        double b = pX * qX + pY * qY + pZ * qZ;
+        double c = qX * qX + qY * qY + qZ * qZ - radius * radius;
+
+        double closest = Double.NaN;
+        if (a > PARALLEL_EPSILON) {
+            double discriminant = b * b - a * c;
+            if (discriminant >= 0) {
+                double root = Math.sqrt(discriminant);
+                double t0 = (-b - root) / a;
+                double t1 = (-b + root) / a;
+                if (this.onSide(t0, wA, dA, tMin, tMax)) {
+                    closest = t0;
+                } else if (this.onSide(t1, wA, dA, tMin, tMax)) {
+                    closest = t1;
+                }
+            }
+        }
+
+        if (capped && Math.abs(dA) >= PARALLEL_EPSILON) {
+            for (int cap = 0; cap < 2; cap++) {
+                double level = cap == 0 ? 0 : height;
+                double t = (level - wA) / dA;
+                if (!(t >= tMin && t <= tMax) || t >= closest) continue;
+                double rX = qX + pX * t, rY = qY + pY * t, rZ = qZ + pZ * t;
+                if (rX * rX + rY * rY + rZ * rZ <= radius * radius) closest = t;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Checks whether a root of the side lies inside the interval and between the caps.
+     *
+     * @param t The root
+     * @param wA Height of the origin along the axis
+     * @param dA Component of the direction along the axis
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return true if the root is a hit of the side
+     */
+    private boolean onSide(double t, double wA, double dA, double tMin, double tMax) {
+        if (!(t >= tMin && t <= tMax)) return false;
+        double level = wA + dA * t;
+        return level >= 0 && level <= height;
+    }
+
+    /**
+     * Calculates the outward normal at a point of the side or of a cap.
+     *
+     * @param point A point on the surface
+     * @return The unit normal
+     */
+    @Override
+    public Vector3D normal(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, base);
+        double level = local.dot(axis);
+        Vector3D radial = Vector3D.subtract(local, axis.scale(level));
+        if (this.onCap(level, radial.value)) {
+            return level < height / 2 ? axis.scale(-1) : axis;
+        }
+        return radial.normalize();
+    }
+
+    /**
+     * Calculates the texture coordinates of a point of the side or of a cap.
+     *
+     * @param point A point on the surface
+     * @return The u and v coordinates
+     */
+    @Override
+    public double[] textureCoordinates(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, base);
+        double level = local.dot(axis);
+        Vector3D radial = Vector3D.subtract(local, axis.scale(level));
+        double u = angle(radial.dot(tangent), radial.dot(bitangent));
+        if (this.onCap(level, radial.value)) {
+            return new double[] {u, radial.value / radius};
+        }
+        return new double[] {u, level / height};
+    }
+
+    /**
+     * Checks whether a point is closer to a cap than to the side.
+     *
+     * @param level Height of the point along the axis
+     * @param distance Distance of the point from the axis
+     * @return true if the point lies on a cap
+     */
+    private boolean onCap(double level, double distance) {
+        return capped && Math.min(level, height - level) < radius - distance;
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "cylinder"
+     */
+    @Override
+    public String type() { return "cylinder"; }
+
+    /**
+     * Returns a default zero-state cylinder instance.
+     *
+     * @return A cylinder at the origin with zero radius and height
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Cylinder(Vector3D.getZero(), new Vector3D(0, 1, 0), 0, 0, this.getMaterial());
+    }
+
+    /**
+     * Computes the tight axis-aligned bounding box of the cylinder, the box around its two cap circles.
+     *
+     * @return Bounding box containing the cylinder
+     */
+    @Override
+    public BoundingBox getBB() {
+        double[] extent = diskExtent(axis, radius);
+        Vector3D top = base.add(axis.scale(height));
+        return new BoundingBox(
+                new Vector3D(Math.min(base.x, top.x) - extent[0], Math.min(base.y, top.y) - extent[1], Math.min(base.z, top.z) - extent[2]),
+                new Vector3D(Math.max(base.x, top.x) + extent[0], Math.max(base.y, top.y) + extent[1], Math.max(base.z, top.z) + extent[2]));
+    }
+}
@@ -0,0 +1,115 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+
+/**
+ * A flat disk. Its texture coordinates are polar: u is the angle around the center and v the
+ * distance from it, as a fraction of the radius.
+ */
+public class Disk extends AnalyticShape {
+    /** The center of the disk */
+    public Vector3D center;
+    /** The unit normal, which is also the side lit by the lights */
+    public Vector3D normal;
+    /** The radius of the disk */
+    public double radius;
+    private final Vector3D tangent;
+    private final Vector3D bitangent;
+
+    /**
+     * Constructs a disk.
+     *
+     * @param center The center of the disk
+     * @param normal The normal of the disk
+     * @param radius The radius of the disk
+     * @param material The material defining the surface properties
+     */
+    public Disk(Vector3D center, Vector3D normal, double radius, Material material) {
+        super(material);
+        this.center = center;
+        this.normal = normal.normalize();
+        this.radius = radius;
+        this.tangent = tangent(this.normal);
+        this.bitangent = Vector3D.crossProduct(this.normal, this.tangent);
+    }
+
+    /**
+     * Intersects the plane of the disk and checks the distance of the hit from the center.
+     *
+     * @param oX Origin x
+     * @param oY Origin y
+     * @param oZ Origin z
+     * @param dX Propagation direction x
+     * @param dY Propagation direction y
+     * @param dZ Propagation direction z
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if there is no hit inside the interval
+     */
+    @Override
+    double distance(double oX, double oY, double oZ, double dX, double dY, double dZ, double tMin, double tMax) {
+        double denominator = normal.x * dX + normal.y * dY + normal.z * dZ;
+        if (Math.abs(denominator) < PARALLEL_EPSILON) return Double.NaN;
+        double wX = center.x - oX, wY = center.y - oY, wZ = center.z - oZ;
+        double t = (normal.x * wX + normal.y * wY + normal.z * wZ) / denominator;
+        if (!(t >= tMin && t <= tMax)) return Double.NaN;
+
+        double pX = dX * t - wX, pY = dY * t - wY, pZ = dZ * t - wZ;
+        return pX * pX + pY * pY + pZ * pZ <= radius * radius ? t : Double.NaN;
+    }
+
+    /**
+     * Returns the normal of the disk, the same at every point.
+     *
+     * @param point A point on the disk
+     * @return The unit normal
+     */
+    @Override
+    public Vector3D normal(Vector3D point) {
+        return normal;
+    }
+
+    /**
+     * Calculates the polar texture coordinates of a point.
+     *
+     * @param point A point on the disk
+     * @return The angle and the relative distance from the center
+     */
+    @Override
+    public double[] textureCoordinates(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, center);
+        return new double[] {angle(local.dot(tangent), local.dot(bitangent)), local.value / radius};
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "disk"
+     */
+    @Override
+    public String type() { return "disk"; }
+
+    /**
+     * Returns a default zero-state disk instance.
+     *
+     * @return A disk at the origin with zero radius
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Disk(Vector3D.getZero(), new Vector3D(0, 1, 0), 0, this.getMaterial());
+    }
+
+    /**
+     * Computes the tight axis-aligned bounding box of the disk.
+     *
+     * @return Bounding box containing the disk
+     */
+    @Override
+    public BoundingBox getBB() {
+        double[] extent = diskExtent(normal, radius);
+        return new BoundingBox(new Vector3D(center.x - extent[0], center.y - extent[1], center.z - extent[2]),
+                new Vector3D(center.x + extent[0], center.y + extent[1], center.z + extent[2]));
+    }
+}
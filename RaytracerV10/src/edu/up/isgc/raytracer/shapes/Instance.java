@@ -0,0 +1,227 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Transform;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Light;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+import edu.up.isgc.raytracer.shapes.models.Mesh;
+
+import java.awt.Color;
+
+/**
+ * Places a shared {@link Mesh} in the scene with its own transform and material.
+ * Instances are the leaves of the top-level hierarchy: rays that reach one are moved into
+ * the object space of the mesh and traced against its bottom-level hierarchy, so repeated
+ * models only cost memory for their unique geometry.
+ */
+public class Instance extends Object3D {
+    private final Mesh mesh;
+    private Transform objectToWorld;
+    private Transform worldToObject;
+
+    /**
+     * Constructs an instance of a mesh with a material that overrides the material of the mesh.
+     *
+     * @param mesh The shared geometry
+     * @param objectToWorld The transform from the object space of the mesh to the world
+     * @param material The material of this instance
+     */
+    public Instance(Mesh mesh, Transform objectToWorld, Material material) {
+        super(material);
+        this.mesh = mesh;
+        this.setTransform(objectToWorld);
+    }
+
+    /**
+     * Finds the closest intersection with the mesh inside {@code [tMin, tMax]}.
+     * The ray is moved into object space, where distances are scaled by the length of the
+     * transformed direction, and the hit is moved back into world space.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @return The closest intersection inside the interval, or null if there is none
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (this == ignore) return null;
+
+        Vector3D localDirection = worldToObject.transformVector(ray.direction);
+        double scale = localDirection.value;
+        if (scale == 0) return null;
+        Ray localRay = new Ray(worldToObject.transformPoint(ray.origin), localDirection);
+
+        Intersection local = mesh.getBVH().closestHit(localRay, tMin * scale, tMax * scale, ignoredPrimitive(ignore));
+        if (local == null) return null;
+
+        double distance = local.distance / scale;
+        Vector3D point = ray.origin.add(ray.direction.scale(-distance));
+        Vector3D normal = objectToWorld.transformNormal(local.getNormal());
+
+        Color color = local.color;
+        boolean textured = local.object instanceof Triangle triangle && triangle.getHasTextures();
+        if (!textured && this.getHasMaterial()) {
+            color = this.getMaterial().getColor();
+        }
+
+        return new Intersection(point, distance, color, normal, new InstanceHit(this, local.object));
+    }
+
+    /**
+     * Calculates the closest intersection between the ray and the mesh.
+     *
+     * @param ray The ray to test for intersection
+     * @return Array containing the intersection, or an array of nulls if there is none
+     */
+    @Override
+    public Intersection[] intersect(Ray ray) {
+        Intersection hit = this.closestHit(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null);
+        return hit != null ? new Intersection[]{hit} : Intersection.nullIntersection();
+    }
+
+    /**
+     * Checks whether the ray hits the mesh inside the given distance interval.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the mesh blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        return this.occludes(ray, tMin, tMax, null);
+    }
+
+    /**
+     * Checks whether the ray hits the mesh inside the given distance interval,
+     * skipping the primitive of this instance that the shadow ray starts from.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @param ignore Object that cannot block the ray, or null
+     * @return true if the mesh blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (this == ignore) return false;
+
+        Vector3D localDirection = worldToObject.transformVector(ray.direction);
+        double scale = localDirection.value;
+        if (scale == 0) return false;
+        Ray localRay = new Ray(worldToObject.transformPoint(ray.origin), localDirection);
+
+        return mesh.getBVH().occluded(localRay, tMin * scale, tMax * scale, ignoredPrimitive(ignore));
+    }
+
+    /**
+     * Finds the primitive of the mesh that must be skipped for a given ignored object.
+     *
+     * @param ignore The object ignored by the caller
+     * @return The primitive to skip inside the mesh, or null if the object belongs to another instance
+     */
+    private Object3D ignoredPrimitive(Object3D ignore) {
+        if (ignore instanceof InstanceHit hit && hit.getInstance() == this) {
+            return hit.getPrimitive();
+        }
+        return null;
+    }
+
+    /**
+     * Computes the world-space box enclosing the eight transformed corners of an object-space box.
+     *
+     * @param box The object-space box
+     * @param transform The transform to apply
+     * @return The world-space bounding box
+     */
+    private static BoundingBox transformBounds(BoundingBox box, Transform transform) {
+        if (box == null) return null;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            Vector3D p = transform.transformPoint(new Vector3D(
+                    (corner & 1) == 0 ? box.getMin().x : box.getMax().x,
+                    (corner & 2) == 0 ? box.getMin().y : box.getMax().y,
+                    (corner & 4) == 0 ? box.getMin().z : box.getMax().z));
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            minZ = Math.min(minZ, p.z);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+            maxZ = Math.max(maxZ, p.z);
+        }
+        return new BoundingBox(new Vector3D(minX, minY, minZ), new Vector3D(maxX, maxY, maxZ));
+    }
+
+    /**
+     * Calculates lighting at an intersection point.
+     *
+     * @param intersection Contains position, normal and material data
+     * @return Color with lighting applied
+     */
+    @Override
+    public Color addLight(Intersection intersection) {
+        return Light.calculateColor(intersection.getNormal(), intersection.point, this, intersection);
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "instance"
+     */
+    @Override
+    public String type() { return "instance"; }
+
+    /**
+     * Returns a zero-state instance of the mesh placed at the origin.
+     *
+     * @return Instance with an identity transform
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Instance(mesh, Transform.identity(), this.getMaterial());
+    }
+
+    /**
+     * Gets the world-space bounding box of the instance from the current bounds of the mesh.
+     *
+     * @return The bounds of the transformed mesh
+     */
+    @Override
+    public BoundingBox getBB() {
+        return transformBounds(mesh.getBounds(), objectToWorld);
+    }
+
+    /**
+     * Gets the shared geometry of this instance.
+     *
+     * @return The mesh
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Gets the transform from object space to world space.
+     *
+     * @return The object-to-world transform
+     */
+    public Transform getTransform() {
+        return objectToWorld;
+    }
+
+    /**
+     * Moves the instance. Rigid animations only need to update transforms and refit
+     * the scene, see {@link edu.up.isgc.raytracer.world.Scene#refit()}.
+     *
+     * @param objectToWorld The new transform from object space to world space
+     */
+    public final void setTransform(Transform objectToWorld) {
+        this.objectToWorld = objectToWorld;
+        this.worldToObject = objectToWorld.inverse();
+    }
+}
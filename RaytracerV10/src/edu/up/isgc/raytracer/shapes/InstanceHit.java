@@ -0,0 +1,104 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.lighting.Light;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+
+import java.awt.Color;
+
+/**
+ * Identifies the primitive of a mesh that a ray hit through a specific {@link Instance}.
+ * It is stored as the object of the intersection so that shading uses the material of the
+ * instance, while shadow and secondary rays started from the hit only skip that primitive
+ * instead of the whole instance.
+ */
+public class InstanceHit extends Object3D {
+    private final Instance instance;
+    private final Object3D primitive;
+
+    /**
+     * Constructs the hit record of a primitive seen through an instance.
+     *
+     * @param instance The instance the ray hit
+     * @param primitive The object-space primitive of the mesh that was hit
+     */
+    public InstanceHit(Instance instance, Object3D primitive) {
+        super(instance.getMaterial());
+        this.instance = instance;
+        this.primitive = primitive;
+    }
+
+    /**
+     * Calculates intersections between the ray and the whole instance.
+     *
+     * @param ray The ray to test for intersection
+     * @return Array of Intersection objects
+     */
+    @Override
+    public Intersection[] intersect(Ray ray) {
+        return instance.intersect(ray);
+    }
+
+    /**
+     * Checks whether the ray hits the whole instance inside the given distance interval.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the instance blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        return instance.occludes(ray, tMin, tMax);
+    }
+
+    /**
+     * Calculates lighting at an intersection point using the material of the instance.
+     *
+     * @param intersection Contains the world-space position and normal
+     * @return Color with lighting applied
+     */
+    @Override
+    public Color addLight(Intersection intersection) {
+        return Light.calculateColor(intersection.getNormal(), intersection.point, this, intersection);
+    }
+
+    /**
+     * Returns the type identifier of the primitive that was hit.
+     *
+     * @return The primitive type
+     */
+    @Override
+    public String type() { return primitive.type(); }
+
+    /**
+     * Returns a default zero-state instance of the primitive.
+     *
+     * @return The zero-state primitive
+     */
+    @Override
+    public Object3D returnZero() { return primitive.returnZero(); }
+
+    /**
+     * Gets the world-space bounding box of the instance.
+     *
+     * @return The bounds of the instance
+     */
+    @Override
+    public BoundingBox getBB() { return instance.getBB(); }
+
+    /**
+     * Gets the instance the ray hit.
+     *
+     * @return The instance
+     */
+    public Instance getInstance() { return instance; }
+
+    /**
+     * Gets the object-space primitive that was hit.
+     *
+     * @return The primitive
+     */
+    public Object3D getPrimitive() { return primitive; }
+}
@@ -0,0 +1,308 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.HitRecord;
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Light;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+import edu.up.isgc.raytracer.shapes.models.TriangleMesh;
+import edu.up.isgc.raytracer.world.Camera;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * One triangle of a {@link TriangleMesh}, referenced by its index. It stores no geometry of its
+ * own: the intersection tests read the shared vertex buffers of the mesh, and normals and texture
+ * coordinates are interpolated from them only for the hit that is kept.
+ */
+public class MeshTriangle extends Object3D {
+    private final TriangleMesh mesh;
+    private final int index;
+
+    /**
+     * Constructs the primitive of a triangle of a mesh.
+     *
+     * @param mesh The mesh holding the vertices
+     * @param index The index of the triangle in the mesh
+     * @param material The material of the triangle
+     */
+    public MeshTriangle(TriangleMesh mesh, int index, Material material) {
+        super(material);
+        this.mesh = mesh;
+        this.index = index;
+    }
+
+    /**
+     * Calculates the intersection between the ray and the triangle.
+     *
+     * @param ray The ray to test for intersection
+     * @return Array containing the intersection, or an array of nulls if there is none
+     */
+    @Override
+    public Intersection[] intersect(Ray ray) {
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null, record)) return Intersection.nullIntersection();
+        return new Intersection[] {this.surfaceInteraction(ray, record)};
+    }
+
+    /**
+     * Finds the intersection between the ray and the triangle inside {@code [tMin, tMax]}.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @return The intersection inside the interval, or null if there is none
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, tMin, tMax, ignore, record)) return null;
+        return this.surfaceInteraction(ray, record);
+    }
+
+    /**
+     * Records the distance and barycentric coordinates of a hit inside the interval that is
+     * closer than the hit already in the record.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @param record The closest hit so far; updated if this triangle is hit closer
+     * @return true if the record was updated
+     */
+    @Override
+    public boolean hit(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        if (this == ignore) return false;
+        return !Double.isNaN(this.distance(ray, tMin, tMax, record));
+    }
+
+    /**
+     * Checks whether the ray hits the triangle inside the given distance interval.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the triangle blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        return !Double.isNaN(this.distance(ray, tMin, tMax, null));
+    }
+
+    /**
+     * Runs the Möller-Trumbore test of {@link Triangle} on the vertex buffers of the mesh.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param record Receives the hit if it is closer than the recorded one, or null
+     * @return The hit distance, or NaN if the ray misses the triangle inside the interval or the
+     *         hit is not closer than the recorded one
+     */
+    private double distance(Ray ray, double tMin, double tMax, HitRecord record) {
+        double length = ray.direction.value;
+        if (length == 0) return Double.NaN;
+        double dX = -ray.direction.x / length;
+        double dY = -ray.direction.y / length;
+        double dZ = -ray.direction.z / length;
+
+        double aX = mesh.getPosition(index, 0, 0), aY = mesh.getPosition(index, 0, 1), aZ = mesh.getPosition(index, 0, 2);
+        double e1X = mesh.getPosition(index, 1, 0) - aX, e1Y = mesh.getPosition(index, 1, 1) - aY, e1Z = mesh.getPosition(index, 1, 2) - aZ;
+        double e2X = mesh.getPosition(index, 2, 0) - aX, e2Y = mesh.getPosition(index, 2, 1) - aY, e2Z = mesh.getPosition(index, 2, 2) - aZ;
+
+        double pX = dY * e1Z - dZ * e1Y;
+        double pY = dZ * e1X - dX * e1Z;
+        double pZ = dX * e1Y - dY * e1X;
+        double invDet = 1.0 / (e2X * pX + e2Y * pY + e2Z * pZ);
+
+        double tX = ray.origin.x - aX, tY = ray.origin.y - aY, tZ = ray.origin.z - aZ;
+        double u = invDet * (tX * pX + tY * pY + tZ * pZ);
+        if (u < 0 || u > 1) return Double.NaN;
+
+        double qX = tY * e2Z - tZ * e2Y;
+        double qY = tZ * e2X - tX * e2Z;
+        double qZ = tX * e2Y - tY * e2X;
+        double v = invDet * (dX * qX + dY * qY + dZ * qZ);
+        if (v < 0 || (u + v) > (1.0 + Camera.getEpsilon())) return Double.NaN;
+
+        double t = invDet * (qX * e1X + qY * e1Y + qZ * e1Z);
+        if (!(t >= tMin && t <= tMax)) return Double.NaN;
+        if (record != null) {
+            if (!record.isCloser(t)) return Double.NaN;
+            record.set(this, t, u, v);
+        }
+        return t;
+    }
+
+    /**
+     * Builds the intersection of a recorded hit, with the interpolated normal and the color of
+     * the material or of its texture.
+     *
+     * @param ray The ray that produced the hit
+     * @param record The hit of this triangle
+     * @return The intersection
+     */
+    @Override
+    public Intersection surfaceInteraction(Ray ray, HitRecord record) {
+        double t = record.distance, b = record.v, c = record.u, a = 1 - b - c;
+        double length = ray.direction.value;
+        Vector3D point = new Vector3D(ray.origin.x - ray.direction.x / length * t,
+                ray.origin.y - ray.direction.y / length * t,
+                ray.origin.z - ray.direction.z / length * t);
+
+        Vector3D normal;
+        if (mesh.hasNormals()) {
+            normal = new Vector3D(interpolateNormal(0, a, b, c), interpolateNormal(1, a, b, c), interpolateNormal(2, a, b, c)).normalize();
+        } else {
+            normal = this.faceNormal();
+        }
+
+        Color color = this.getColor();
+        BufferedImage textureMap = this.getMaterial().getTextureMap();
+        if (textureMap != null && mesh.hasUVs()) {
+            double u = a * mesh.getUV(index, 0, 0) + b * mesh.getUV(index, 1, 0) + c * mesh.getUV(index, 2, 0);
+            double v = a * mesh.getUV(index, 0, 1) + b * mesh.getUV(index, 1, 1) + c * mesh.getUV(index, 2, 1);
+            int texX = Math.clamp((long) (u * (textureMap.getWidth() - 1)), 0, textureMap.getWidth() - 1);
+            int texY = Math.clamp((long) ((1 - v) * (textureMap.getHeight() - 1)), 0, textureMap.getHeight() - 1);
+            color = new Color(textureMap.getRGB(texX, texY));
+        }
+        return new Intersection(point, t, color, normal, this);
+    }
+
+    /**
+     * Interpolates one component of the vertex normals.
+     *
+     * @param axis The component
+     * @param a Weight of the corner A
+     * @param b Weight of the corner B
+     * @param c Weight of the corner C
+     * @return The interpolated component
+     */
+    private double interpolateNormal(int axis, double a, double b, double c) {
+        return a * mesh.getNormal(index, 0, axis) + b * mesh.getNormal(index, 1, axis) + c * mesh.getNormal(index, 2, axis);
+    }
+
+    /**
+     * Computes the face normal with the orientation of {@link Triangle#normal()}.
+     *
+     * @return The normalized face normal
+     */
+    private Vector3D faceNormal() {
+        Vector3D a = this.getA();
+        return Vector3D.crossProduct(Vector3D.subtract(this.getC(), a), Vector3D.subtract(this.getB(), a)).normalize();
+    }
+
+    /**
+     * Copies the corners of the triangle.
+     *
+     * @param out Receives x, y and z of the corners A, B and C
+     * @param offset Position of the first value in {@code out}
+     * @return true
+     */
+    @Override
+    public boolean getTriangleVertices(double[] out, int offset) {
+        for (int corner = 0; corner < 3; corner++) {
+            for (int axis = 0; axis < 3; axis++) {
+                out[offset + corner * 3 + axis] = mesh.getPosition(index, corner, axis);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates lighting at an intersection point.
+     *
+     * @param intersection Contains position, normal and material data
+     * @return Color with lighting applied
+     */
+    @Override
+    public Color addLight(Intersection intersection) {
+        return Light.calculateColor(intersection.getNormal(), intersection.point, this, intersection);
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "triangle"
+     */
+    @Override
+    public String type() { return "triangle"; }
+
+    /**
+     * Returns a default zero-state triangle instance.
+     *
+     * @return Triangle at origin with zero area
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Triangle(Vector3D.getZero(), Vector3D.getZero(), Vector3D.getZero(), null, 0, 0);
+    }
+
+    /**
+     * Computes an axis-aligned bounding box for this triangle.
+     *
+     * @return Bounding box containing the triangle
+     */
+    @Override
+    public BoundingBox getBB() {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int corner = 0; corner < 3; corner++) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], mesh.getPosition(index, corner, axis));
+                max[axis] = Math.max(max[axis], mesh.getPosition(index, corner, axis));
+            }
+        }
+        return new BoundingBox(new Vector3D(min[0], min[1], min[2]), new Vector3D(max[0], max[1], max[2]));
+    }
+
+    /**
+     * Gets the first corner of the triangle.
+     *
+     * @return A new vector with the corner A
+     */
+    public Vector3D getA() { return this.corner(0); }
+
+    /**
+     * Gets the second corner of the triangle.
+     *
+     * @return A new vector with the corner B
+     */
+    public Vector3D getB() { return this.corner(1); }
+
+    /**
+     * Gets the third corner of the triangle.
+     *
+     * @return A new vector with the corner C
+     */
+    public Vector3D getC() { return this.corner(2); }
+
+    /**
+     * Reads a corner of the triangle from the mesh.
+     *
+     * @param corner 0, 1 or 2
+     * @return A new vector with the corner
+     */
+    private Vector3D corner(int corner) {
+        return new Vector3D(mesh.getPosition(index, corner, 0), mesh.getPosition(index, corner, 1), mesh.getPosition(index, corner, 2));
+    }
+
+    /**
+     * Gets the mesh the triangle belongs to.
+     *
+     * @return The mesh
+     */
+    public TriangleMesh getMesh() { return mesh; }
+
+    /**
+     * Gets the index of the triangle in its mesh.
+     *
+     * @return The triangle index
+     */
+    public int getIndex() { return index; }
+}
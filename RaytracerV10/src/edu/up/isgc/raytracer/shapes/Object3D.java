@@ -2,6 +2,7 @@ package edu.up.isgc.raytracer.shapes;
 
 import edu.up.isgc.raytracer.lighting.Material;
 import edu.up.isgc.raytracer.optimization.BoundingBox;
+import edu.up.isgc.raytracer.HitRecord;
 import edu.up.isgc.raytracer.Intersection;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.Ray;
@@ -61,6 +62,105 @@ public abstract class Object3D {
      */
     public abstract Intersection[] intersect(Ray ray);
 
+    /**
+     * Checks whether the ray hits this object at a distance inside {@code [tMin, tMax]}.
+     * Used for shadow rays, where only the existence of a blocker matters. The default
+     * implementation relies on {@link #intersect(Ray)}; subclasses override it with a
+     * test that skips colors, normals and texture lookups.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the object blocks the ray inside the interval
+     */
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        Intersection[] intersections = this.intersect(ray);
+        if (intersections == null) return false;
+        for (Intersection intersection : intersections) {
+            if (intersection != null && intersection.distance >= tMin && intersection.distance <= tMax) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the ray hits this object inside {@code [tMin, tMax]}, unless the object is ignored.
+     * Objects that contain other objects, like {@link Instance}, override it to pass the ignored object on.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @param ignore Object that cannot block the ray, or null
+     * @return true if the object blocks the ray inside the interval
+     */
+    public boolean occludes(Ray ray, double tMin, double tMax, Object3D ignore) {
+        return this != ignore && this.occludes(ray, tMin, tMax);
+    }
+
+    /**
+     * Finds the closest intersection between the ray and this object inside {@code [tMin, tMax]}.
+     * The returned intersection references this object.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @return The closest intersection inside the interval, or null if there is none
+     */
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        if (this == ignore) return null;
+        Intersection[] intersections = this.intersect(ray);
+        if (intersections == null) return null;
+
+        Intersection closest = null;
+        for (Intersection intersection : intersections) {
+            if (intersection == null) continue;
+            double distance = intersection.distance;
+            if (distance >= tMin && distance <= tMax && (closest == null || distance < closest.distance)) {
+                closest = intersection;
+            }
+        }
+        if (closest != null) {
+            closest.object = this;
+        }
+        return closest;
+    }
+
+    /**
+     * Tests the ray against this object and records the hit if it lies inside {@code [tMin, tMax]}
+     * and is closer than the hit already in the record. The acceleration structures call it for
+     * every candidate and {@link HitRecord#resolve(Ray)} once for the winner. The default
+     * implementation builds the complete intersection with
+     * {@link #closestHit(Ray, double, double, Object3D)}; primitives override it to only record
+     * the distance and the coordinates needed by {@link #surfaceInteraction(Ray, HitRecord)}.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @param record The closest hit so far; updated if this object is hit closer
+     * @return true if the record was updated
+     */
+    public boolean hit(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        Intersection intersection = this.closestHit(ray, tMin, tMax, ignore);
+        if (intersection == null || !record.isCloser(intersection.distance)) return false;
+        record.set(this, intersection);
+        return true;
+    }
+
+    /**
+     * Builds the intersection of a hit recorded by {@link #hit(Ray, double, double, Object3D, HitRecord)}:
+     * point, normal, color and texture lookup.
+     *
+     * @param ray The ray that produced the hit
+     * @param record The hit of this object
+     * @return The intersection, referencing the object that was hit
+     */
+    public Intersection surfaceInteraction(Ray ray, HitRecord record) {
+        return record.intersection;
+    }
+
     /**
      * Returns the type identifier of the object.
      * Must be implemented by concrete subclasses.
@@ -114,6 +214,18 @@ public abstract class Object3D {
      */
     public abstract BoundingBox getBB();
 
+    /**
+     * Copies the corners of the object if it is a single triangle. The acceleration structures
+     * use it to give triangles their specialised tests without knowing how they are stored.
+     *
+     * @param out Receives x, y and z of the corners A, B and C
+     * @param offset Position of the first value in {@code out}
+     * @return true if the object is a triangle and {@code out} was filled, false otherwise
+     */
+    public boolean getTriangleVertices(double[] out, int offset) {
+        return false;
+    }
+
     /**
      * Gets the material assigned to this object.
      *
@@ -0,0 +1,155 @@
+package edu.up.isgc.raytracer.shapes;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+
+/**
+ * A plane, either infinite or bounded to a rectangle. Infinite planes have no bounding box, so
+ * the scene tests them next to its acceleration structure instead of inside it, and their
+ * texture repeats every world unit. A rectangle maps its texture once over its surface.
+ */
+public class Plane extends AnalyticShape {
+    /** A point of the plane; the center of the rectangle when bounded */
+    public Vector3D center;
+    /** The unit normal, which is also the side lit by the lights */
+    public Vector3D normal;
+    /** Unit u axis of the texture, along the width of the rectangle */
+    public Vector3D tangent;
+    /** Unit v axis of the texture, along the height of the rectangle */
+    public Vector3D bitangent;
+    /** Size of the rectangle along the tangent, infinite for an unbounded plane */
+    public double width;
+    /** Size of the rectangle along the bitangent, infinite for an unbounded plane */
+    public double height;
+
+    /**
+     * Constructs an infinite plane.
+     *
+     * @param point Any point of the plane
+     * @param normal The normal of the plane
+     * @param material The material defining the surface properties
+     */
+    public Plane(Vector3D point, Vector3D normal, Material material) {
+        this(point, normal, tangent(normal.normalize()), Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, material);
+    }
+
+    /**
+     * Constructs a rectangle.
+     *
+     * @param center The center of the rectangle
+     * @param normal The normal of the rectangle
+     * @param tangent Direction of the width; projected onto the plane
+     * @param width Size along the tangent
+     * @param height Size along the bitangent, the cross product of the normal and the tangent
+     * @param material The material defining the surface properties
+     */
+    public Plane(Vector3D center, Vector3D normal, Vector3D tangent, double width, double height, Material material) {
+        super(material);
+        this.center = center;
+        this.normal = normal.normalize();
+        this.tangent = perpendicular(tangent, this.normal);
+        this.bitangent = Vector3D.crossProduct(this.normal, this.tangent);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Checks whether the plane is bounded to a rectangle.
+     *
+     * @return true if both sizes are finite
+     */
+    public boolean isBounded() {
+        return Double.isFinite(width) && Double.isFinite(height);
+    }
+
+    /**
+     * Intersects the plane and, for a rectangle, checks the hit against its sides.
+     *
+     * @param oX Origin x
+     * @param oY Origin y
+     * @param oZ Origin z
+     * @param dX Propagation direction x
+     * @param dY Propagation direction y
+     * @param dZ Propagation direction z
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @return The hit distance, or NaN if there is no hit inside the interval
+     */
+    @Override
+    double distance(double oX, double oY, double oZ, double dX, double dY, double dZ, double tMin, double tMax) {
+        double denominator = normal.x * dX + normal.y * dY + normal.z * dZ;
+        if (Math.abs(denominator) < PARALLEL_EPSILON) return Double.NaN;
+        double wX = center.x - oX, wY = center.y - oY, wZ = center.z - oZ;
+        double t = (normal.x * wX + normal.y * wY + normal.z * wZ) / denominator;
+        if (!(t >= tMin && t <= tMax)) return Double.NaN;
+
+        if (isBounded()) {
+            double pX = dX * t - wX, pY = dY * t - wY, pZ = dZ * t - wZ;
+            if (Math.abs(pX * tangent.x + pY * tangent.y + pZ * tangent.z) > width / 2) return Double.NaN;
+            if (Math.abs(pX * bitangent.x + pY * bitangent.y + pZ * bitangent.z) > height / 2) return Double.NaN;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the normal of the plane, the same at every point.
+     *
+     * @param point A point on the plane
+     * @return The unit normal
+     */
+    @Override
+    public Vector3D normal(Vector3D point) {
+        return normal;
+    }
+
+    /**
+     * Calculates the texture coordinates of a point, spanning [0, 1] over a rectangle and
+     * repeating every world unit on an infinite plane.
+     *
+     * @param point A point on the plane
+     * @return The u and v coordinates
+     */
+    @Override
+    public double[] textureCoordinates(Vector3D point) {
+        Vector3D local = Vector3D.subtract(point, center);
+        double u = local.dot(tangent), v = local.dot(bitangent);
+        if (isBounded()) {
+            return new double[] {u / width + 0.5, v / height + 0.5};
+        }
+        return new double[] {u - Math.floor(u), v - Math.floor(v)};
+    }
+
+    /**
+     * Returns the type identifier of this object.
+     *
+     * @return "plane"
+     */
+    @Override
+    public String type() { return "plane"; }
+
+    /**
+     * Returns a default zero-state plane instance.
+     *
+     * @return An empty rectangle at the origin
+     */
+    @Override
+    public Object3D returnZero() {
+        return new Plane(Vector3D.getZero(), new Vector3D(0, 1, 0), new Vector3D(1, 0, 0), 0, 0, this.getMaterial());
+    }
+
+    /**
+     * Computes the axis-aligned bounding box of the rectangle.
+     *
+     * @return The bounding box, or null for an infinite plane
+     */
+    @Override
+    public BoundingBox getBB() {
+        if (!isBounded()) return null;
+        double eX = Math.abs(tangent.x) * width / 2 + Math.abs(bitangent.x) * height / 2;
+        double eY = Math.abs(tangent.y) * width / 2 + Math.abs(bitangent.y) * height / 2;
+        double eZ = Math.abs(tangent.z) * width / 2 + Math.abs(bitangent.z) * height / 2;
+        return new BoundingBox(new Vector3D(center.x - eX, center.y - eY, center.z - eZ),
+                new Vector3D(center.x + eX, center.y + eY, center.z + eZ));
+    }
+}
@@ -100,6 +100,39 @@ public class Sphere extends Object3D {
         };
     }
 
+    /**
+     * Checks whether the ray hits the sphere inside the given distance interval
+     * without building intersection points, normals or colors.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if either intersection lies inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        double length = ray.direction.value;
+        if (length == 0) return false;
+        double dX = -ray.direction.x / length;
+        double dY = -ray.direction.y / length;
+        double dZ = -ray.direction.z / length;
+
+        double lX = center.x - ray.origin.x;
+        double lY = center.y - ray.origin.y;
+        double lZ = center.z - ray.origin.z;
+        double tCA = lX * dX + lY * dY + lZ * dZ;
+        if (tCA < 0) return false;  // Sphere is behind ray origin
+
+        double dSquared = (lX * lX + lY * lY + lZ * lZ) - (tCA * tCA);
+        if (dSquared < 0) return false;  // No intersection
+
+        double tHC = Math.sqrt((radius * radius) - dSquared);
+        double t0 = tCA - tHC;
+        double t1 = tCA + tHC;
+
+        return (t0 > 0 && t0 >= tMin && t0 <= tMax) || (t1 > 0 && t1 >= tMin && t1 <= tMax);
+    }
+
     /**
      * Calculates the surface normal at a given point on the sphere.
      *
@@ -3,14 +3,15 @@ package edu.up.isgc.raytracer.shapes;
 import edu.up.isgc.raytracer.lighting.Material;
 import edu.up.isgc.raytracer.optimization.BoundingBox;
 import edu.up.isgc.raytracer.lighting.Light;
-import edu.up.isgc.raytracer.shapes.models.Texture;
 import edu.up.isgc.raytracer.world.Camera;
+import edu.up.isgc.raytracer.HitRecord;
 import edu.up.isgc.raytracer.Intersection;
 import edu.up.isgc.raytracer.Ray;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.shapes.models.Polygon;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
 import static java.lang.Math.clamp;
 
@@ -22,6 +23,8 @@ import static java.lang.Math.clamp;
  */
 public class Triangle extends Object3D {
     private Vector3D A, B, C;
+    private double e1X, e1Y, e1Z;  ///< Edge from A to B, kept by {@link #updateEdges()}.
+    private double e2X, e2Y, e2Z;  ///< Edge from A to C, kept by {@link #updateEdges()}.
     private Vector3D nA, nB, nC;
     private Vector3D tA = Vector3D.getZero(), tB = Vector3D.getZero(), tC = Vector3D.getZero();
     private double u, v, w;
@@ -181,53 +184,159 @@ public class Triangle extends Object3D {
      */
     @Override
     public Intersection[] intersect(Ray ray) {
-        Intersection intersection = new Intersection(null, -1, null);
-        Vector3D D = ray.direction.normalize().scale(-1);
-        Vector3D[] vert = new Vector3D[]{this.getA(), this.getB(), this.getC()};
-        Vector3D v2v0 = Vector3D.subtract(vert[2], vert[0]);
-        Vector3D v1v0 = Vector3D.subtract(vert[1], vert[0]);
-        Vector3D vectorP = Vector3D.crossProduct(D, v1v0);
-        double det = v2v0.dot(vectorP);
-        double invDet = 1.0 / det;
-        Vector3D vectorT = Vector3D.subtract(ray.origin, vert[0]);
-        double u = invDet * vectorT.dot(vectorP);
-
-        if (!(u < 0 || u > 1)) {
-            Vector3D vectorQ = Vector3D.crossProduct(vectorT, v2v0);
-            double v = invDet * D.dot(vectorQ);
-            if (!(v < 0 || (u + v) > (1.0 + Camera.getEpsilon()))) {
-                double w = 1-u-v;
-                double t = invDet * vectorQ.dot(v1v0);
-                intersection.point = ray.origin.add(D.scale(t));
-                intersection.distance = t;
-                if(this.getHasTextures()) {
-                    Vector3D uvTexture= Texture.ericson(intersection.point, this.getA(), this.getB(), this.getC(), this.getTA(), this.getTB(), this.getTC());
-                    if(this.getHasNormals()) {
-                            //System.out.println("%%%%%%%%%%%%%%%%");
-                            int texX = (int) (uvTexture.x * (super.getMaterial().getTextureMap().getWidth() - 1));
-                            int texY = (int) ((1 - uvTexture.y) * (super.getMaterial().getTextureMap().getHeight() - 1)); // flip v if needed
-
-                            texX = Math.max(0, Math.min(texX, super.getMaterial().getTextureMap().getWidth() - 1));
-                            texY = Math.max(0, Math.min(texY, super.getMaterial().getTextureMap().getHeight() - 1));
-
-                            intersection.color = new Color(super.getMaterial().getTextureMap().getRGB(texX, texY));
-                    }
-                    else{
-                        intersection.color = super.getColor();
-                    }
-                }else if(this.getHasMaterial()){
-                    intersection.color = super.getMaterial().getColor();
-                    //intersection.color = Color.white;
-                }else{
-                    intersection.color = super.getColor();
-                }
-                intersection.setNormal(this.calculateNormalPoint((float) u, (float) v, (float) w));
-                return new Intersection[] {intersection};
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null, record)) return Intersection.nullIntersection();
+        return new Intersection[] {this.surfaceInteraction(ray, record)};
+    }
+
+    /**
+     * Finds the intersection between the ray and this triangle inside {@code [tMin, tMax]}.
+     * Misses and hits outside the interval allocate nothing.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @return The intersection inside the interval, or null if there is none
+     */
+    @Override
+    public Intersection closestHit(Ray ray, double tMin, double tMax, Object3D ignore) {
+        HitRecord record = new HitRecord();
+        if (!this.hit(ray, tMin, tMax, ignore, record)) return null;
+        return this.surfaceInteraction(ray, record);
+    }
+
+    /**
+     * Records the distance and barycentric coordinates of a hit inside the interval that is
+     * closer than the hit already in the record. Nothing is allocated.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param ignore Object whose hits are skipped, or null
+     * @param record The closest hit so far; updated if this triangle is hit closer
+     * @return true if the record was updated
+     */
+    @Override
+    public boolean hit(Ray ray, double tMin, double tMax, Object3D ignore, HitRecord record) {
+        if (this == ignore) return false;
+        return !Double.isNaN(this.distance(ray, tMin, tMax, record));
+    }
+
+    /**
+     * Builds the intersection of a recorded hit: its point, its color or texel and its
+     * interpolated normal.
+     *
+     * @param ray The ray that produced the hit
+     * @param record The hit of this triangle
+     * @return The intersection
+     */
+    @Override
+    public Intersection surfaceInteraction(Ray ray, HitRecord record) {
+        double length = ray.direction.value;
+        double t = record.distance, u = record.u, v = record.v, w = 1 - u - v;
+        Intersection intersection = new Intersection(null, t, null);
+        intersection.point = new Vector3D(ray.origin.x - ray.direction.x / length * t,
+                ray.origin.y - ray.direction.y / length * t,
+                ray.origin.z - ray.direction.z / length * t);
+        if(this.getHasTextures()) {
+            if(this.getHasNormals()) {
+                    BufferedImage textureMap = super.getMaterial().getTextureMap();
+                    double texU = this.getTA().x * w + this.getTB().x * v + this.getTC().x * u;
+                    double texV = this.getTA().y * w + this.getTB().y * v + this.getTC().y * u;
+                    int texX = (int) (texU * (textureMap.getWidth() - 1));
+                    int texY = (int) ((1 - texV) * (textureMap.getHeight() - 1)); // flip v if needed
+
+                    texX = Math.max(0, Math.min(texX, textureMap.getWidth() - 1));
+                    texY = Math.max(0, Math.min(texY, textureMap.getHeight() - 1));
+
+                    intersection.color = new Color(textureMap.getRGB(texX, texY));
+            }
+            else{
+                intersection.color = super.getColor();
             }
+        }else if(this.getHasMaterial()){
+            intersection.color = super.getMaterial().getColor();
+        }else{
+            intersection.color = super.getColor();
+        }
+        intersection.setNormal(this.calculateNormalPoint((float) u, (float) v, (float) w));
+        intersection.object = this;
+        return intersection;
+    }
+
+    /**
+     * Checks whether the ray hits the triangle inside the given distance interval.
+     * Uses the same Möller-Trumbore test as {@link #intersect(Ray)} without texture lookups,
+     * normal interpolation or allocations.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest distance that counts as a hit
+     * @param tMax The largest distance that counts as a hit
+     * @return true if the triangle blocks the ray inside the interval
+     */
+    @Override
+    public boolean occludes(Ray ray, double tMin, double tMax) {
+        return !Double.isNaN(this.distance(ray, tMin, tMax, null));
+    }
+
+    /**
+     * Runs the Möller-Trumbore test on plain doubles with the precomputed edges.
+     *
+     * @param ray The ray to test for intersection
+     * @param tMin The smallest accepted hit distance
+     * @param tMax The largest accepted hit distance
+     * @param record Receives the hit if it is closer than the recorded one, or null
+     * @return The hit distance, or NaN if the ray misses the triangle inside the interval or the
+     *         hit is not closer than the recorded one
+     */
+    private double distance(Ray ray, double tMin, double tMax, HitRecord record) {
+        double length = ray.direction.value;
+        if (length == 0) return Double.NaN;
+        double dX = -ray.direction.x / length;
+        double dY = -ray.direction.y / length;
+        double dZ = -ray.direction.z / length;
+
+        double pX = dY * e1Z - dZ * e1Y;
+        double pY = dZ * e1X - dX * e1Z;
+        double pZ = dX * e1Y - dY * e1X;
+        double invDet = 1.0 / (e2X * pX + e2Y * pY + e2Z * pZ);
+
+        Vector3D a = this.getA();
+        double tX = ray.origin.x - a.x, tY = ray.origin.y - a.y, tZ = ray.origin.z - a.z;
+        double u = invDet * (tX * pX + tY * pY + tZ * pZ);
+        if (u < 0 || u > 1) return Double.NaN;
+
+        double qX = tY * e2Z - tZ * e2Y;
+        double qY = tZ * e2X - tX * e2Z;
+        double qZ = tX * e2Y - tY * e2X;
+        double v = invDet * (dX * qX + dY * qY + dZ * qZ);
+        if (v < 0 || (u + v) > (1.0 + Camera.getEpsilon())) return Double.NaN;
+
+        double t = invDet * (qX * e1X + qY * e1Y + qZ * e1Z);
+        if (!(t >= tMin && t <= tMax)) return Double.NaN;
+        if (record != null) {
+            if (!record.isCloser(t)) return Double.NaN;
+            record.set(this, t, u, v);
         }
-        return Intersection.nullIntersection();
+        return t;
+    }
 
+    /**
+     * Recomputes the edges used by the intersection tests from the current vertices. The setters
+     * call it, but code that moves the vertices in place, such as the transforms of
+     * {@link Polygon}, must call it once it is done.
+     */
+    public void updateEdges() {
+        if (A == null || B == null || C == null) return;
+        e1X = B.x - A.x;
+        e1Y = B.y - A.y;
+        e1Z = B.z - A.z;
+        e2X = C.x - A.x;
+        e2Y = C.y - A.y;
+        e2Z = C.z - A.z;
     }
+
     /**
      * Calculates the face normal of the triangle.
      *
@@ -279,6 +388,24 @@ public class Triangle extends Object3D {
         return new Triangle(Vector3D.getZero(), Vector3D.getZero(), Vector3D.getZero(), null, 0, 0);
     }
 
+    /**
+     * Copies the corners of the triangle.
+     *
+     * @param out Receives x, y and z of the corners A, B and C
+     * @param offset Position of the first value in {@code out}
+     * @return true
+     */
+    @Override
+    public boolean getTriangleVertices(double[] out, int offset) {
+        Vector3D[] corners = {this.getA(), this.getB(), this.getC()};
+        for (int c = 0; c < 3; c++) {
+            out[offset + c * 3] = corners[c].x;
+            out[offset + c * 3 + 1] = corners[c].y;
+            out[offset + c * 3 + 2] = corners[c].z;
+        }
+        return true;
+    }
+
     /**
      * Computes an axis-aligned bounding box for this triangle.
      *
@@ -302,13 +429,13 @@ public class Triangle extends Object3D {
     // Standard getters and setters with basic documentation
     public Vector3D getA() { return this.A; }
 
-    public void setA(Vector3D a) { this.A = a; }
+    public void setA(Vector3D a) { this.A = a; this.updateEdges(); }
     public Vector3D getB() { return this.B; }
 
-    public void setB(Vector3D b) { this.B = b; }
+    public void setB(Vector3D b) { this.B = b; this.updateEdges(); }
     public Vector3D getC() { return this.C; }
 
-    public void setC(Vector3D c) { this.C = c; }
+    public void setC(Vector3D c) { this.C = c; this.updateEdges(); }
     public Vector3D getnA() { return nA; }
 
     public void setnA(Vector3D nA) { this.nA = nA; }
@@ -0,0 +1,92 @@
+package edu.up.isgc.raytracer.shapes.models;
+
+import edu.up.isgc.raytracer.optimization.BBTree;
+import edu.up.isgc.raytracer.optimization.BoundingBox;
+import edu.up.isgc.raytracer.optimization.LinearBVH;
+import edu.up.isgc.raytracer.shapes.Object3D;
+import edu.up.isgc.raytracer.shapes.Triangle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents the geometry of a model in its own object space together with its own
+ * bottom-level bounding volume hierarchy. A mesh is loaded and organized once and can be
+ * placed in a scene any number of times through {@link edu.up.isgc.raytracer.shapes.Instance}s.
+ */
+public class Mesh {
+    private final List<Triangle> triangles;
+    private final LinearBVH bvh;
+    private BoundingBox bounds;
+
+    /**
+     * Constructs a mesh from the triangles of a polygon, which must not be transformed afterwards.
+     *
+     * @param polygon The polygon holding the object-space triangles
+     */
+    public Mesh(Polygon polygon) {
+        this(polygon.getShape());
+    }
+
+    /**
+     * Constructs a mesh from a list of object-space triangles and builds its hierarchy.
+     *
+     * @param triangles The triangles of the mesh
+     */
+    public Mesh(List<Triangle> triangles) {
+        this.triangles = new ArrayList<>(triangles);
+
+        BBTree tree = new BBTree();
+        tree.build(new ArrayList<Object3D>(this.triangles));
+        this.bvh = new LinearBVH(tree);
+        this.bounds = bvh.getBounds();
+    }
+
+    /**
+     * Updates the hierarchy and the bounds of the mesh after its vertices moved in object space.
+     * Instances of the mesh pick up the new bounds the next time the scene is refitted.
+     *
+     * @return The SAH cost of the refitted hierarchy
+     */
+    public double refit() {
+        double cost = bvh.refit();
+        this.bounds = bvh.getBounds();
+        return cost;
+    }
+
+    /**
+     * Gets the triangles of the mesh in object space.
+     *
+     * @return The triangles
+     */
+    public List<Triangle> getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * Gets the number of triangles in the mesh.
+     *
+     * @return The triangle count
+     */
+    public int getTriangleCount() {
+        return triangles.size();
+    }
+
+    /**
+     * Gets the bottom-level hierarchy of the mesh.
+     *
+     * @return The flattened hierarchy over the object-space triangles
+     */
+    public LinearBVH getBVH() {
+        return bvh;
+    }
+
+    /**
+     * Gets the object-space bounds of the mesh.
+     *
+     * @return The bounding box, or null if the mesh is empty
+     */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+}
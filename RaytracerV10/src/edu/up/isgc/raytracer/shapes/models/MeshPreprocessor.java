@@ -0,0 +1,216 @@
+package edu.up.isgc.raytracer.shapes.models;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Triangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cleans the triangles of a loaded model before they reach the scene. Exporters often write
+ * the same vertex several times, zero-area triangles and faces in no particular spatial order.
+ * The preprocessor welds vertices closer than an epsilon so triangles share them, drops the
+ * triangles that become degenerate or repeat another one with the same winding, and sorts the
+ * rest along a Morton curve so triangles that are close in space are also close in the list the
+ * BVH is built from.
+ */
+public class MeshPreprocessor {
+    /** Bits of the Morton code per axis */
+    private static final int MORTON_BITS = 10;
+
+    /**
+     * What the preprocessor changed.
+     *
+     * @param weldedVertices Vertices merged into another vertex
+     * @param degenerateTriangles Triangles removed because they have no area
+     * @param duplicateTriangles Triangles removed because another triangle has the same vertices and winding
+     * @param triangles Triangles left, in Morton order
+     */
+    public record Result(int weldedVertices, int degenerateTriangles, int duplicateTriangles, int triangles) {
+    }
+
+    /**
+     * Identifies a cell of the welding grid.
+     *
+     * @param x Cell index along x
+     * @param y Cell index along y
+     * @param z Cell index along z
+     */
+    private record Cell(long x, long y, long z) {
+    }
+
+    /**
+     * Identifies a triangle by its welded vertices, rotated so the smallest id comes first. The
+     * rotation keeps the winding, so the two faces of a double-sided surface stay distinct.
+     *
+     * @param a The smallest vertex id
+     * @param b The vertex id that follows it
+     * @param c The last vertex id
+     */
+    private record Corners(int a, int b, int c) {
+    }
+
+    /**
+     * Welds, filters and reorders the triangles of a polygon in place.
+     *
+     * @param polygon The polygon to preprocess
+     * @param relativeEpsilon Welding distance as a fraction of the diagonal of the bounding box of the polygon
+     * @return What was changed
+     */
+    public static Result preprocess(Polygon polygon, double relativeEpsilon) {
+        ArrayList<Triangle> triangles = polygon.getShape();
+        if (triangles.isEmpty()) return new Result(0, 0, 0, 0);
+
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (Triangle t : triangles) {
+            for (Vector3D p : new Vector3D[] {t.getA(), t.getB(), t.getC()}) {
+                for (int axis = 0; axis < 3; axis++) {
+                    min[axis] = Math.min(min[axis], p.get(axis));
+                    max[axis] = Math.max(max[axis], p.get(axis));
+                }
+            }
+        }
+        double diagonal = new Vector3D(max[0] - min[0], max[1] - min[1], max[2] - min[2]).value;
+        double epsilon = Math.max(relativeEpsilon * diagonal, Double.MIN_NORMAL);
+
+        // Weld every corner to the first vertex found within epsilon of it
+        Map<Cell, List<Vector3D>> grid = new HashMap<>(triangles.size() * 2);
+        Map<Vector3D, Vector3D> welded = new IdentityHashMap<>(triangles.size() * 3);
+        Map<Vector3D, Integer> ids = new IdentityHashMap<>(triangles.size());
+        for (Triangle t : triangles) {
+            t.setA(weld(t.getA(), epsilon, grid, welded, ids));
+            t.setB(weld(t.getB(), epsilon, grid, welded, ids));
+            t.setC(weld(t.getC(), epsilon, grid, welded, ids));
+        }
+        int weldedVertices = welded.size() - ids.size();
+
+        // Drop triangles without area and triangles that repeat an earlier one with the same winding
+        int degenerate = 0, duplicate = 0;
+        Set<Corners> seen = new HashSet<>(triangles.size() * 2);
+        ArrayList<Triangle> kept = new ArrayList<>(triangles.size());
+        for (Triangle t : triangles) {
+            if (isDegenerate(t, epsilon)) {
+                degenerate++;
+                continue;
+            }
+            int a = ids.get(t.getA()), b = ids.get(t.getB()), c = ids.get(t.getC());
+            Corners corners = a < b && a < c ? new Corners(a, b, c) : b < c ? new Corners(b, c, a) : new Corners(c, a, b);
+            if (!seen.add(corners)) {
+                duplicate++;
+                continue;
+            }
+            kept.add(t);
+        }
+
+        mortonSort(kept, min, max);
+        polygon.setShape(kept);
+        return new Result(weldedVertices, degenerate, duplicate, kept.size());
+    }
+
+    /**
+     * Finds the vertex a corner is welded to, searching the cell of the corner and its neighbours.
+     *
+     * @param p The corner
+     * @param epsilon The welding distance
+     * @param grid Vertices kept so far, by cell
+     * @param welded The vertex every corner seen so far was welded to
+     * @param ids Id of every vertex kept so far
+     * @return The vertex to use for the corner
+     */
+    private static Vector3D weld(Vector3D p, double epsilon, Map<Cell, List<Vector3D>> grid,
+                                 Map<Vector3D, Vector3D> welded, Map<Vector3D, Integer> ids) {
+        Vector3D known = welded.get(p);
+        if (known != null) return known;
+
+        long cX = (long) Math.floor(p.x / epsilon), cY = (long) Math.floor(p.y / epsilon), cZ = (long) Math.floor(p.z / epsilon);
+        for (long x = cX - 1; x <= cX + 1; x++) {
+            for (long y = cY - 1; y <= cY + 1; y++) {
+                for (long z = cZ - 1; z <= cZ + 1; z++) {
+                    List<Vector3D> cell = grid.get(new Cell(x, y, z));
+                    if (cell == null) continue;
+                    for (Vector3D q : cell) {
+                        double dX = p.x - q.x, dY = p.y - q.y, dZ = p.z - q.z;
+                        if (dX * dX + dY * dY + dZ * dZ <= epsilon * epsilon) {
+                            welded.put(p, q);
+                            return q;
+                        }
+                    }
+                }
+            }
+        }
+
+        grid.computeIfAbsent(new Cell(cX, cY, cZ), key -> new ArrayList<>(1)).add(p);
+        welded.put(p, p);
+        ids.put(p, ids.size());
+        return p;
+    }
+
+    /**
+     * Checks whether a triangle has no area: two corners are the same vertex, or every corner
+     * lies within epsilon of the line through its longest edge.
+     *
+     * @param t The triangle, with welded corners
+     * @param epsilon The welding distance
+     * @return true if the triangle should be removed
+     */
+    private static boolean isDegenerate(Triangle t, double epsilon) {
+        Vector3D a = t.getA(), b = t.getB(), c = t.getC();
+        if (a == b || b == c || a == c) return true;
+        Vector3D ab = Vector3D.subtract(b, a), bc = Vector3D.subtract(c, b), ca = Vector3D.subtract(a, c);
+        double longest = Math.max(ab.value, Math.max(bc.value, ca.value));
+        double doubleArea = Vector3D.crossProduct(ab, Vector3D.subtract(c, a)).value;
+        return doubleArea <= epsilon * longest;
+    }
+
+    /**
+     * Sorts triangles by the Morton code of their centroids inside the given bounds.
+     *
+     * @param triangles The triangles to sort
+     * @param min Smallest corner of the bounds
+     * @param max Largest corner of the bounds
+     */
+    private static void mortonSort(ArrayList<Triangle> triangles, double[] min, double[] max) {
+        int cells = 1 << MORTON_BITS;
+        long[] keys = new long[triangles.size()];
+        for (int i = 0; i < triangles.size(); i++) {
+            Triangle t = triangles.get(i);
+            long code = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                double centroid = (t.getA().get(axis) + t.getB().get(axis) + t.getC().get(axis)) / 3;
+                double extent = max[axis] - min[axis];
+                int cell = extent > 0 ? (int) Math.min(cells - 1, (centroid - min[axis]) / extent * cells) : 0;
+                code |= spreadBits(cell) << (2 - axis);
+            }
+            keys[i] = code << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        ArrayList<Triangle> sorted = new ArrayList<>(triangles.size());
+        for (long key : keys) {
+            sorted.add(triangles.get((int) key));
+        }
+        Collections.copy(triangles, sorted);
+    }
+
+    /**
+     * Inserts two zero bits between each of the lowest {@link #MORTON_BITS} bits of a value.
+     *
+     * @param value The value
+     * @return The spread bits
+     */
+    private static long spreadBits(long value) {
+        long result = 0;
+        for (int bit = 0; bit < MORTON_BITS; bit++) {
+            result |= ((value >> bit) & 1L) << (3 * bit);
+        }
+        return result;
+    }
+}
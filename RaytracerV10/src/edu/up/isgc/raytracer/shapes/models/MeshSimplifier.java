@@ -0,0 +1,455 @@
+package edu.up.isgc.raytracer.shapes.models;
+
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.shapes.Triangle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Reduces the triangle count of a model by quadric error edge collapse (Garland and Heckbert).
+ * Every vertex accumulates the planes of the triangles around it in a quadric, and the edge
+ * whose collapse moves the surface the least is collapsed first, to the point that minimizes the
+ * error of both endpoints. Corners are welded by position, so texture and normal seams do not
+ * open; every corner keeps the normal and texture coordinate it had in the original model.
+ * Open borders are held in place by planes perpendicular to them, and collapses that would
+ * flip or flatten a triangle are rejected.
+ */
+public class MeshSimplifier {
+    /** Weight of the planes that hold the open borders of the model in place */
+    private static final double BORDER_WEIGHT = 1000;
+    /** Smallest cosine between the normal of a triangle before and after a collapse */
+    private static final double FLIP_COSINE = 0.2;
+
+    /**
+     * A possible collapse of the edge between two vertices, valid while neither vertex changed.
+     *
+     * @param cost The quadric error of the collapse
+     * @param a The vertex that is kept
+     * @param b The vertex that is removed
+     * @param stampA Version of {@code a} when the candidate was computed
+     * @param stampB Version of {@code b} when the candidate was computed
+     * @param x New position x
+     * @param y New position y
+     * @param z New position z
+     */
+    private record Collapse(double cost, int a, int b, int stampA, int stampB, double x, double y, double z) {
+    }
+
+    /**
+     * Identifies a welded vertex by its position.
+     *
+     * @param x Position x
+     * @param y Position y
+     * @param z Position z
+     */
+    private record Position(double x, double y, double z) {
+    }
+
+    private final double[] positions;         ///< Three values per welded vertex.
+    private final double[] quadrics;          ///< Ten values per vertex: the upper triangle of its 4x4 quadric.
+    private final int[] stamps;               ///< Per vertex: incremented whenever the vertex changes.
+    private final boolean[] removedVertices;
+    private final List<List<Integer>> vertexFaces;
+    private final int[] faces;                ///< Three welded vertex indices per triangle.
+    private final boolean[] removedFaces;
+    private final List<Triangle> sources;     ///< Per triangle: the original, which supplies its corner attributes and material.
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>((p, q) -> Double.compare(p.cost(), q.cost()));
+    private int faceCount;
+
+    /**
+     * Welds the corners of the triangles and computes the quadric of every vertex.
+     *
+     * @param triangles The triangles to simplify
+     */
+    private MeshSimplifier(List<Triangle> triangles) {
+        this.sources = triangles;
+        this.faces = new int[triangles.size() * 3];
+        this.removedFaces = new boolean[triangles.size()];
+        this.faceCount = triangles.size();
+
+        Map<Position, Integer> welded = new HashMap<>(triangles.size() * 2);
+        List<Vector3D> unique = new ArrayList<>();
+        for (int f = 0; f < triangles.size(); f++) {
+            Triangle t = triangles.get(f);
+            Vector3D[] corners = {t.getA(), t.getB(), t.getC()};
+            for (int corner = 0; corner < 3; corner++) {
+                Vector3D p = corners[corner];
+                Integer index = welded.putIfAbsent(new Position(p.x, p.y, p.z), unique.size());
+                if (index == null) {
+                    index = unique.size();
+                    unique.add(p);
+                }
+                faces[f * 3 + corner] = index;
+            }
+        }
+
+        int vertexCount = unique.size();
+        this.positions = new double[vertexCount * 3];
+        this.quadrics = new double[vertexCount * 10];
+        this.stamps = new int[vertexCount];
+        this.removedVertices = new boolean[vertexCount];
+        this.vertexFaces = new ArrayList<>(vertexCount);
+        for (int v = 0; v < vertexCount; v++) {
+            positions[v * 3] = unique.get(v).x;
+            positions[v * 3 + 1] = unique.get(v).y;
+            positions[v * 3 + 2] = unique.get(v).z;
+            vertexFaces.add(new ArrayList<>(6));
+        }
+
+        Map<Long, Integer> edgeFaces = new HashMap<>(triangles.size() * 3);
+        for (int f = 0; f < faceCount; f++) {
+            for (int corner = 0; corner < 3; corner++) {
+                vertexFaces.get(faces[f * 3 + corner]).add(f);
+                edgeFaces.merge(edgeKey(faces[f * 3 + corner], faces[f * 3 + (corner + 1) % 3]), 1, Integer::sum);
+            }
+            this.addFaceQuadric(f);
+        }
+        for (int f = 0; f < faceCount; f++) {
+            this.addBorderQuadrics(f, edgeFaces);
+        }
+    }
+
+    /**
+     * Simplifies a list of triangles down to about the target number of triangles. Simplification
+     * stops earlier when no edge can be collapsed without flipping a triangle.
+     *
+     * @param triangles The triangles to simplify
+     * @param targetCount The number of triangles to keep
+     * @param parent The polygon the new triangles belong to
+     * @return New triangles approximating the input
+     */
+    public static ArrayList<Triangle> simplify(List<Triangle> triangles, int targetCount, Polygon parent) {
+        MeshSimplifier simplifier = new MeshSimplifier(triangles);
+        simplifier.collapse(targetCount);
+        return simplifier.toTriangles(parent);
+    }
+
+    /**
+     * Collapses the cheapest valid edges until the target triangle count is reached.
+     *
+     * @param targetCount The number of triangles to keep
+     */
+    private void collapse(int targetCount) {
+        Set<Long> edges = new HashSet<>(removedFaces.length * 2);
+        for (int f = 0; f < removedFaces.length; f++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int a = faces[f * 3 + corner], b = faces[f * 3 + (corner + 1) % 3];
+                if (a != b && edges.add(edgeKey(a, b))) this.pushCandidate(a, b);
+            }
+        }
+
+        while (faceCount > targetCount && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int a = collapse.a(), b = collapse.b();
+            if (removedVertices[a] || removedVertices[b] || stamps[a] != collapse.stampA() || stamps[b] != collapse.stampB()) continue;
+            if (this.flips(a, b, collapse) || this.flips(b, a, collapse)) continue;
+            this.apply(collapse);
+        }
+    }
+
+    /**
+     * Moves {@code a} to the position of the collapse, replaces {@code b} by {@code a} in every
+     * triangle, removes the triangles that become degenerate and queues the new edges of {@code a}.
+     *
+     * @param collapse The collapse to apply
+     */
+    private void apply(Collapse collapse) {
+        int a = collapse.a(), b = collapse.b();
+        positions[a * 3] = collapse.x();
+        positions[a * 3 + 1] = collapse.y();
+        positions[a * 3 + 2] = collapse.z();
+        for (int i = 0; i < 10; i++) {
+            quadrics[a * 10 + i] += quadrics[b * 10 + i];
+        }
+
+        List<Integer> kept = vertexFaces.get(a);
+        for (int f : vertexFaces.get(b)) {
+            if (removedFaces[f]) continue;
+            if (faces[f * 3] == a || faces[f * 3 + 1] == a || faces[f * 3 + 2] == a) {
+                removedFaces[f] = true;
+                faceCount--;
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                if (faces[f * 3 + corner] == b) faces[f * 3 + corner] = a;
+            }
+            kept.add(f);
+        }
+        kept.removeIf(f -> removedFaces[f]);
+        vertexFaces.get(b).clear();
+        removedVertices[b] = true;
+        stamps[a]++;
+        stamps[b]++;
+
+        Set<Integer> neighbors = new HashSet<>();
+        for (int f : kept) {
+            for (int corner = 0; corner < 3; corner++) {
+                int other = faces[f * 3 + corner];
+                if (other != a && neighbors.add(other)) this.pushCandidate(a, other);
+            }
+        }
+    }
+
+    /**
+     * Checks whether moving {@code moved} to the position of a collapse would flip or flatten one
+     * of its triangles that does not contain {@code other}, which are removed by the collapse.
+     *
+     * @param moved The vertex that moves
+     * @param other The other vertex of the edge
+     * @param collapse The collapse
+     * @return true if the collapse must be rejected
+     */
+    private boolean flips(int moved, int other, Collapse collapse) {
+        for (int f : vertexFaces.get(moved)) {
+            if (removedFaces[f]) continue;
+            int corner = faces[f * 3] == moved ? 0 : faces[f * 3 + 1] == moved ? 1 : 2;
+            int p = faces[f * 3 + (corner + 1) % 3], q = faces[f * 3 + (corner + 2) % 3];
+            if (p == other || q == other) continue;
+
+            double[] before = this.normal(positions[moved * 3], positions[moved * 3 + 1], positions[moved * 3 + 2], p, q);
+            double[] after = this.normal(collapse.x(), collapse.y(), collapse.z(), p, q);
+            double lengths = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+                    * (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+            if (lengths == 0) return true;
+            if ((before[0] * after[0] + before[1] * after[1] + before[2] * after[2]) < FLIP_COSINE * lengths) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes the unnormalized normal of a triangle given one corner as coordinates.
+     *
+     * @param x Corner x
+     * @param y Corner y
+     * @param z Corner z
+     * @param p Index of the next corner
+     * @param q Index of the last corner
+     * @return The cross product of the two edges from the given corner
+     */
+    private double[] normal(double x, double y, double z, int p, int q) {
+        double e1X = positions[p * 3] - x, e1Y = positions[p * 3 + 1] - y, e1Z = positions[p * 3 + 2] - z;
+        double e2X = positions[q * 3] - x, e2Y = positions[q * 3 + 1] - y, e2Z = positions[q * 3 + 2] - z;
+        return new double[] {e1Y * e2Z - e1Z * e2Y, e1Z * e2X - e1X * e2Z, e1X * e2Y - e1Y * e2X};
+    }
+
+    /**
+     * Finds the best position for the collapse of an edge and queues it.
+     *
+     * @param a The vertex that is kept
+     * @param b The vertex that is removed
+     */
+    private void pushCandidate(int a, int b) {
+        double[] q = new double[10];
+        for (int i = 0; i < 10; i++) {
+            q[i] = quadrics[a * 10 + i] + quadrics[b * 10 + i];
+        }
+
+        double ax = positions[a * 3], ay = positions[a * 3 + 1], az = positions[a * 3 + 2];
+        double bx = positions[b * 3], by = positions[b * 3 + 1], bz = positions[b * 3 + 2];
+        double[][] candidates = {
+                optimalPoint(q),
+                {ax, ay, az},
+                {bx, by, bz},
+                {(ax + bx) / 2, (ay + by) / 2, (az + bz) / 2}
+        };
+
+        double[] best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (double[] candidate : candidates) {
+            if (candidate == null) continue;
+            double cost = error(q, candidate[0], candidate[1], candidate[2]);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = candidate;
+            }
+        }
+        queue.add(new Collapse(bestCost, a, b, stamps[a], stamps[b], best[0], best[1], best[2]));
+    }
+
+    /**
+     * Solves for the point that minimizes a quadric.
+     *
+     * @param q The quadric
+     * @return The point, or null if the quadric is too close to singular
+     */
+    private static double[] optimalPoint(double[] q) {
+        double a = q[0], b = q[1], c = q[2], e = q[4], f = q[5], h = q[7];
+        double det = a * (e * h - f * f) - b * (b * h - f * c) + c * (b * f - e * c);
+        double scale = Math.max(Math.abs(a), Math.max(Math.abs(e), Math.abs(h)));
+        if (!(Math.abs(det) > 1e-9 * scale * scale * scale)) return null;
+
+        // Cramer's rule on A x = -b, with A symmetric
+        double rX = -q[3], rY = -q[6], rZ = -q[8];
+        double x = (rX * (e * h - f * f) - b * (rY * h - f * rZ) + c * (rY * f - e * rZ)) / det;
+        double y = (a * (rY * h - f * rZ) - rX * (b * h - f * c) + c * (b * rZ - rY * c)) / det;
+        double z = (a * (e * rZ - rY * f) - b * (b * rZ - rY * c) + rX * (b * f - e * c)) / det;
+        return new double[] {x, y, z};
+    }
+
+    /**
+     * Evaluates a quadric at a point.
+     *
+     * @param q The quadric
+     * @param x Point x
+     * @param y Point y
+     * @param z Point z
+     * @return The sum of the weighted squared distances to the planes of the quadric
+     */
+    private static double error(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    /**
+     * Adds the plane of a triangle, weighted by its area, to the quadrics of its corners.
+     *
+     * @param f The triangle
+     */
+    private void addFaceQuadric(int f) {
+        int a = faces[f * 3], b = faces[f * 3 + 1], c = faces[f * 3 + 2];
+        double[] n = this.normal(positions[a * 3], positions[a * 3 + 1], positions[a * 3 + 2], b, c);
+        double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+        if (length == 0) return;
+        double nx = n[0] / length, ny = n[1] / length, nz = n[2] / length;
+        double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+        double area = length / 2;
+        for (int corner = 0; corner < 3; corner++) {
+            this.addPlane(faces[f * 3 + corner], nx, ny, nz, d, area);
+        }
+    }
+
+    /**
+     * Adds, for every edge of a triangle used by no other triangle, a heavily weighted plane
+     * through the edge and perpendicular to the triangle to the quadrics of its endpoints.
+     *
+     * @param f The triangle
+     * @param edgeFaces Number of triangles using each edge
+     */
+    private void addBorderQuadrics(int f, Map<Long, Integer> edgeFaces) {
+        int a = faces[f * 3], b = faces[f * 3 + 1], c = faces[f * 3 + 2];
+        double[] n = this.normal(positions[a * 3], positions[a * 3 + 1], positions[a * 3 + 2], b, c);
+        for (int corner = 0; corner < 3; corner++) {
+            int p = faces[f * 3 + corner], q = faces[f * 3 + (corner + 1) % 3];
+            if (edgeFaces.get(edgeKey(p, q)) != 1) continue;
+
+            double eX = positions[q * 3] - positions[p * 3];
+            double eY = positions[q * 3 + 1] - positions[p * 3 + 1];
+            double eZ = positions[q * 3 + 2] - positions[p * 3 + 2];
+            double pX = eY * n[2] - eZ * n[1], pY = eZ * n[0] - eX * n[2], pZ = eX * n[1] - eY * n[0];
+            double length = Math.sqrt(pX * pX + pY * pY + pZ * pZ);
+            if (length == 0) continue;
+            pX /= length;
+            pY /= length;
+            pZ /= length;
+            double d = -(pX * positions[p * 3] + pY * positions[p * 3 + 1] + pZ * positions[p * 3 + 2]);
+            double weight = BORDER_WEIGHT * (eX * eX + eY * eY + eZ * eZ);
+            this.addPlane(p, pX, pY, pZ, d, weight);
+            this.addPlane(q, pX, pY, pZ, d, weight);
+        }
+    }
+
+    /**
+     * Adds a weighted plane to the quadric of a vertex.
+     *
+     * @param v The vertex
+     * @param a Plane normal x
+     * @param b Plane normal y
+     * @param c Plane normal z
+     * @param d Plane offset
+     * @param weight The weight of the plane
+     */
+    private void addPlane(int v, double a, double b, double c, double d, double weight) {
+        int i = v * 10;
+        quadrics[i] += weight * a * a;
+        quadrics[i + 1] += weight * a * b;
+        quadrics[i + 2] += weight * a * c;
+        quadrics[i + 3] += weight * a * d;
+        quadrics[i + 4] += weight * b * b;
+        quadrics[i + 5] += weight * b * c;
+        quadrics[i + 6] += weight * b * d;
+        quadrics[i + 7] += weight * c * c;
+        quadrics[i + 8] += weight * c * d;
+        quadrics[i + 9] += weight * d * d;
+    }
+
+    /**
+     * Builds a key for an undirected edge.
+     *
+     * @param a One endpoint
+     * @param b The other endpoint
+     * @return The same key for both orders of the endpoints
+     */
+    private static long edgeKey(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**
+     * Creates the remaining triangles. Corners that share a vertex share its position, and every
+     * corner keeps the normal and texture coordinate of the corner of the original triangle.
+     *
+     * @param parent The polygon the new triangles belong to
+     * @return The simplified triangles
+     */
+    private ArrayList<Triangle> toTriangles(Polygon parent) {
+        Vector3D[] points = new Vector3D[removedVertices.length];
+        ArrayList<Triangle> triangles = new ArrayList<>(faceCount);
+        for (int f = 0; f < removedFaces.length; f++) {
+            if (removedFaces[f]) continue;
+            Vector3D[] corners = new Vector3D[3];
+            for (int corner = 0; corner < 3; corner++) {
+                int v = faces[f * 3 + corner];
+                if (points[v] == null) points[v] = new Vector3D(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2]);
+                corners[corner] = points[v];
+            }
+            triangles.add(copy(sources.get(f), corners[0], corners[1], corners[2], parent));
+        }
+        return triangles;
+    }
+
+    /**
+     * Creates a triangle with new corners and the normals, texture coordinates and material of
+     * an original triangle.
+     *
+     * @param source The original triangle
+     * @param a The new corner A
+     * @param b The new corner B
+     * @param c The new corner C
+     * @param parent The polygon the triangle belongs to
+     * @return The new triangle
+     */
+    private static Triangle copy(Triangle source, Vector3D a, Vector3D b, Vector3D c, Polygon parent) {
+        if (!source.getHasNormals()) {
+            return new Triangle(a, b, c, source.getColor(), source.refraction, source.transparency);
+        }
+        Vector3D nA = copy(source.getnA()), nB = copy(source.getnB()), nC = copy(source.getnC());
+        if (source.getHasMaterial()) {
+            if (source.getHasTextures()) {
+                return new Triangle(a, b, c, nA, nB, nC, copy(source.getTA()), copy(source.getTB()), copy(source.getTC()),
+                        parent, source.getMaterial());
+            }
+            return new Triangle(a, b, c, nA, nB, nC, parent, source.getMaterial());
+        }
+        if (source.getHasTextures()) {
+            return new Triangle(a, b, c, nA, nB, nC, copy(source.getTA()), copy(source.getTB()), copy(source.getTC()),
+                    source.getColor(), source.refraction, source.transparency, parent);
+        }
+        return new Triangle(a, b, c, nA, nB, nC, source.getColor(), source.refraction, source.transparency, parent);
+    }
+
+    /**
+     * Copies a vector so the new triangles do not share it with the original ones.
+     *
+     * @param v The vector
+     * @return A new vector with the same components
+     */
+    private static Vector3D copy(Vector3D v) {
+        return new Vector3D(v.x, v.y, v.z);
+    }
+}
@@ -2,6 +2,7 @@ package edu.up.isgc.raytracer.shapes.models;
 
 import edu.up.isgc.raytracer.Intersection;
 import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Transform;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.files.FileRead;
 import edu.up.isgc.raytracer.lighting.Material;
@@ -12,8 +13,11 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The Polygon class represents a 3D polygon composed of triangles.
@@ -21,7 +25,13 @@ import java.util.Map;
  * and manage vertex, texture, and normal data.
  */
 public class Polygon {
+    /** Ratio between the triangle counts of consecutive levels of detail */
+    private static final int LOD_REDUCTION = 4;
+    /** Levels of detail are not simplified below this number of triangles */
+    private static final int LOD_MIN_TRIANGLES = 16;
+
     private ArrayList<Triangle> shape;
+    private final ArrayList<ArrayList<Triangle>> levelsOfDetail = new ArrayList<>();  ///< Simplified versions of {@link #shape}, from finest to coarsest.
     private ArrayList<Double[]> vertexes = new ArrayList<>();
     private ArrayList<Double[]> normalVertexes = new ArrayList<>();
     private ArrayList<Double[]> textures = new ArrayList<>();
@@ -388,6 +398,115 @@ public class Polygon {
         this.color = color;
     }
 
+    /**
+     * Applies a transform to every vertex and normal of the polygon in a single pass. Vertices
+     * and normals shared between triangles are moved once, the work is spread over the available
+     * cores, and normals go through the inverse transpose so they stay perpendicular to the
+     * surface under non-uniform scales.
+     *
+     * @param transform The transform to apply
+     */
+    public void transform(Transform transform) {
+        ArrayList<Triangle> triangles = new ArrayList<>(shape);
+        for (ArrayList<Triangle> level : levelsOfDetail) {
+            triangles.addAll(level);
+        }
+        Set<Vector3D> points = Collections.newSetFromMap(new IdentityHashMap<>(triangles.size() * 3));
+        Set<Vector3D> normals = Collections.newSetFromMap(new IdentityHashMap<>(triangles.size() * 3));
+        for (Triangle t : triangles) {
+            points.add(t.getA());
+            points.add(t.getB());
+            points.add(t.getC());
+            if (t.getnA() != null) normals.add(t.getnA());
+            if (t.getnB() != null) normals.add(t.getnB());
+            if (t.getnC() != null) normals.add(t.getnC());
+        }
+
+        points.parallelStream().forEach(p -> {
+            Vector3D moved = transform.transformPoint(p);
+            p.set(moved.x, moved.y, moved.z);
+        });
+        normals.parallelStream().forEach(n -> {
+            Vector3D turned = transform.transformNormal(n);
+            n.set(turned.x, turned.y, turned.z);
+        });
+        this.setPosition(transform.transformPoint(this.getPosition()));
+        triangles.parallelStream().forEach(Triangle::updateEdges);
+    }
+
+    /**
+     * Generates simplified versions of the polygon with {@link MeshSimplifier}, each with about a
+     * quarter of the triangles of the previous one. Generation stops early when a level would
+     * be too small or could not be simplified further.
+     *
+     * @param count The number of levels, including the full resolution one
+     */
+    public void buildLevelsOfDetail(int count) {
+        levelsOfDetail.clear();
+        ArrayList<Triangle> previous = shape;
+        for (int level = 1; level < count; level++) {
+            int target = previous.size() / LOD_REDUCTION;
+            if (target < LOD_MIN_TRIANGLES) break;
+            ArrayList<Triangle> simplified = MeshSimplifier.simplify(previous, target, this);
+            if (simplified.size() >= previous.size()) break;
+            levelsOfDetail.add(simplified);
+            previous = simplified;
+        }
+    }
+
+    /**
+     * Gets the number of levels of detail, including the full resolution one.
+     *
+     * @return 1 if no simplified levels were built
+     */
+    public int getLevelCount() {
+        return levelsOfDetail.size() + 1;
+    }
+
+    /**
+     * Gets the triangles of a level of detail.
+     *
+     * @param level 0 for the full resolution triangles, higher for simplified ones
+     * @return The triangles of the level
+     */
+    public ArrayList<Triangle> getLevelOfDetail(int level) {
+        return level == 0 ? shape : levelsOfDetail.get(level - 1);
+    }
+
+    /**
+     * Picks the finest level of detail with at most the given number of triangles per pixel
+     * covered by the polygon. The covered pixels are estimated from the bounding sphere of the
+     * full resolution triangles as seen from the eye.
+     *
+     * @param eye The camera position
+     * @param pixelAngle The angle covered by one pixel, in radians
+     * @param trianglesPerPixel The largest number of triangles per covered pixel
+     * @return The level to render
+     */
+    public int selectLevelOfDetail(Vector3D eye, double pixelAngle, double trianglesPerPixel) {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        double[] corners = new double[9];
+        for (Triangle t : shape) {
+            t.getTriangleVertices(corners, 0);
+            for (int i = 0; i < 9; i++) {
+                min[i % 3] = Math.min(min[i % 3], corners[i]);
+                max[i % 3] = Math.max(max[i % 3], corners[i]);
+            }
+        }
+        Vector3D center = new Vector3D((min[0] + max[0]) / 2, (min[1] + max[1]) / 2, (min[2] + max[2]) / 2);
+        double radius = new Vector3D(max[0] - min[0], max[1] - min[1], max[2] - min[2]).value / 2;
+        double distance = Vector3D.subtract(center, eye).value;
+        if (distance <= radius) return 0;
+
+        double radiusInPixels = Math.asin(radius / distance) / pixelAngle;
+        double budget = Math.PI * radiusInPixels * radiusInPixels * trianglesPerPixel;
+        for (int level = 0; level < this.getLevelCount(); level++) {
+            if (this.getLevelOfDetail(level).size() <= budget) return level;
+        }
+        return this.getLevelCount() - 1;
+    }
+
     /**
      * Translates the polygon by the specified amounts in each axis.
      *
@@ -396,13 +515,7 @@ public class Polygon {
      * @param tZ The translation amount in the Z axis
      */
     public void translate(float tX, float tY, float tZ) {
-        for (Triangle t : shape) {
-            t.getA().translate(tX, tY, tZ);
-            t.getB().translate(tX, tY, tZ);
-            t.getC().translate(tX, tY, tZ);
-
-            this.getPosition().translate(tX, tY, tZ);
-        }
+        this.transform(Transform.translation(tX, tY, tZ));
     }
 
     /**
@@ -413,20 +526,7 @@ public class Polygon {
      * @param sZ The scale factor in the Z axis
      */
     public void scale(float sX, float sY, float sZ) {
-        for (Triangle t : shape) {
-            t.getA().scale(sX, sY, sZ);
-            t.getB().scale(sX, sY, sZ);
-            t.getC().scale(sX, sY, sZ);
-
-            float nSX = 1 / sX, nSY = 1 / sY, nSZ = 1 / sZ;
-            t.getnA().scale(nSX, nSY, nSZ);
-            t.getnB().scale(nSX, nSY, nSZ);
-            t.getnC().scale(nSX, nSY, nSZ);
-
-            t.setnA(t.getnA().normalize());
-            t.setnB(t.getnB().normalize());
-            t.setnC(t.getnC().normalize());
-        }
+        this.transform(Transform.scaling(sX, sY, sZ));
     }
 
     /**
@@ -438,31 +538,10 @@ public class Polygon {
      * @param inRadians Whether the angles are in radians (true) or degrees (false)
      */
     public void rotateInPlace(float rX, float rY, float rZ, boolean inRadians) {
-        float x = (float) this.getPosition().x;
-        float y = (float) this.getPosition().y;
-        float z = (float) this.getPosition().z;
-
-        for (Triangle t : shape) {
-            t.getA().translate(-x, -y, -z);
-            t.getB().translate(-x, -y, -z);
-            t.getC().translate(-x, -y, -z);
-
-            t.getA().rotate(rX, rY, rZ, inRadians);
-            t.getB().rotate(rX, rY, rZ, inRadians);
-            t.getC().rotate(rX, rY, rZ, inRadians);
-
-            t.getnA().rotate(rX, rY, rZ);
-            t.getnB().rotate(rX, rY, rZ);
-            t.getnC().rotate(rX, rY, rZ);
-
-            t.setnA(t.getnA().normalize());
-            t.setnB(t.getnB().normalize());
-            t.setnC(t.getnC().normalize());
-
-            t.getA().translate(x, y, z);
-            t.getB().translate(x, y, z);
-            t.getC().translate(x, y, z);
-        }
+        Vector3D p = this.getPosition();
+        this.transform(Transform.translation(p.x, p.y, p.z)
+                .multiply(rotation(rX, rY, rZ, inRadians))
+                .multiply(Transform.translation(-p.x, -p.y, -p.z)));
     }
 
     /**
@@ -485,19 +564,7 @@ public class Polygon {
      * @param inRadians Whether the angles are in radians (true) or degrees (false)
      */
     public void rotate(float rX, float rY, float rZ, boolean inRadians) {
-        for (Triangle t : shape) {
-            t.getA().rotate(rX, rY, rZ, inRadians);
-            t.getB().rotate(rX, rY, rZ, inRadians);
-            t.getC().rotate(rX, rY, rZ, inRadians);
-
-            t.getnA().rotate(rX, rY, rZ, inRadians);
-            t.getnB().rotate(rX, rY, rZ, inRadians);
-            t.getnC().rotate(rX, rY, rZ, inRadians);
-
-            t.setnA(t.getnA().normalize());
-            t.setnB(t.getnB().normalize());
-            t.setnC(t.getnC().normalize());
-        }
+        this.transform(rotation(rX, rY, rZ, inRadians));
     }
 
     /**
@@ -511,6 +578,20 @@ public class Polygon {
         this.rotate(rX, rY, rZ, false);
     }
 
+    /**
+     * Creates the rotation of {@link #rotate(float, float, float, boolean)}.
+     *
+     * @param rX The rotation angle around the X axis
+     * @param rY The rotation angle around the Y axis
+     * @param rZ The rotation angle around the Z axis
+     * @param inRadians Whether the angles are in radians (true) or degrees (false)
+     * @return The rotation transform
+     */
+    private static Transform rotation(float rX, float rY, float rZ, boolean inRadians) {
+        if (inRadians) return Transform.rotation(Math.toDegrees(rX), Math.toDegrees(rY), Math.toDegrees(rZ));
+        return Transform.rotation(rX, rY, rZ);
+    }
+
     /**
      * Gets the position of the polygon.
      *
@@ -0,0 +1,187 @@
+package edu.up.isgc.raytracer.shapes.models;
+
+import edu.up.isgc.raytracer.Transform;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.shapes.MeshTriangle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indexed triangle storage with vertices shared between triangles. Positions, normals and
+ * texture coordinates live in flat {@code float[]} buffers, one entry per unique vertex, and
+ * every triangle is three indices into them. The triangles are exposed to the acceleration
+ * structures as {@link MeshTriangle}s, which only reference the mesh and their own index, so a
+ * model costs a fraction of the memory of one {@link edu.up.isgc.raytracer.shapes.Triangle} with
+ * nine {@link Vector3D}s per face.
+ */
+public final class TriangleMesh {
+    private final float[] positions;   ///< Three values per vertex.
+    private final float[] normals;     ///< Three values per vertex, or null when the model has no normals.
+    private final float[] uvs;         ///< Two values per vertex, or null when the model has no texture coordinates.
+    private final int[] indices;       ///< Three vertex indices per triangle.
+    private final Material[] materials;
+    private final int[] triangleMaterials;  ///< Per triangle: index into {@link #materials}.
+    private final MeshTriangle[] triangles;
+
+    /**
+     * Constructs a mesh from its buffers, which are used as they are.
+     *
+     * @param positions Three values per vertex
+     * @param normals Three values per vertex, or null
+     * @param uvs Two values per vertex, or null
+     * @param indices Three vertex indices per triangle
+     * @param materials The materials used by the triangles
+     * @param triangleMaterials Per triangle, the index of its material
+     * @throws IllegalArgumentException If the buffers do not match each other
+     */
+    public TriangleMesh(float[] positions, float[] normals, float[] uvs, int[] indices,
+                        Material[] materials, int[] triangleMaterials) {
+        int vertexCount = positions.length / 3;
+        if (positions.length % 3 != 0 || indices.length % 3 != 0
+                || normals != null && normals.length != vertexCount * 3
+                || uvs != null && uvs.length != vertexCount * 2
+                || triangleMaterials.length != indices.length / 3) {
+            throw new IllegalArgumentException("Mesh buffers do not match");
+        }
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount) throw new IllegalArgumentException("Vertex index out of range: " + index);
+        }
+
+        this.positions = positions;
+        this.normals = normals;
+        this.uvs = uvs;
+        this.indices = indices;
+        this.materials = materials;
+        this.triangleMaterials = triangleMaterials;
+        this.triangles = new MeshTriangle[indices.length / 3];
+        for (int i = 0; i < triangles.length; i++) {
+            triangles[i] = new MeshTriangle(this, i, materials[triangleMaterials[i]]);
+        }
+    }
+
+    /**
+     * Moves every vertex of the mesh, transforming normals with the inverse transpose.
+     *
+     * @param transform The transform to apply
+     */
+    public void transform(Transform transform) {
+        for (int v = 0; v < getVertexCount(); v++) {
+            Vector3D p = transform.transformPoint(new Vector3D(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2]));
+            positions[v * 3] = (float) p.x;
+            positions[v * 3 + 1] = (float) p.y;
+            positions[v * 3 + 2] = (float) p.z;
+            if (normals != null) {
+                Vector3D n = transform.transformNormal(new Vector3D(normals[v * 3], normals[v * 3 + 1], normals[v * 3 + 2]));
+                normals[v * 3] = (float) n.x;
+                normals[v * 3 + 1] = (float) n.y;
+                normals[v * 3 + 2] = (float) n.z;
+            }
+        }
+    }
+
+    /**
+     * Gets one coordinate of a corner of a triangle.
+     *
+     * @param triangle The triangle index
+     * @param corner 0, 1 or 2 for the corners A, B and C
+     * @param axis 0, 1 or 2 for x, y and z
+     * @return The coordinate
+     */
+    public double getPosition(int triangle, int corner, int axis) {
+        return positions[indices[triangle * 3 + corner] * 3 + axis];
+    }
+
+    /**
+     * Gets one component of the normal at a corner of a triangle.
+     *
+     * @param triangle The triangle index
+     * @param corner 0, 1 or 2 for the corners A, B and C
+     * @param axis 0, 1 or 2 for x, y and z
+     * @return The component
+     */
+    public double getNormal(int triangle, int corner, int axis) {
+        return normals[indices[triangle * 3 + corner] * 3 + axis];
+    }
+
+    /**
+     * Gets one texture coordinate at a corner of a triangle.
+     *
+     * @param triangle The triangle index
+     * @param corner 0, 1 or 2 for the corners A, B and C
+     * @param axis 0 for u and 1 for v
+     * @return The texture coordinate
+     */
+    public double getUV(int triangle, int corner, int axis) {
+        return uvs[indices[triangle * 3 + corner] * 2 + axis];
+    }
+
+    /**
+     * Checks whether the mesh has vertex normals.
+     *
+     * @return true if normals are stored
+     */
+    public boolean hasNormals() {
+        return normals != null;
+    }
+
+    /**
+     * Checks whether the mesh has texture coordinates.
+     *
+     * @return true if texture coordinates are stored
+     */
+    public boolean hasUVs() {
+        return uvs != null;
+    }
+
+    /**
+     * Gets the material of a triangle.
+     *
+     * @param triangle The triangle index
+     * @return The material
+     */
+    public Material getMaterial(int triangle) {
+        return materials[triangleMaterials[triangle]];
+    }
+
+    /**
+     * Gets the primitives that reference the triangles of the mesh, one per triangle.
+     *
+     * @return The triangles
+     */
+    public List<MeshTriangle> getTriangles() {
+        return Arrays.asList(triangles);
+    }
+
+    /**
+     * Gets the number of triangles.
+     *
+     * @return The triangle count
+     */
+    public int getTriangleCount() {
+        return triangles.length;
+    }
+
+    /**
+     * Gets the number of unique vertices.
+     *
+     * @return The vertex count
+     */
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    /**
+     * Gets the memory taken by the vertex, index and material buffers.
+     *
+     * @return The size of the buffers in bytes
+     */
+    public long getBufferBytes() {
+        long bytes = (long) positions.length * Float.BYTES + (long) indices.length * Integer.BYTES
+                + (long) triangleMaterials.length * Integer.BYTES;
+        if (normals != null) bytes += (long) normals.length * Float.BYTES;
+        if (uvs != null) bytes += (long) uvs.length * Float.BYTES;
+        return bytes;
+    }
+}
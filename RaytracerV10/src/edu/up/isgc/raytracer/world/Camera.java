@@ -24,6 +24,8 @@ public class Camera {
         this.clipPlanes[0] = nearPlane;
         this.clipPlanes[1] = farPlane;
         this.setFov(fov);
+        this.setWidth(width);
+        this.setHeight(height);
     }
 
     /**
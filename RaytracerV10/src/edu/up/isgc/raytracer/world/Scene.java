@@ -1,20 +1,42 @@
 package edu.up.isgc.raytracer.world;
 
 import edu.up.isgc.raytracer.lighting.Material;
+import edu.up.isgc.raytracer.optimization.AccelerationStructure;
 import edu.up.isgc.raytracer.optimization.BBTree;
+import edu.up.isgc.raytracer.optimization.BVHCache;
+import edu.up.isgc.raytracer.optimization.BVHReport;
+import edu.up.isgc.raytracer.optimization.BBTree.BuildMethod;
+import edu.up.isgc.raytracer.optimization.SpatialSplitBuilder;
 import edu.up.isgc.raytracer.optimization.BoundingBox;
+import edu.up.isgc.raytracer.optimization.KdTree;
+import edu.up.isgc.raytracer.optimization.LinearBVH;
+import edu.up.isgc.raytracer.optimization.QuantizedBVH;
+import edu.up.isgc.raytracer.optimization.RayPacket;
+import edu.up.isgc.raytracer.optimization.UnboundedObjects;
+import edu.up.isgc.raytracer.optimization.UniformGrid;
+import edu.up.isgc.raytracer.optimization.WideBVH;
 import edu.up.isgc.raytracer.Intersection;
 import edu.up.isgc.raytracer.Vector3D;
 import edu.up.isgc.raytracer.lighting.Light;
 import edu.up.isgc.raytracer.Ray;
 import edu.up.isgc.raytracer.optimization.RBTree;
+import edu.up.isgc.raytracer.shapes.MeshTriangle;
 import edu.up.isgc.raytracer.shapes.Object3D;
 import edu.up.isgc.raytracer.shapes.Triangle;
+import edu.up.isgc.raytracer.shapes.models.MeshPreprocessor;
 import edu.up.isgc.raytracer.shapes.models.Polygon;
+import edu.up.isgc.raytracer.shapes.models.TriangleMesh;
 
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static java.lang.Math.clamp;
 
@@ -26,17 +48,79 @@ import static java.lang.Math.clamp;
 public class Scene {
     /** Collection of all 3D objects in the scene */
     private static ArrayList<Object3D> objects;
+    /** Objects without a bounding box, like infinite planes, tested next to the acceleration structure */
+    private static ArrayList<Object3D> unboundedObjects;
     /** Bounding Box Tree for spatial partitioning and accelerated ray tracing */
     public static BBTree BBTree;
+    /** Flattened copy of the BBTree that is traversed while rendering */
+    private static LinearBVH linearBVH;
+    /** Four-wide copy of {@link #linearBVH}, traversed instead of it when wide traversal is enabled */
+    private static WideBVH wideBVH;
+    /** Structure every ray is traced through: the BVH, the wide or quantized BVH, the kd-tree or the grid */
+    private static AccelerationStructure accelerationStructure;
+    /** Kind of structure built by {@link #buildAccelerationStructure()} */
+    private static AccelerationStructure.Type structureType = AccelerationStructure.Type.BVH;
+    /** When true, camera and shadow rays are traced in packets of neighbouring pixels */
+    private static boolean packetTracing = true;
+    /** When true, the reflection and refraction rays of a tile are sorted and traced ahead of shading */
+    private static boolean rayReordering = false;
+    /** Reflection and refraction hits traced ahead of shading, per rendering thread */
+    private static final ThreadLocal<Map<SecondaryRayBatch.Key, Intersection>> secondaryHits =
+            ThreadLocal.withInitial(HashMap::new);
+    /** When true, rays traverse the four-wide BVH instead of the binary one */
+    private static boolean wideTraversal = false;
+    /** Bits per bound of the quantized BVH nodes, 8 or 16, or 0 to keep full precision nodes */
+    private static int nodeQuantization = 0;
+    /** Number of camera rays sampled for the BVH report after every build, 0 disables the report */
+    private static int reportRays = 0;
+    /** File that stores the built BVH between runs, or null to always build it */
+    private static Path cacheFile = null;
+    /** Largest number of objects merged into a leaf of the flattened BVH */
+    private static int maxLeafSize = LinearBVH.DEFAULT_MAX_LEAF_SIZE;
     /** Default background color when rays don't hit any objects */
     public static Color background;
+    /** When true, objects are staged and the BBTree is built in a single pass before rendering */
+    private static boolean bulkBuild = true;
+    /** True when objects were added since the flattened BVH was last built */
+    private static boolean treeDirty = false;
+    /** Number of threads used to build the BBTree */
+    private static int buildThreads = Runtime.getRuntime().availableProcessors();
+    /** Algorithm used to build the BBTree in bulk build mode */
+    private static BuildMethod buildMethod = BuildMethod.BINNED_SAH;
+    /** SAH cost of the flattened BVH right after it was last built */
+    private static double builtSAHCost = 0;
+    /** A refit that makes the SAH cost grow past this factor of {@link #builtSAHCost} triggers a rebuild */
+    private static double rebuildThreshold = 1.5;
+    /** Time in milliseconds spent improving the BBTree with rotations after it is built, 0 disables it */
+    private static long rotationBudget = 100;
+    /** Extra references the SBVH builder may create, as a fraction of the object count */
+    private static double splitBudget = SpatialSplitBuilder.DEFAULT_DUPLICATE_BUDGET;
+    /** Number of levels of detail generated for every loaded OBJ model, 1 keeps only the full resolution */
+    private static int levelsOfDetail = 1;
+    /** Largest number of triangles per covered pixel a level of detail may have to be selected */
+    private static double lodTrianglesPerPixel = 1;
+    /** When true, loaded OBJ models are welded, cleaned and sorted in Morton order by {@link MeshPreprocessor} */
+    private static boolean meshPreprocessing = true;
+    /** Distance under which mesh vertices are welded, as a fraction of the diagonal of the model */
+    private static double weldEpsilon = 1e-6;
+    /** Polygons with levels of detail, whose level is swapped by {@link #selectLevelsOfDetail(Camera)} */
+    private static ArrayList<Polygon> lodPolygons;
+    /** Per polygon of {@link #lodPolygons}: the level whose triangles are in the scene */
+    private static ArrayList<Integer> selectedLevels;
 
     /**
      * Constructs an empty scene with default background.
      */
     public Scene() {
         objects = new ArrayList<>();
+        unboundedObjects = new ArrayList<>();
+        lodPolygons = new ArrayList<>();
+        selectedLevels = new ArrayList<>();
         BBTree = new BBTree();
+        linearBVH = null;
+        wideBVH = null;
+        accelerationStructure = null;
+        treeDirty = false;
     }
     /**
      * Constructs an empty scene with specified background color.
@@ -46,30 +130,686 @@ public class Scene {
     public Scene(Color background) {
         Scene.background = background;
         objects = new ArrayList<>();
+        unboundedObjects = new ArrayList<>();
+        lodPolygons = new ArrayList<>();
+        selectedLevels = new ArrayList<>();
         BBTree = new BBTree();
+        linearBVH = null;
+        wideBVH = null;
+        accelerationStructure = null;
+        treeDirty = false;
     }
 
 
     /**
-     * Adds a 3D object to the scene and updates the BBTree.
+     * Adds a 3D object to the scene. In bulk build mode the object is staged until
+     * {@link #buildAccelerationStructure()} runs, otherwise it is inserted into the BBTree directly.
+     * Objects without a bounding box, like infinite planes, are kept out of the tree and tested
+     * by every query next to it.
      *
      * @param obj The object to add to the scene
      */
     public void addObject(Object3D obj) {
+        if (obj.getBB() == null) {
+            unboundedObjects.add(obj);
+            treeDirty = true;
+            return;
+        }
         objects.add(obj);
-        BBTree.insert(obj);
+        if (!bulkBuild) {
+            BBTree.insert(obj);
+        }
+        treeDirty = true;
     }
     /**
-     * Adds all triangles from a polygon to the scene.
+     * Adds all triangles from a polygon to the scene. Polygons with levels of detail start at
+     * full resolution until {@link #selectLevelsOfDetail(Camera)} picks their level.
      *
      * @param p The polygon whose triangles should be added
      */
     public void addPolygon(Polygon p) {
+        if (p.getLevelCount() > 1) {
+            lodPolygons.add(p);
+            selectedLevels.add(0);
+        }
         for (Triangle triangle : p.getShape()) {
             this.addObject(triangle);
         }
     }
 
+    /**
+     * Adds to the scene the level of detail of every polygon that fits its projected size from
+     * the camera, replacing the level selected before. Polygons without levels of detail are
+     * not affected. Secondary rays see the same level as camera rays, so a surface never
+     * shadows or reflects a coarser copy of itself.
+     *
+     * @param camera The camera the scene is rendered from
+     */
+    public void selectLevelsOfDetail(Camera camera) {
+        if (lodPolygons.isEmpty()) return;
+        long startTime = System.currentTimeMillis();
+        double pixelAngle = 2 * Math.atan(Math.tan(Math.toRadians(camera.getFov()) / 2) / Math.max(1, camera.getHeight()));
+
+        Set<Object3D> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        long fullTriangles = 0, selectedTriangles = 0;
+        boolean changed = false;
+        for (int i = 0; i < lodPolygons.size(); i++) {
+            Polygon polygon = lodPolygons.get(i);
+            int level = polygon.selectLevelOfDetail(camera.getPosition(), pixelAngle, lodTrianglesPerPixel);
+            int previous = selectedLevels.get(i);
+            fullTriangles += polygon.getShape().size();
+            selectedTriangles += polygon.getLevelOfDetail(level).size();
+            if (level == previous) continue;
+
+            removed.addAll(polygon.getLevelOfDetail(previous));
+            objects.addAll(polygon.getLevelOfDetail(level));
+            selectedLevels.set(i, level);
+            treeDirty = true;
+            changed = true;
+        }
+        if (!removed.isEmpty()) {
+            objects.removeIf(removed::contains);
+        }
+        if (changed && !bulkBuild) {
+            BBTree = new BBTree();
+            for (Object3D object : objects) {
+                BBTree.insert(object);
+            }
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("Levels of detail selected in " + duration + " ms (" + lodPolygons.size() + " models, "
+                + fullTriangles + " -> " + selectedTriangles + " triangles)");
+    }
+
+    /**
+     * Adds all triangles of an indexed mesh to the scene.
+     *
+     * @param mesh The mesh whose triangles should be added
+     */
+    public void addMesh(TriangleMesh mesh) {
+        for (MeshTriangle triangle : mesh.getTriangles()) {
+            this.addObject(triangle);
+        }
+    }
+
+    /**
+     * Builds the BBTree from every staged object using the selected build method, flattens it
+     * for traversal and reports the build time and the SAH cost of the resulting tree.
+     * When a cache file is set, a tree cached for the same geometry and settings is loaded
+     * instead of built, and freshly built trees are written to the cache.
+     * When another structure type is selected, that structure is built from the objects instead.
+     * Must be called once all objects are added and before any ray is traced.
+     */
+    public void buildAccelerationStructure() {
+        if (structureType != AccelerationStructure.Type.BVH) {
+            buildAlternativeStructure();
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        String source = bulkBuild ? buildMethod.toString() : "incremental";
+        if (treeDirty || accelerationStructure == null) {
+            byte[] cacheKey = null;
+            linearBVH = null;
+            if (bulkBuild && cacheFile != null) {
+                cacheKey = BVHCache.computeKey(objects, buildMethod + " " + splitBudget + " " + maxLeafSize + " " + rotationBudget);
+                linearBVH = BVHCache.load(cacheFile, objects, cacheKey);
+                if (linearBVH != null) source = "cached " + source;
+            }
+
+            if (linearBVH == null) {
+                if (bulkBuild) {
+                    if (buildMethod == BuildMethod.SBVH) {
+                        int references = BBTree.buildSpatialSplits(objects, splitBudget);
+                        if (!objects.isEmpty()) {
+                            source += ", " + String.format("%.1f", 100.0 * (references - objects.size()) / objects.size())
+                                    + "% duplicated";
+                        }
+                    } else {
+                        BBTree.build(objects, buildMethod, buildThreads);
+                    }
+                }
+                if (rotationBudget > 0) {
+                    optimizeTree();
+                }
+                linearBVH = new LinearBVH(BBTree, maxLeafSize);
+                if (cacheKey != null) {
+                    try {
+                        BVHCache.save(cacheFile, linearBVH, objects, cacheKey);
+                    } catch (IOException e) {
+                        System.out.println("Error saving BVH cache: " + e.getMessage());
+                    }
+                }
+            }
+            builtSAHCost = linearBVH.getSAHCost();
+            if (nodeQuantization > 0) {
+                quantizeTree();
+            } else {
+                wideBVH = wideTraversal ? new WideBVH(linearBVH) : null;
+                useStructure(wideBVH != null ? wideBVH : linearBVH);
+            }
+            treeDirty = false;
+        }
+        long duration = System.currentTimeMillis() - startTime;
+
+        System.out.println("BVH built in " + duration + " ms (" + objects.size() + " objects, "
+                + source + ", SAH cost " + String.format("%.2f", builtSAHCost) + ")");
+    }
+
+    /**
+     * Makes the given structure the one every ray is traced through, together with the objects
+     * that have no bounding box.
+     *
+     * @param structure The structure built over the bounded objects
+     */
+    private static void useStructure(AccelerationStructure structure) {
+        accelerationStructure = unboundedObjects.isEmpty() ? structure : new UnboundedObjects(structure, unboundedObjects);
+    }
+
+    /**
+     * Replaces the flattened BVH with its quantized form and reports the memory saved. The full
+     * precision trees are dropped so their memory can be reclaimed; in bulk build mode this
+     * includes the BBTree, which is rebuilt from the objects anyway.
+     */
+    private void quantizeTree() {
+        QuantizedBVH quantized = new QuantizedBVH(linearBVH, nodeQuantization);
+        System.out.println("BVH nodes quantized to " + nodeQuantization + " bits: "
+                + String.format("%.2f", linearBVH.getNodeBytes() / 1e6) + " MB -> "
+                + String.format("%.2f", quantized.getNodeBytes() / 1e6) + " MB");
+
+        useStructure(quantized);
+        linearBVH = null;
+        wideBVH = null;
+        if (bulkBuild) {
+            BBTree = new BBTree();
+        }
+    }
+
+    /**
+     * Improves the BBTree with tree rotations within the rotation budget and reports the SAH cost
+     * before and after.
+     */
+    private void optimizeTree() {
+        long startTime = System.currentTimeMillis();
+        double before = BBTree.getSAHCost();
+        int passes = BBTree.optimize(rotationBudget, buildThreads);
+        long duration = System.currentTimeMillis() - startTime;
+
+        System.out.println("BVH rotations in " + duration + " ms (" + passes + " passes, SAH cost "
+                + String.format("%.2f", before) + " -> " + String.format("%.2f", BBTree.getSAHCost()) + ")");
+    }
+
+    /**
+     * Builds the kd-tree or the uniform grid over every object and reports the build time.
+     * The BVH is dropped, so the BVH report and refits are not available for these structures.
+     */
+    private void buildAlternativeStructure() {
+        long startTime = System.currentTimeMillis();
+        if (treeDirty || accelerationStructure == null) {
+            linearBVH = null;
+            wideBVH = null;
+            useStructure(structureType == AccelerationStructure.Type.KD_TREE
+                    ? new KdTree(objects) : new UniformGrid(objects));
+            treeDirty = false;
+        }
+        long duration = System.currentTimeMillis() - startTime;
+
+        System.out.println(structureType + " built in " + duration + " ms (" + objects.size() + " objects)");
+    }
+
+    /**
+     * Creates a quality report of the built BVH and traces the given sample rays through it
+     * to measure the nodes visited and primitives tested per ray.
+     *
+     * @param rays The sample rays, usually camera rays
+     * @param camera The camera whose clip planes limit the rays
+     * @return The report, or null if the acceleration structure was not built yet
+     */
+    public BVHReport reportAccelerationStructure(List<Ray> rays, Camera camera) {
+        if (linearBVH == null) return null;
+        BVHReport report = new BVHReport(linearBVH);
+        report.sampleRays(linearBVH, rays, camera.clipPlanes[0], camera.clipPlanes[1]);
+        return report;
+    }
+
+    /**
+     * Updates the acceleration structure after objects moved, e.g. between the frames of an
+     * animation. The bounds of the existing tree are recomputed bottom-up without changing its
+     * topology, which takes milliseconds for rigid motions. When the motion degraded the tree so
+     * much that its SAH cost grew past the rebuild threshold, the tree is rebuilt instead.
+     * The kd-tree, the grid, quantized BVHs and SBVHs cannot be refit and are always rebuilt; a
+     * refit would replace the clipped leaf boxes of an SBVH by the full boxes of their objects. In
+     * incremental mode the BBTree is refit too, since later rebuilds flatten it again.
+     */
+    public void refit() {
+        if (!bulkBuild) {
+            BBTree.refit();
+        }
+        boolean spatialSplits = bulkBuild && buildMethod == BuildMethod.SBVH;
+        if (treeDirty || linearBVH == null || spatialSplits || structureType != AccelerationStructure.Type.BVH) {
+            treeDirty = true;
+            buildAccelerationStructure();
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        double cost = linearBVH.refit();
+        if (wideTraversal) {
+            wideBVH = new WideBVH(linearBVH);
+            useStructure(wideBVH);
+        }
+        long duration = System.currentTimeMillis() - startTime;
+        double drift = builtSAHCost > 0 ? cost / builtSAHCost : 1;
+
+        if (drift > rebuildThreshold) {
+            System.out.println("BVH refit in " + duration + " ms degraded the SAH cost by "
+                    + String.format("%.2f", drift) + "x, rebuilding");
+            if (!bulkBuild) {
+                BBTree = new BBTree();
+                for (Object3D object : objects) {
+                    BBTree.insert(object);
+                }
+            }
+            treeDirty = true;
+            buildAccelerationStructure();
+            return;
+        }
+
+        System.out.println("BVH refit in " + duration + " ms (SAH cost "
+                + String.format("%.2f", cost) + ", " + String.format("%.2f", drift) + "x of the built tree)");
+    }
+
+    /**
+     * Gets the factor by which a refit may increase the SAH cost before the tree is rebuilt.
+     *
+     * @return The rebuild threshold
+     */
+    public static double getRebuildThreshold() {
+        return rebuildThreshold;
+    }
+
+    /**
+     * Sets the factor by which a refit may increase the SAH cost before the tree is rebuilt.
+     *
+     * @param rebuildThreshold The rebuild threshold, 1 or more
+     */
+    public static void setRebuildThreshold(double rebuildThreshold) {
+        Scene.rebuildThreshold = Math.max(1, rebuildThreshold);
+    }
+
+    /**
+     * Gets the number of extra references the SBVH builder may create for split objects.
+     *
+     * @return The budget as a fraction of the object count
+     */
+    public static double getSplitBudget() {
+        return splitBudget;
+    }
+
+    /**
+     * Sets the number of extra references the SBVH builder may create for split objects.
+     * Larger budgets give tighter trees for scenes with long or overlapping triangles at the
+     * cost of memory and build time.
+     *
+     * @param splitBudget The budget as a fraction of the object count, 0 or more
+     */
+    public static void setSplitBudget(double splitBudget) {
+        splitBudget = Math.max(0, splitBudget);
+        if (Scene.splitBudget != splitBudget && buildMethod == BuildMethod.SBVH) {
+            treeDirty = true;
+        }
+        Scene.splitBudget = splitBudget;
+    }
+
+    /**
+     * Gets the time spent improving the BBTree with rotations after it is built.
+     *
+     * @return The rotation budget in milliseconds
+     */
+    public static long getRotationBudget() {
+        return rotationBudget;
+    }
+
+    /**
+     * Sets the time spent improving the BBTree with rotations after it is built. Rotations
+     * recover most of the trace time lost by incremental insertion for a fraction of a rebuild.
+     *
+     * @param rotationBudget The rotation budget in milliseconds, 0 to disable the optimization
+     */
+    public static void setRotationBudget(long rotationBudget) {
+        if (Scene.rotationBudget != rotationBudget) {
+            treeDirty = true;
+        }
+        Scene.rotationBudget = rotationBudget;
+    }
+
+    /**
+     * Gets the objects added to the scene that have a bounding box.
+     *
+     * @return The list of scene objects
+     */
+    public static List<Object3D> getObjects() {
+        return objects;
+    }
+
+    /**
+     * Gets the objects added to the scene without a bounding box, like infinite planes.
+     *
+     * @return The list of unbounded objects
+     */
+    public static List<Object3D> getUnboundedObjects() {
+        return unboundedObjects;
+    }
+
+    /**
+     * Gets the number of threads used to build the BBTree.
+     *
+     * @return The number of build threads
+     */
+    public static int getBuildThreads() {
+        return buildThreads;
+    }
+
+    /**
+     * Sets the number of threads used to build the BBTree.
+     *
+     * @param buildThreads The number of build threads (at least 1)
+     */
+    public static void setBuildThreads(int buildThreads) {
+        Scene.buildThreads = Math.max(1, buildThreads);
+    }
+
+    /**
+     * Gets the algorithm used to build the BBTree in bulk build mode.
+     *
+     * @return The build method
+     */
+    public static BuildMethod getBuildMethod() {
+        return buildMethod;
+    }
+
+    /**
+     * Sets the algorithm used to build the BBTree in bulk build mode. The SAH builder gives
+     * faster renders while the LBVH builders favor short build times, e.g. for animations
+     * that rebuild the tree every frame.
+     *
+     * @param buildMethod The build method
+     */
+    public static void setBuildMethod(BuildMethod buildMethod) {
+        if (Scene.buildMethod != buildMethod) {
+            treeDirty = true;
+        }
+        Scene.buildMethod = buildMethod;
+    }
+
+    /**
+     * Checks whether objects are staged and built in one pass instead of inserted one by one.
+     *
+     * @return true if bulk build mode is enabled
+     */
+    public static boolean isBulkBuild() {
+        return bulkBuild;
+    }
+
+    /**
+     * Enables or disables bulk build mode. Objects added while it is disabled are
+     * inserted incrementally into the BBTree.
+     *
+     * @param bulkBuild true to stage objects and build the tree before rendering
+     */
+    public static void setBulkBuild(boolean bulkBuild) {
+        Scene.bulkBuild = bulkBuild;
+    }
+
+    /**
+     * Gets the largest number of objects merged into a leaf of the BVH.
+     *
+     * @return The maximum leaf size
+     */
+    public static int getMaxLeafSize() {
+        return maxLeafSize;
+    }
+
+    /**
+     * Sets the largest number of objects merged into a leaf of the BVH. Subtrees up to this size
+     * become a single leaf when the surface area heuristic finds testing their objects cheaper
+     * than traversing them. Values of 4 to 8 suit triangle meshes; 1 keeps one object per leaf.
+     *
+     * @param maxLeafSize The maximum leaf size, at least 1
+     */
+    public static void setMaxLeafSize(int maxLeafSize) {
+        maxLeafSize = Math.max(1, maxLeafSize);
+        if (Scene.maxLeafSize != maxLeafSize) {
+            treeDirty = true;
+        }
+        Scene.maxLeafSize = maxLeafSize;
+    }
+
+    /**
+     * Gets the file that stores the built BVH between runs.
+     *
+     * @return The cache file, or null if caching is disabled
+     */
+    public static Path getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Sets the file that stores the built BVH between runs. Only bulk builds are cached.
+     *
+     * @param cacheFile The cache file, usually next to the scene assets, or null to disable caching
+     */
+    public static void setCacheFile(Path cacheFile) {
+        Scene.cacheFile = cacheFile;
+    }
+
+    /**
+     * Gets the number of camera rays sampled for the BVH report.
+     *
+     * @return The number of sample rays, 0 if the report is disabled
+     */
+    public static int getReportRays() {
+        return reportRays;
+    }
+
+    /**
+     * Sets the number of camera rays sampled for the BVH report written after the tree is built.
+     *
+     * @param reportRays The number of sample rays, 0 to disable the report
+     */
+    public static void setReportRays(int reportRays) {
+        Scene.reportRays = Math.max(0, reportRays);
+    }
+
+    /**
+     * Gets the kind of acceleration structure rays are traced through.
+     *
+     * @return The structure type
+     */
+    public static AccelerationStructure.Type getStructureType() {
+        return structureType;
+    }
+
+    /**
+     * Selects the kind of acceleration structure built for the next render.
+     *
+     * @param structureType The structure type
+     */
+    public static void setStructureType(AccelerationStructure.Type structureType) {
+        if (Scene.structureType != structureType) {
+            treeDirty = true;
+        }
+        Scene.structureType = structureType;
+    }
+
+    /**
+     * Checks whether camera and shadow rays are traced in packets.
+     *
+     * @return true if packet tracing is enabled
+     */
+    public static boolean isPacketTracing() {
+        return packetTracing;
+    }
+
+    /**
+     * Enables or disables tracing camera rays, and the shadow rays of their hits, in packets of
+     * neighbouring pixels that walk the acceleration structure together.
+     *
+     * @param packetTracing true to trace rays in packets
+     */
+    public static void setPacketTracing(boolean packetTracing) {
+        Scene.packetTracing = packetTracing;
+    }
+
+    /**
+     * Checks whether the secondary rays of a tile are sorted and traced ahead of shading.
+     *
+     * @return true if ray reordering is enabled
+     */
+    public static boolean isRayReordering() {
+        return rayReordering;
+    }
+
+    /**
+     * Enables or disables tracing the reflection and refraction rays of a tile as sorted batches
+     * before shading it, which keeps consecutive rays in the same part of the tree. Only used
+     * with packet tracing. Off by default: handing the hits over to shading costs more than the
+     * better locality saves unless the scene is much larger than the caches.
+     *
+     * @param rayReordering true to sort and batch the secondary rays
+     */
+    public static void setRayReordering(boolean rayReordering) {
+        Scene.rayReordering = rayReordering;
+    }
+
+    /**
+     * Checks whether rays traverse the four-wide BVH instead of the binary one.
+     *
+     * @return true if wide traversal is enabled
+     */
+    public static boolean isWideTraversal() {
+        return wideTraversal;
+    }
+
+    /**
+     * Enables or disables traversal of the four-wide BVH. Wide nodes halve the depth of the
+     * tree and test four boxes per visit, which pays off for large scenes.
+     *
+     * @param wideTraversal true to traverse the four-wide BVH
+     */
+    public static void setWideTraversal(boolean wideTraversal) {
+        if (Scene.wideTraversal != wideTraversal) {
+            treeDirty = true;
+        }
+        Scene.wideTraversal = wideTraversal;
+    }
+
+    /**
+     * Gets the number of bits per bound of the quantized BVH nodes.
+     *
+     * @return 8 or 16, or 0 if the nodes keep full precision
+     */
+    public static int getNodeQuantization() {
+        return nodeQuantization;
+    }
+
+    /**
+     * Sets the number of bits per bound of the BVH nodes. Quantized nodes store their bounds as
+     * offsets inside the box of their parent, which shrinks the tree by about four times with
+     * 8 bits, for scenes whose tree would not fit in memory otherwise. The BVH report and refits
+     * need the full precision tree and are not available for quantized trees; wide traversal is
+     * ignored.
+     *
+     * @param nodeQuantization 8 or 16, or 0 to keep full precision nodes
+     * @throws IllegalArgumentException If the number of bits is not supported
+     */
+    public static void setNodeQuantization(int nodeQuantization) {
+        if (nodeQuantization != 0 && nodeQuantization != 8 && nodeQuantization != 16) {
+            throw new IllegalArgumentException("Unsupported node quantization: " + nodeQuantization + " bits");
+        }
+        if (Scene.nodeQuantization != nodeQuantization) {
+            treeDirty = true;
+        }
+        Scene.nodeQuantization = nodeQuantization;
+    }
+
+    /**
+     * Gets the number of levels of detail generated for every loaded OBJ model.
+     *
+     * @return The number of levels, 1 if only the full resolution model is kept
+     */
+    public static int getLevelsOfDetail() {
+        return levelsOfDetail;
+    }
+
+    /**
+     * Sets the number of levels of detail generated for every OBJ model loaded afterwards. Each
+     * level is simplified to about a quarter of the triangles of the previous one, and
+     * {@link #selectLevelsOfDetail(Camera)} picks one per model from its projected size.
+     *
+     * @param levelsOfDetail The number of levels, 1 to keep only the full resolution model
+     */
+    public static void setLevelsOfDetail(int levelsOfDetail) {
+        Scene.levelsOfDetail = Math.max(1, levelsOfDetail);
+    }
+
+    /**
+     * Gets the largest number of triangles per covered pixel of a selected level of detail.
+     *
+     * @return The triangles per pixel
+     */
+    public static double getLodTrianglesPerPixel() {
+        return lodTrianglesPerPixel;
+    }
+
+    /**
+     * Sets the largest number of triangles per covered pixel of a selected level of detail.
+     * Higher values keep finer levels for distant models.
+     *
+     * @param lodTrianglesPerPixel The triangles per pixel
+     */
+    public static void setLodTrianglesPerPixel(double lodTrianglesPerPixel) {
+        Scene.lodTrianglesPerPixel = lodTrianglesPerPixel;
+    }
+
+    /**
+     * Checks whether loaded OBJ models go through {@link MeshPreprocessor}.
+     *
+     * @return true if mesh preprocessing is enabled
+     */
+    public static boolean isMeshPreprocessing() {
+        return meshPreprocessing;
+    }
+
+    /**
+     * Enables or disables welding, cleaning and Morton ordering of the OBJ models loaded afterwards.
+     *
+     * @param meshPreprocessing true to preprocess loaded models
+     */
+    public static void setMeshPreprocessing(boolean meshPreprocessing) {
+        Scene.meshPreprocessing = meshPreprocessing;
+    }
+
+    /**
+     * Gets the distance under which mesh vertices are welded.
+     *
+     * @return The distance, as a fraction of the diagonal of the model
+     */
+    public static double getWeldEpsilon() {
+        return weldEpsilon;
+    }
+
+    /**
+     * Sets the distance under which the vertices of the OBJ models loaded afterwards are welded.
+     * It also bounds the height below which a triangle counts as degenerate.
+     *
+     * @param weldEpsilon The distance, as a fraction of the diagonal of the model
+     */
+    public static void setWeldEpsilon(double weldEpsilon) {
+        Scene.weldEpsilon = Math.max(0, weldEpsilon);
+    }
+
     /**
      * Finds the closest valid intersection between a ray and scene objects.
      *
@@ -78,16 +818,8 @@ public class Scene {
      * @return The closest valid intersection, or null if none found
      */
     public static Intersection findRayIntersection(Ray ray, Object3D ignoreShape) {
-        Intersection[] allHits = Scene.BBTree.traverse(ray);
-        if (allHits == null) return null;
-
-        // Return the closest valid intersection (first in sorted array)
-        for (Intersection hit : allHits) {
-            if (hit != null && hit.object != ignoreShape && hit.distance > Camera.getEpsilon()) {
-                return hit;
-            }
-        }
-        return null;
+        if (accelerationStructure == null) return null;
+        return accelerationStructure.closestHit(ray, Math.nextUp(Camera.getEpsilon()), Double.POSITIVE_INFINITY, ignoreShape);
     }
     /**
      * Finds the closest intersection within camera clip planes.
@@ -97,27 +829,71 @@ public class Scene {
      * @return The closest valid intersection, or null if none found
      */
     public Intersection findClosestIntersection(Ray ray, Camera camera) {
-        Intersection[] allHits = Scene.BBTree.traverse(ray);
-        if (allHits == null || allHits.length == 0) return null;
-
-        double clipNear = camera.clipPlanes[0];
-        double clipFar = camera.clipPlanes[1];
-        Intersection closestHit = null;
-        double minDist = Double.MAX_VALUE;
-
-
-        for (Intersection hit : allHits) {
-            if (hit != null &&
-                    hit.distance >= clipNear &&
-                    hit.distance <= clipFar &&
-                    hit.distance < minDist) {
-                minDist = hit.distance;
-                closestHit = hit;
+        if (accelerationStructure == null) return null;
+        return accelerationStructure.closestHit(ray, camera.clipPlanes[0], camera.clipPlanes[1], null);
+    }
+    /**
+     * Finds the closest intersection of every camera ray of a packet within the interval of its lane.
+     *
+     * @param packet The camera rays; receives the closest hit of every lane
+     */
+    public void findClosestIntersections(RayPacket packet) {
+        if (accelerationStructure == null) return;
+        accelerationStructure.closestHit(packet);
+    }
+
+    /**
+     * Traces the shadow rays of every hit of a packet toward each point and spot light as one
+     * packet per light, and stores the results in {@link Intersection#shadows} so shading does
+     * not trace them again.
+     *
+     * @param packet The camera rays, after {@link #findClosestIntersections(RayPacket)}
+     * @param shadows Packet reused for the shadow rays
+     */
+    public void castShadows(RayPacket packet, RayPacket shadows) {
+        if (accelerationStructure == null) return;
+        List<Light> lights = Light.getLights();
+        int[] lanes = new int[packet.size()];
+        for (int i = 0; i < lights.size(); i++) {
+            Light light = lights.get(i);
+            if (!light.type().equals("point") && !light.type().equals("spot")) continue;
+
+            shadows.clear();
+            for (int lane = 0; lane < packet.size(); lane++) {
+                Intersection hit = packet.getHit(lane);
+                if (hit == null || hit.color == null || hit.object == null) continue;
+                Ray shadowRay = shadowRay(hit.point, hit.getNormal(), light);
+                double lightDistance = Vector3D.subtract(light.getPosition(), shadowRay.origin).value;
+                lanes[shadows.add(shadowRay, Math.nextUp(Camera.getShadowEpsilon()), Math.nextDown(lightDistance), hit.object)] = lane;
+            }
+            accelerationStructure.occluded(shadows);
+
+            for (int s = 0; s < shadows.size(); s++) {
+                Intersection hit = packet.getHit(lanes[s]);
+                if (hit.shadows == null) hit.shadows = new boolean[lights.size()];
+                hit.shadows[i] = shadows.isOccluded(s);
             }
         }
+    }
+
+    /**
+     * Creates the ray from a surface point toward a light, offset along the normal so the
+     * surface does not shadow itself.
+     *
+     * @param surfacePoint The point being tested
+     * @param normal Surface normal at the point
+     * @param light The light source
+     * @return The shadow ray
+     */
+    private static Ray shadowRay(Vector3D surfacePoint, Vector3D normal, Light light) {
+        // Direction from surface point to the light
+        Vector3D lightDir = Vector3D.subtract(light.getPosition(), surfacePoint).normalize().scale(-1);
 
-        return closestHit;
+        // Offset the ray origin slightly along the normal to prevent self-intersection
+        Vector3D shadowOrigin = surfacePoint.add(normal.scale(Camera.getShadowEpsilon()));
+        return new Ray(shadowOrigin, lightDir);
     }
+
     /**
      * Determines if a surface point is in shadow relative to a light source.
      *
@@ -128,36 +904,126 @@ public class Scene {
      * @return true if the point is in shadow, false otherwise
      */
     public static boolean isInShadow(Vector3D surfacePoint, Vector3D normal, Light light, Object3D sourceObject) {
-        // Step 1: Calculate direction from surface point to the light
-        Vector3D lightDir = Vector3D.subtract(light.getPosition(), surfacePoint).normalize().scale(-1);
+        // Step 1: Cast a shadow ray from just above the surface toward the light
+        Ray shadowRay = shadowRay(surfacePoint, normal, light);
 
-        // Step 2: Offset the ray origin slightly along the normal to prevent self-intersection
-        Vector3D shadowOrigin = surfacePoint.add(normal.scale(Camera.getShadowEpsilon()));
+        // Step 2: Distance from the point to the light source
+        double lightDistance = Vector3D.subtract(light.getPosition(), shadowRay.origin).value;
+
+        // Step 3: Look for any object blocking the light; the object casting the shadow ray is skipped
+        if (accelerationStructure == null) return false;
+        return accelerationStructure.occluded(shadowRay, Math.nextUp(Camera.getShadowEpsilon()), Math.nextDown(lightDistance), sourceObject);
+    }
 
-        // Step 3: Cast shadow ray toward the light
-        Ray shadowRay = new Ray(shadowOrigin, lightDir);
 
-        // Step 4: Distance from the point to the light source
-        double lightDistance = Vector3D.subtract(light.getPosition(), shadowOrigin).value;
+    /**
+     * Result of bending a ray through a surface.
+     *
+     * @param ray The refracted ray, or null on total internal reflection
+     * @param normal The normal on the side the ray leaves from
+     */
+    record Refraction(Ray ray, Vector3D normal) {
+    }
+
+    /**
+     * Creates the ray reflected off a surface point as seen from the camera, offset along the
+     * normal so the surface does not hit itself.
+     *
+     * @param surfacePoint The point of reflection
+     * @param normal Surface normal at the point
+     * @return The reflection ray
+     */
+    static Ray reflectionRay(Vector3D surfacePoint, Vector3D normal) {
+        Vector3D incoming = Vector3D.subtract(surfacePoint, Camera.getCameraPosition()).normalize().scale(-1);
+
+        if (incoming.dot(normal) > 0) {
+            normal = normal.scale(-1);
+        }
+
+        Vector3D reflected = Vector3D.subtract(incoming, normal.scale(2 * incoming.dot(normal))).normalize();
+
+        // Offset origin to avoid self-hit
+        Vector3D rayOrigin = surfacePoint.add(normal.scale(Camera.getEpsilon()));
+        return new Ray(rayOrigin, reflected);
+    }
+
+    /**
+     * Bends the view ray through a surface point of a transparent object using Snell's law.
+     *
+     * @param surfacePoint The point of refraction
+     * @param normal Surface normal at the point
+     * @param shape The transparent object
+     * @return The refracted ray and the normal on its side
+     */
+    static Refraction refract(Vector3D surfacePoint, Vector3D normal, Object3D shape) {
+        double n1 = 1.0;
+        double n2 = shape.refraction;
 
-        // Step 5: Check for intersections along this ray
-        //Intersection[] intersections = BBTree.traverse(shadowRay);
-        //if(intersections == null || intersections.length == 0) return false;
-        Intersection intersection = Scene.findRayIntersection(shadowRay, sourceObject);
-        if(intersection == null) return false;
-        Object3D obj = intersection.object;
+        Vector3D incoming = Vector3D.subtract(surfacePoint, Camera.getCameraPosition()).normalize().scale(-1);
+        double c1 = normal.dot(incoming);
 
-        if (obj == sourceObject) return false; // Skip the object casting the shadow ray
 
-        if (intersection.distance > Camera.getShadowEpsilon() && intersection.distance < lightDistance) {
-            return true; // Object blocks the light — surface is in shadow
+        if (c1 < 0) {
+            c1 = -c1;
+        }else{
+            normal = normal.scale(-1);
+            n1 = n2;
+            n2 = 1.0;
         }
 
 
+        double eta = n1 / n2;
+        double theta = Math.acos(c1);
+        double k = 1 - (eta * eta) * (1 - Math.pow(Math.sin(theta), 2));
+
+        if (k < 0) {
+            return new Refraction(null, normal);
+        }
 
-        return false; // No object blocked the light — surface is illuminated
+        double c2 = Math.sqrt(k);
+        double c3 = (eta * c1) - c2;
+        Vector3D refracted = incoming.scale(eta).add(normal.scale(c3)).normalize();
+
+        Vector3D rayOrigin = surfacePoint.add(normal.scale(Camera.getEpsilon()));
+        return new Refraction(new Ray(rayOrigin, refracted), normal);
     }
 
+    /**
+     * Finds the closest hit of a reflection or refraction ray, taking it from the hits traced
+     * ahead of time by {@link #traceSecondaryRays(Intersection[])} when they contain the ray.
+     *
+     * @param ray The secondary ray
+     * @param ignoreShape Object to exclude from intersection tests
+     * @return The closest valid intersection, or null if none found
+     */
+    private static Intersection traceSecondaryRay(Ray ray, Object3D ignoreShape) {
+        Map<SecondaryRayBatch.Key, Intersection> traced = secondaryHits.get();
+        if (!traced.isEmpty()) {
+            SecondaryRayBatch.Key key = new SecondaryRayBatch.Key(ray, ignoreShape);
+            if (traced.containsKey(key)) return traced.get(key);
+        }
+        return findRayIntersection(ray, ignoreShape);
+    }
+
+    /**
+     * Traces every reflection and refraction ray that shading the given hits will need, level by
+     * level. The rays of each level are sorted by direction octant and origin and traced in
+     * packets, and their hits are kept for the current thread until
+     * {@link #clearSecondaryRays()} is called.
+     *
+     * @param hits The closest hits of the camera rays of a tile; null entries are skipped
+     */
+    public void traceSecondaryRays(Intersection[] hits) {
+        if (accelerationStructure == null) return;
+        new SecondaryRayBatch(accelerationStructure, secondaryHits.get()).trace(hits);
+    }
+
+    /**
+     * Drops the secondary hits traced ahead of time on the current thread.
+     */
+    public void clearSecondaryRays() {
+        secondaryHits.get().clear();
+    }
 
     /**
      * Calculates reflection color for a surface point using recursive ray tracing.
@@ -173,21 +1039,11 @@ public class Scene {
             return Scene.background;
         }
 
-        // Step 1: Compute reflected direction
-        Vector3D incoming = Vector3D.subtract(surfacePoint, Camera.getCameraPosition()).normalize().scale(-1);
-
-        if (incoming.dot(normal) > 0) {
-            normal = normal.scale(-1);
-        }
-
-        Vector3D reflected = Vector3D.subtract(incoming, normal.scale(2 * incoming.dot(normal))).normalize();
-
-        // Step 2: Offset origin to avoid self-hit
-        Vector3D rayOrigin = surfacePoint.add(normal.scale(Camera.getEpsilon()));
-        Ray reflectionRay = new Ray(rayOrigin, reflected);
+        // Step 1: Compute reflected ray
+        Ray reflectionRay = reflectionRay(surfacePoint, normal);
 
-        // Step 3: Check intersection
-        Intersection hit = Scene.findRayIntersection(reflectionRay, ignoreShape);
+        // Step 2: Check intersection
+        Intersection hit = traceSecondaryRay(reflectionRay, ignoreShape);
         boolean shadowFound = false;
 
 
@@ -279,39 +1135,15 @@ public class Scene {
             return Scene.background;
         }
 
-        double n1 = 1.0;
-        double n2 = ignoreShape.refraction;
+        Refraction refraction = refract(surfacePoint, normal, ignoreShape);
+        normal = refraction.normal();
 
-        Vector3D incoming = Vector3D.subtract(surfacePoint, Camera.getCameraPosition()).normalize().scale(-1);
-        double c1 = normal.dot(incoming);
-
-
-        if (c1 < 0) {
-            c1 = -c1;
-        }else{
-            normal = normal.scale(-1);
-            n1 = n2;
-            n2 = 1.0;
-        }
-
-
-        double eta = n1 / n2;
-        double theta = Math.acos(c1);
-        double k = 1 - (eta * eta) * (1 - Math.pow(Math.sin(theta), 2));
-
-        if (k < 0) {
+        if (refraction.ray() == null) {
             // Total internal reflection
             return Scene.castReflection(surfacePoint, normal, ignoreShape, recursionLimit - 1);
         }
 
-        double c2 = Math.sqrt(k);
-        double c3 = (eta * c1) - c2;
-        Vector3D refracted = incoming.scale(eta).add(normal.scale(c3)).normalize();
-
-        Vector3D rayOrigin = surfacePoint.add(normal.scale(Camera.getEpsilon()));
-        Ray refractionRay = new Ray(rayOrigin, refracted);
-
-        Intersection hit = Scene.findRayIntersection(refractionRay, ignoreShape);
+        Intersection hit = traceSecondaryRay(refraction.ray(), ignoreShape);
 
         boolean shadowFound = false;
         if (hit != null && hit.object != null) {
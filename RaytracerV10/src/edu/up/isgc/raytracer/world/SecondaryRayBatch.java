@@ -0,0 +1,147 @@
+package edu.up.isgc.raytracer.world;
+
+import edu.up.isgc.raytracer.Intersection;
+import edu.up.isgc.raytracer.Ray;
+import edu.up.isgc.raytracer.Vector3D;
+import edu.up.isgc.raytracer.optimization.AccelerationStructure;
+import edu.up.isgc.raytracer.optimization.RayPacket;
+import edu.up.isgc.raytracer.optimization.RaySorter;
+import edu.up.isgc.raytracer.shapes.Object3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traces the reflection and refraction rays of a tile ahead of shading. Shading spawns these
+ * rays recursively, one pixel at a time, so consecutive rays wander all over the tree. The batch
+ * follows the same recursion level by level instead: every level collects the rays spawned by
+ * the hits of the previous one, sorts them with {@link RaySorter} and traces them in packets.
+ * The hits are stored by ray, so {@link Scene#castReflection} and {@link Scene#castRefraction}
+ * find them when they build the same rays during shading.
+ */
+class SecondaryRayBatch {
+    /** Recursion limit of the reflections cast from a shaded point, as in {@link edu.up.isgc.raytracer.lighting.Light} */
+    private static final int REFLECTION_DEPTH = 5;
+    /** Recursion limit of the refractions cast from a shaded point, as in {@link edu.up.isgc.raytracer.lighting.Light} */
+    private static final int REFRACTION_DEPTH = 10;
+
+    /**
+     * Identifies a secondary ray by its origin, direction and ignored object.
+     *
+     * @param ignore The object the ray starts from
+     * @param ox Origin x
+     * @param oy Origin y
+     * @param oz Origin z
+     * @param dx Direction x
+     * @param dy Direction y
+     * @param dz Direction z
+     */
+    record Key(Object3D ignore, double ox, double oy, double oz, double dx, double dy, double dz) {
+        /**
+         * Creates the key of a ray.
+         *
+         * @param ray The ray
+         * @param ignore The object the ray starts from
+         */
+        Key(Ray ray, Object3D ignore) {
+            this(ignore, ray.origin.x, ray.origin.y, ray.origin.z, ray.direction.x, ray.direction.y, ray.direction.z);
+        }
+    }
+
+    /**
+     * A call to {@link Scene#castReflection} or {@link Scene#castRefraction} that shading will make.
+     *
+     * @param reflection True for a reflection, false for a refraction
+     * @param point The surface point
+     * @param normal The surface normal
+     * @param source The object at the point
+     * @param limit The remaining recursion depth
+     */
+    private record Cast(boolean reflection, Vector3D point, Vector3D normal, Object3D source, int limit) {
+    }
+
+    private final AccelerationStructure structure;
+    private final Map<Key, Intersection> hits;
+
+    /**
+     * Creates a batch that traces through the given structure.
+     *
+     * @param structure The acceleration structure of the scene
+     * @param hits Receives the hit of every traced ray
+     */
+    SecondaryRayBatch(AccelerationStructure structure, Map<Key, Intersection> hits) {
+        this.structure = structure;
+        this.hits = hits;
+    }
+
+    /**
+     * Traces every reflection and refraction ray needed to shade the given camera hits.
+     *
+     * @param cameraHits The closest hits of the camera rays; null entries are skipped
+     */
+    void trace(Intersection[] cameraHits) {
+        List<Cast> level = new ArrayList<>();
+        for (Intersection hit : cameraHits) {
+            if (hit == null || hit.color == null || hit.object == null) continue;
+            level.add(new Cast(true, hit.point, hit.getNormal(), hit.object, REFLECTION_DEPTH));
+            level.add(new Cast(false, hit.point, hit.getNormal(), hit.object, REFRACTION_DEPTH));
+        }
+
+        RayPacket packet = new RayPacket();
+        while (!level.isEmpty()) {
+            // Build the rays of this level the way shading will
+            List<Cast> casts = new ArrayList<>(level.size());
+            List<Ray> rays = new ArrayList<>(level.size());
+            for (Cast cast : level) {
+                if (cast.limit() <= 0) continue;
+                Ray ray;
+                if (cast.reflection()) {
+                    ray = Scene.reflectionRay(cast.point(), cast.normal());
+                } else {
+                    if (cast.source().transparency <= 0) continue;
+                    Scene.Refraction refraction = Scene.refract(cast.point(), cast.normal(), cast.source());
+                    if (refraction.ray() == null) {
+                        // Total internal reflection continues as a reflection one level down
+                        cast = new Cast(true, cast.point(), refraction.normal(), cast.source(), cast.limit() - 1);
+                        if (cast.limit() <= 0) continue;
+                        ray = Scene.reflectionRay(cast.point(), cast.normal());
+                    } else {
+                        ray = refraction.ray();
+                    }
+                }
+                if (hits.containsKey(new Key(ray, cast.source()))) continue;
+                casts.add(cast);
+                rays.add(ray);
+            }
+
+            Ray[] batch = rays.toArray(new Ray[0]);
+            int[] order = RaySorter.sort(batch, batch.length);
+            Intersection[] found = new Intersection[batch.length];
+            for (int start = 0; start < order.length; start += RayPacket.MAX_SIZE) {
+                int end = Math.min(order.length, start + RayPacket.MAX_SIZE);
+                packet.clear();
+                for (int i = start; i < end; i++) {
+                    packet.add(batch[order[i]], Math.nextUp(Camera.getEpsilon()), Double.POSITIVE_INFINITY,
+                            casts.get(order[i]).source());
+                }
+                structure.closestHit(packet);
+                for (int i = start; i < end; i++) {
+                    found[order[i]] = packet.getHit(i - start);
+                }
+            }
+
+            // The hits of this level cast the rays of the next one
+            List<Cast> next = new ArrayList<>();
+            for (int i = 0; i < batch.length; i++) {
+                Cast cast = casts.get(i);
+                Intersection hit = found[i];
+                hits.put(new Key(batch[i], cast.source()), hit);
+                if (hit != null && hit.object != null) {
+                    next.add(new Cast(cast.reflection(), hit.point, hit.getNormal(), hit.object, cast.limit() - 1));
+                }
+            }
+            level = next;
+        }
+    }
+}